@@ -6,6 +6,9 @@
 
 package dmh.kuebiko;
 
+import java.awt.AWTEvent;
+import java.awt.Toolkit;
+import java.awt.event.AWTEventListener;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -24,9 +27,11 @@ import org.apache.log4j.PropertyConfigurator;
 import com.google.common.collect.Maps;
 
 import dmh.kuebiko.controller.NoteManager;
+import dmh.kuebiko.controller.TaskScheduler;
 import dmh.kuebiko.model.DaoParameter;
 import dmh.kuebiko.model.NoteDaoFactory;
 import dmh.kuebiko.model.NoteDaoFactory.OfficialDao;
+import dmh.kuebiko.util.StartupTrace;
 import dmh.kuebiko.view.NoteStackFrame;
 
 /**
@@ -41,7 +46,15 @@ public class Main {
         DAO_CLASS("IN_MEMORY"),
         DATA_LOCATION(null),
         FONT_NAME("Monospaced"),
-        FONT_SIZE("12");
+        FONT_SIZE("12"),
+        /** Milliseconds without typing before an edited note is saved; zero
+         *  or less to disable autosaving. */
+        AUTOSAVE_DELAY("2000"),
+        /** How hard the file system DAO works to get saves onto the disk:
+         *  SYNC_EACH, GROUP or ASYNC. */
+        DURABILITY("GROUP"),
+        /** Megabytes of note text to cache outside the heap; zero to disable. */
+        TEXT_CACHE_SIZE("0");
 
         final String defaultValue;
 
@@ -85,6 +98,8 @@ public class Main {
 
         Thread.setDefaultUncaughtExceptionHandler(new KuebikoUncaughtExceptionHandler());
 
+        final StartupTrace trace = StartupTrace.get();
+        trace.begin("look and feel");
         try {
             // Special setup to support MacOS X menus.
             System.setProperty("apple.laf.useScreenMenuBar", "true");
@@ -95,8 +110,22 @@ public class Main {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        trace.end("look and feel");
 
+        // Decode the frame's images while the rest of startup runs.
+        NoteStackFrame.preloadImages();
+
+        trace.begin("settings");
         loadSettings();
+        trace.end("settings");
+
+        // Record user activity, so that maintenance work can wait for idle periods.
+        Toolkit.getDefaultToolkit().addAWTEventListener(new AWTEventListener() {
+            @Override
+            public void eventDispatched(AWTEvent event) {
+                TaskScheduler.getInstance().recordActivity();
+            }
+        }, AWTEvent.KEY_EVENT_MASK | AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_WHEEL_EVENT_MASK);
 
         SwingUtilities.invokeLater(new Runnable() {
             @Override
@@ -104,10 +133,15 @@ public class Main {
                 Map<String, String> daoParams = Maps.newHashMap();
                 daoParams.put(DaoParameter.CLASS_NAME.toString(), getSetting(Setting.DAO_CLASS));
                 daoParams.put(DaoParameter.DIRECTORY.toString(), getSetting(Setting.DATA_LOCATION));
+                daoParams.put(DaoParameter.DURABILITY.toString(), getSetting(Setting.DURABILITY));
+                daoParams.put(DaoParameter.TEXT_CACHE_SIZE.toString(),
+                        getSetting(Setting.TEXT_CACHE_SIZE));
 
+                // Show the frame straight away, and load the stack behind it.
+                trace.begin("dao init");
                 NoteManager noteMngr;
                 try {
-                    noteMngr = new NoteManager(NoteDaoFactory.get(daoParams));
+                    noteMngr = new NoteManager(NoteDaoFactory.get(daoParams), false);
                 } catch (Exception e) {
                     System.err.printf("Invalid parameters [%s].%n", daoParams);
                     System.err.println("Valid DAOs:");
@@ -116,9 +150,14 @@ public class Main {
                     }
                     throw new RuntimeException(e);
                 }
+                trace.end("dao init");
 
+                trace.begin("frame build");
                 NoteStackFrame noteFrame = new NoteStackFrame(noteMngr);
+                trace.end("frame build");
+                trace.begin("first paint");
                 noteFrame.setVisible(true);
+                noteFrame.loadStack();
             }
         });
     }
@@ -0,0 +1,195 @@
+/**
+ * Kuebiko - FrecencyTracker.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Tracker for how frequently and how recently each note in a stack has been
+ * visited ("frecency"). Each visit adds one to a note's score, and scores
+ * decay exponentially over time, so a note visited often last month ranks
+ * about the same as a note visited a few times this week.
+ *
+ * <p>Notes are tracked by title. Scores may be persisted to a file, so that
+ * rankings survive restarts. Trackers are thread safe, so that saving may be
+ * left to a background task.</p>
+ *
+ * @author davehuffman
+ */
+public class FrecencyTracker {
+    private static final Logger log = Logger.getLogger(FrecencyTracker.class);
+
+    /** The name of the file frecency data is stored in. */
+    static final String FILE_NAME = "frecency.properties";
+
+    /** The time it takes for a score to halve, in milliseconds (one week). */
+    static final double HALF_LIFE = 7 * 24 * 60 * 60 * 1000d;
+
+    /** Scores below this are forgotten rather than persisted. */
+    private static final double MIN_SCORE = 0.01;
+
+    /**
+     * Value object representing a note's score at a point in time.
+     */
+    private static class Entry {
+        private final double score;
+        private final long timestamp;
+
+        Entry(double score, long timestamp) {
+            this.score = score;
+            this.timestamp = timestamp;
+        }
+
+        double scoreAt(long time) {
+            return score * Math.pow(0.5, (time - timestamp) / HALF_LIFE);
+        }
+    }
+
+    private final File file;
+    private final Map<String, Entry> entries = Maps.newHashMap();
+    private boolean changed = false;
+
+    /**
+     * Constructor. Loads any previously saved data.
+     * @param file The file to persist data to, or null if the data should
+     *             not be persisted.
+     */
+    public FrecencyTracker(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Record a visit to a note.
+     * @param title The title of the visited note.
+     */
+    public void recordVisit(String title) {
+        recordVisit(title, System.currentTimeMillis());
+    }
+
+    synchronized void recordVisit(String title, long time) {
+        final Entry entry = entries.get(title);
+        final double score = (entry == null)? 0 : entry.scoreAt(time);
+        entries.put(title, new Entry(score + 1, time));
+        changed = true;
+    }
+
+    /**
+     * Forget a note. Should be called when a note is deleted.
+     * @param title The title of the note to forget.
+     */
+    public synchronized void forget(String title) {
+        changed |= (entries.remove(title) != null);
+    }
+
+    /**
+     * Move a note's visit history to a new title.
+     * @param oldTitle The note's old title.
+     * @param newTitle The note's new title.
+     */
+    public synchronized void rename(String oldTitle, String newTitle) {
+        final Entry entry = entries.remove(oldTitle);
+        if (entry != null) {
+            entries.put(newTitle, entry);
+            changed = true;
+        }
+    }
+
+    /**
+     * @param title The title of a note.
+     * @return The current score of the note; zero if it has never been visited.
+     */
+    public synchronized double getScore(String title) {
+        final Entry entry = entries.get(title);
+        return (entry == null)? 0 : entry.scoreAt(System.currentTimeMillis());
+    }
+
+    /**
+     * Take a snapshot of the current score of every visited note, which may
+     * safely be handed to another thread.
+     * @return An immutable map of titles to scores.
+     */
+    public synchronized Map<String, Double> snapshot() {
+        final long now = System.currentTimeMillis();
+        final Map<String, Double> scores = Maps.newHashMapWithExpectedSize(entries.size());
+        for (Map.Entry<String, Entry> entry: entries.entrySet()) {
+            scores.put(entry.getKey(), entry.getValue().scoreAt(now));
+        }
+        return Collections.unmodifiableMap(scores);
+    }
+
+    private synchronized void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+
+        final Properties props = new Properties();
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Usage data is nice to have; losing it is not worth failing over.
+            log.warn(String.format("Could not read frecency data [%s].", file), e);
+            return;
+        }
+
+        for (String title: props.stringPropertyNames()) {
+            final String[] value = props.getProperty(title).split(",");
+            try {
+                entries.put(title, new Entry(
+                        Double.parseDouble(value[0]), Long.parseLong(value[1])));
+            } catch (RuntimeException e) {
+                log.warn(String.format("Ignoring bad frecency entry [%s].", title));
+            }
+        }
+    }
+
+    /**
+     * Persist the scores, if anything has changed since they were last saved.
+     */
+    public synchronized void save() {
+        if (file == null || !changed) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final Properties props = new Properties();
+        for (Map.Entry<String, Entry> entry: entries.entrySet()) {
+            if (entry.getValue().scoreAt(now) >= MIN_SCORE) {
+                props.setProperty(entry.getKey(), String.format("%s,%d",
+                        entry.getValue().score, entry.getValue().timestamp));
+            }
+        }
+
+        try {
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                props.store(out, "Kuebiko note usage data.");
+            } finally {
+                out.close();
+            }
+            changed = false;
+        } catch (IOException e) {
+            log.warn(String.format("Could not write frecency data [%s].", file), e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Kuebiko - FuzzyMatcher.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+/**
+ * Fuzzy string matcher. A pattern matches a string if every character of the
+ * pattern appears in the string, in order, ignoring case. Matches are scored
+ * so that consecutive characters and characters at the start of words count
+ * for more, while gaps between matched characters count against the match.
+ *
+ * @author davehuffman
+ */
+public final class FuzzyMatcher {
+    /** Score for a string that does not match. */
+    public static final int NO_MATCH = Integer.MIN_VALUE;
+
+    static final int MATCH_SCORE = 16;
+    static final int CONSECUTIVE_BONUS = 8;
+    static final int WORD_START_BONUS = 8;
+    static final int GAP_PENALTY = 1;
+    /** Long gaps shouldn't swamp everything else. */
+    static final int MAX_GAP_PENALTY = 8;
+
+    private final String pattern;
+
+    /**
+     * Constructor.
+     * @param pattern The pattern to match. May not be null.
+     */
+    public FuzzyMatcher(String pattern) {
+        this.pattern = TitleIndex.fold(pattern);
+    }
+
+    /**
+     * Score a string against the pattern.
+     * @param str The string to score. May not be null.
+     * @return The score of the string, where higher is better, or
+     *         {@link #NO_MATCH} if the string does not match.
+     */
+    public int score(String str) {
+        final int patternLength = pattern.length();
+        if (patternLength == 0) {
+            return 0;
+        }
+
+        int score = 0;
+        int p = 0;
+        int prevMatch = -1;
+        for (int i = 0; i < str.length() && p < patternLength; i++) {
+            final char c = Character.toLowerCase(Character.toUpperCase(str.charAt(i)));
+            if (c != pattern.charAt(p)) {
+                continue;
+            }
+
+            score += MATCH_SCORE;
+            if (i == 0 || !Character.isLetterOrDigit(str.charAt(i - 1))) {
+                score += WORD_START_BONUS;
+            }
+            if (prevMatch >= 0 && prevMatch == i - 1) {
+                score += CONSECUTIVE_BONUS;
+            } else {
+                final int gap = (prevMatch < 0)? i : i - prevMatch - 1;
+                score -= Math.min(gap * GAP_PENALTY, MAX_GAP_PENALTY);
+            }
+            prevMatch = i;
+            p++;
+        }
+        return (p == patternLength)? score : NO_MATCH;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Kuebiko - NoteEvent.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import dmh.kuebiko.model.Note;
+
+/**
+ * Immutable description of a change to the notes in a stack.
+ *
+ * @author davehuffman
+ * @see NoteEventBus
+ */
+public final class NoteEvent {
+    /** Enumeration of the kinds of change. */
+    public static enum Type {
+        /** Notes were added to the stack. */
+        ADDED,
+        /** Notes' data (e.g. tags) changed. */
+        UPDATED,
+        /** Notes' titles changed. */
+        RENAMED,
+        /** Notes were deleted from the stack. */
+        DELETED,
+        /** The stack was saved. Carries the notes that were written. */
+        SAVED,
+        /** A batch of notes was read from the data store while loading the
+         *  stack in the background. The last batch may carry no notes. */
+        LOADED
+    }
+
+    private final Type type;
+    private final List<Note> notes;
+
+    public NoteEvent(Type type, List<Note> notes) {
+        this.type = type;
+        this.notes = ImmutableList.copyOf(notes);
+    }
+
+    public NoteEvent(Type type, Note note) {
+        this(type, Collections.singletonList(note));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The notes that changed, in the order they changed.
+     */
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NoteEvent [type=%s, notes=%d]", type, notes.size());
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Kuebiko - NoteEventBus.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.awt.EventQueue;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import dmh.kuebiko.model.Note;
+
+/**
+ * Bus for delivering {@link NoteEvent}s to {@link NoteListener}s.
+ *
+ * <p>Events are not delivered as they are posted. Instead, every event posted
+ * before the listeners next run is queued, and delivered together in a single
+ * batch, by default on the event dispatch thread; adjacent events of the same
+ * type are merged. A burst of changes (e.g. a bulk delete, or a save) thus
+ * costs each listener one call rather than one per note.</p>
+ *
+ * <p>Events may be posted, and listeners added and removed, from any thread
+ * without locking.</p>
+ *
+ * @author davehuffman
+ */
+public class NoteEventBus {
+    private static final Logger log = Logger.getLogger(NoteEventBus.class);
+
+    /** Runs tasks on the event dispatch thread. */
+    static final Executor EVENT_DISPATCH_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            EventQueue.invokeLater(command);
+        }
+    };
+
+    private final Executor executor;
+    private final AtomicReference<ImmutableList<NoteListener>> listeners =
+            new AtomicReference<ImmutableList<NoteListener>>(ImmutableList.<NoteListener>of());
+    private final Queue<NoteEvent> pending = new ConcurrentLinkedQueue<NoteEvent>();
+    private final AtomicBoolean deliveryScheduled = new AtomicBoolean(false);
+
+    private final Runnable deliverTask = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    /**
+     * Constructor. Events are delivered on the event dispatch thread.
+     */
+    public NoteEventBus() {
+        this(EVENT_DISPATCH_THREAD);
+    }
+
+    /**
+     * Constructor.
+     * @param executor The executor to deliver events with.
+     */
+    NoteEventBus(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void addListener(NoteListener listener) {
+        ImmutableList<NoteListener> current;
+        do {
+            current = listeners.get();
+        } while (!listeners.compareAndSet(current, ImmutableList.<NoteListener>builder()
+                .addAll(current).add(listener).build()));
+    }
+
+    public void removeListener(NoteListener listener) {
+        ImmutableList<NoteListener> current;
+        List<NoteListener> updated;
+        do {
+            current = listeners.get();
+            updated = Lists.newArrayList(current);
+            if (!updated.remove(listener)) {
+                return;
+            }
+        } while (!listeners.compareAndSet(current, ImmutableList.copyOf(updated)));
+    }
+
+    /**
+     * Queue an event for delivery.
+     * @param event The event.
+     */
+    public void post(NoteEvent event) {
+        pending.add(event);
+        if (deliveryScheduled.compareAndSet(false, true)) {
+            executor.execute(deliverTask);
+        }
+    }
+
+    private void deliver() {
+        // Clear the flag first, so that events posted by listeners (or by
+        // other threads, from here on) schedule another delivery.
+        deliveryScheduled.set(false);
+        final List<NoteEvent> events = coalesce(pending);
+        if (events.isEmpty()) {
+            return;
+        }
+
+        for (NoteListener listener: listeners.get()) {
+            try {
+                listener.notesChanged(events);
+            } catch (RuntimeException e) {
+                log.error(String.format("Listener [%s] failed.", listener), e);
+            }
+        }
+    }
+
+    /**
+     * Drain a queue of events, merging adjacent events of the same type.
+     * @param queue The events to drain.
+     * @return The coalesced events.
+     */
+    static List<NoteEvent> coalesce(Queue<NoteEvent> queue) {
+        final List<NoteEvent> events = Lists.newArrayList();
+        NoteEvent.Type type = null;
+        List<Note> notes = null;
+        Set<Note> seen = null;
+        for (NoteEvent event = queue.poll(); event != null; event = queue.poll()) {
+            if (event.getType() != type) {
+                if (type != null) {
+                    events.add(new NoteEvent(type, notes));
+                }
+                type = event.getType();
+                notes = Lists.newArrayList();
+                seen = Sets.newIdentityHashSet();
+            }
+            for (Note note: event.getNotes()) {
+                if (seen.add(note)) {
+                    notes.add(note);
+                }
+            }
+        }
+        if (type != null) {
+            events.add(new NoteEvent(type, notes));
+        }
+        return events;
+    }
+}
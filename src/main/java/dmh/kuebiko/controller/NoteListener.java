@@ -0,0 +1,22 @@
+/**
+ * Kuebiko - NoteListener.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.List;
+
+/**
+ * Listener for changes to the notes in a stack.
+ *
+ * @author davehuffman
+ * @see NoteEventBus
+ */
+public interface NoteListener {
+    /**
+     * Handle a batch of changes.
+     * @param events The changes, coalesced and in the order they happened.
+     */
+    public void notesChanged(List<NoteEvent> events);
+}
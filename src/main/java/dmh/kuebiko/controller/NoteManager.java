@@ -6,62 +6,210 @@
 
 package dmh.kuebiko.controller;
 
+import java.awt.EventQueue;
+import java.io.File;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
-import java.util.Observable;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import dmh.kuebiko.controller.TaskScheduler.CancellationToken;
+import dmh.kuebiko.controller.TaskScheduler.Lane;
+import dmh.kuebiko.controller.TaskScheduler.Task;
 import dmh.kuebiko.model.Note;
 import dmh.kuebiko.model.Note.State;
+import dmh.kuebiko.model.NoteCursor;
 import dmh.kuebiko.model.NoteDao;
+import dmh.kuebiko.model.NoteOrder;
+import dmh.kuebiko.model.NotePage;
 import dmh.kuebiko.model.PersistenceException;
 import dmh.kuebiko.model.ValidationException;
 import dmh.kuebiko.util.NoteTitleFunction;
+import dmh.util.Callback;
 
 /**
- * Management class for notes. Acts as the note controller.
+ * Management class for notes. Acts as the note controller. Changes to the
+ * notes are published on the manager's {@link NoteEventBus}.
  *
  * @author davehuffman
  */
-public class NoteManager extends Observable {
+public class NoteManager {
     private static final Logger log = Logger.getLogger(NoteManager.class);
 
     static final String DEFAULT_NOTE_TITLE = "Untitled Note";
+    /** The number of notes appended to the stack at a time while loading. */
+    static final int LOAD_BATCH_SIZE = 500;
 
     private final NoteDao noteDao;
+    private final NoteEventBus eventBus = new NoteEventBus();
 
     private List<Note> notes = null;
     private final Collection<Note> deletedNotes;
     private boolean unsavedChanges = false;
+    /** True while the notes are being loaded in the background. */
+    private boolean loading = false;
+    /** True while the notes are being saved. */
+    private boolean saving = false;
+    /** The number of background saves that have yet to finish; guarded by this. */
+    private int pendingSaves = 0;
+
+    /** Incremented every time the set of notes in the stack, or a title, changes. */
+    private int changeCount = 0;
+    private NoteSearcher searcher = null;
+    private final TitleIndex titleIndex = new TitleIndex();
+    private final FrecencyTracker frecencyTracker;
+    private final RecoveryJournal recoveryJournal;
+    /** Index of note tags; rebuilt on demand, and null when stale. */
+    private TagIndex tagIndex = null;
+    private int tagIndexChangeCount;
+    private final TimestampIndex modifiedIndex = new TimestampIndex(TimestampIndex.MODIFIED_DATE);
+    private final TimestampIndex createdIndex = new TimestampIndex(TimestampIndex.CREATE_DATE);
+    /** The change count the timestamp indexes are current as of. */
+    private int timestampChangeCount = -1;
 
     /**
-     * Constructor.
+     * Constructor. Loads every note in the data store.
      * @param noteDao The DAO to use for note persistence.
      */
     public NoteManager(NoteDao noteDao) {
+        this(noteDao, true);
+    }
+
+    /**
+     * Constructor.
+     * @param noteDao The DAO to use for note persistence.
+     * @param loadNotes True to load every note in the data store now; false
+     *                  to start with an empty stack, and load the notes later
+     *                  with {@link #loadInBackground(Callback, Callback)}.
+     */
+    public NoteManager(NoteDao noteDao, boolean loadNotes) {
         this.noteDao = noteDao;
 
         deletedNotes = Lists.newArrayList();
-        loadAllNotes();
+        frecencyTracker = new FrecencyTracker(getMetadataFile(FrecencyTracker.FILE_NAME));
+        recoveryJournal = new RecoveryJournal(getMetadataFile(RecoveryJournal.FILE_NAME));
+        if (loadNotes) {
+            loadAllNotes();
+        } else {
+            notes = Lists.newArrayList();
+        }
+    }
+
+    /**
+     * @param name The name of a metadata file (e.g. frecency data).
+     * @return The file, or null if the data store has nowhere to keep it.
+     */
+    private File getMetadataFile(String name) {
+        try {
+            final File metadataDir = noteDao.getMetadataDirectory();
+            return (metadataDir == null)? null : new File(metadataDir, name);
+        } catch (PersistenceException e) {
+            log.warn(String.format(
+                    "Could not find metadata directory; [%s] will not be saved.", name), e);
+            return null;
+        }
     }
 
     private void loadAllNotes() {
         try {
             notes = Lists.newArrayList(noteDao.readNotes());
-            setUnsavedChangesAndNotify(false);
+            titleIndex.reset(getNoteTitles());
+            changeCount++;
+            unsavedChanges = false;
         } catch (PersistenceException e) {
             throw new DataStoreException("Could not read notes.", e);
         }
     }
 
+    /**
+     * Read the notes in the data store on a background thread, a page at a
+     * time in title order, and append each page to the stack on the event
+     * dispatch thread as it arrives, so that the first notes are shown (and
+     * the user interface stays responsive) while a large stack loads. Each
+     * page is published as a {@link NoteEvent.Type#LOADED} event. Must be
+     * called on the event dispatch thread.
+     * @param onBatchLoaded Called on the event dispatch thread after each
+     *                      page is appended, with the page's notes.
+     * @param onLoadFailed Called on the event dispatch thread if the notes
+     *                     could not be read, with the failure. The notes
+     *                     read before the failure are kept.
+     */
+    public void loadInBackground(Callback<List<Note>> onBatchLoaded,
+            Callback<DataStoreException> onLoadFailed) {
+        loadInBackground(LOAD_BATCH_SIZE, onBatchLoaded, onLoadFailed);
+    }
+
+    void loadInBackground(final int batchSize, final Callback<List<Note>> onBatchLoaded,
+            final Callback<DataStoreException> onLoadFailed) {
+        if (loading) {
+            throw new IllegalStateException("The stack is already loading.");
+        }
+        loading = true;
+        TaskScheduler.getInstance().submit(Lane.INTERACTIVE, new Task() {
+            @Override
+            public void run(CancellationToken token) {
+                try {
+                    NoteCursor cursor = null;
+                    do {
+                        // Only hold the DAO for a page at a time, so that an
+                        // autosave isn't held up behind the whole stack.
+                        final NotePage page;
+                        synchronized (noteDao) {
+                            page = noteDao.readNotes(null, NoteOrder.TITLE, cursor, batchSize);
+                        }
+                        EventQueue.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                appendLoadedNotes(page, onBatchLoaded);
+                            }
+                        });
+                        cursor = page.getNext();
+                    } while (cursor != null);
+                } catch (final PersistenceException e) {
+                    EventQueue.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            loading = false;
+                            onLoadFailed.callback(
+                                    new DataStoreException("Could not read notes.", e));
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Append a page of loaded notes to the stack. Each page is appended in
+     * its own event, so that user input isn't held up behind the whole stack.
+     */
+    private void appendLoadedNotes(NotePage page, Callback<List<Note>> onBatchLoaded) {
+        final List<Note> batch = page.getNotes();
+        notes.addAll(batch);
+        titleIndex.addAll(Lists.transform(batch, NoteTitleFunction.getInstance()));
+        changeCount++;
+        loading = page.hasNext();
+
+        eventBus.post(new NoteEvent(NoteEvent.Type.LOADED, batch));
+        onBatchLoaded.callback(batch);
+    }
+
+    /**
+     * @return True if the notes are still being loaded in the background.
+     */
+    public boolean isLoading() {
+        return loading;
+    }
+
     /**
      * @return An immutable view of all notes in the stack.
      */
@@ -76,6 +224,178 @@ public class NoteManager extends Observable {
         return Lists.transform(notes, NoteTitleFunction.getInstance());
     }
 
+    /**
+     * @return A counter that changes every time a note is added to, removed
+     *         from or renamed in the stack. Can be used to detect stale
+     *         derived data.
+     */
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * @return The searcher for the notes in this stack.
+     */
+    public NoteSearcher getSearcher() {
+        if (searcher == null) {
+            searcher = new NoteSearcher(this);
+        }
+        return searcher;
+    }
+
+    /**
+     * @return The tracker of how often and how recently notes are visited.
+     */
+    public FrecencyTracker getFrecencyTracker() {
+        return frecencyTracker;
+    }
+
+    /**
+     * @return The journal of edits that have yet to be saved.
+     */
+    public RecoveryJournal getRecoveryJournal() {
+        return recoveryJournal;
+    }
+
+    /**
+     * Restore the edits left in the recovery journal by a run of the
+     * application that didn't exit normally. Journaled notes that are still
+     * in the stack are given their recovered text; the rest are added as new
+     * notes. The recovered notes are left unsaved, and are kept in the
+     * journal until they are saved.
+     * @return The recovered notes.
+     */
+    public List<Note> recoverFromJournal() {
+        if (loading) {
+            throw new IllegalStateException("The stack is still loading.");
+        }
+        final Map<String, String> journaledTexts = recoveryJournal.recover();
+        if (journaledTexts.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Map<String, Note> notesByTitle = Maps.newHashMap();
+        for (Note note: notes) {
+            notesByTitle.put(note.getTitle(), note);
+        }
+        final Map<String, String> recoveredTexts = Maps.newLinkedHashMap();
+        final List<Note> recoveredNotes = Lists.newArrayList();
+        for (Map.Entry<String, String> entry: journaledTexts.entrySet()) {
+            final String title = entry.getKey();
+            final String text = entry.getValue();
+            Note note = notesByTitle.get(title);
+            if (note == null) {
+                note = new Note();
+                note.setTitle(title);
+                note.setText(text);
+                addNote(note);
+            } else if (!text.equals(note.getText())) {
+                note.setText(text);
+                eventBus.post(new NoteEvent(NoteEvent.Type.UPDATED, note));
+            } else {
+                continue; // Saved before the application died.
+            }
+            log.info(String.format("Recovered unsaved edits to note [%s].", title));
+            recoveredTexts.put(title, text);
+            recoveredNotes.add(note);
+        }
+        recoveryJournal.rewrite(recoveredTexts);
+        return recoveredNotes;
+    }
+
+    /**
+     * @return An index of the tags of all notes in the stack. The index is a
+     *         snapshot, and is replaced when the stack or any tags change.
+     */
+    public TagIndex getTagIndex() {
+        if (tagIndex == null || tagIndexChangeCount != changeCount) {
+            tagIndex = new TagIndex(notes);
+            tagIndexChangeCount = changeCount;
+        }
+        return tagIndex;
+    }
+
+    /**
+     * @return A sorted index of the modified dates of all notes in the stack.
+     */
+    public TimestampIndex getModifiedIndex() {
+        checkTimestampIndexes();
+        return modifiedIndex;
+    }
+
+    /**
+     * @return A sorted index of the create dates of all notes in the stack.
+     */
+    public TimestampIndex getCreatedIndex() {
+        checkTimestampIndexes();
+        return createdIndex;
+    }
+
+    /**
+     * Rebuild the timestamp indexes if the stack has changed in a way that
+     * couldn't be tracked incrementally (e.g. a deletion shifting indices).
+     */
+    private void checkTimestampIndexes() {
+        if (timestampChangeCount != changeCount) {
+            modifiedIndex.reset(notes);
+            createdIndex.reset(notes);
+            timestampChangeCount = changeCount;
+        }
+    }
+
+    /**
+     * Find the most recently modified notes.
+     * @param limit The maximum number of notes to return.
+     * @return The most recently modified notes, most recent first.
+     */
+    public List<Note> getRecentlyModifiedNotes(int limit) {
+        final int[] latest = getModifiedIndex().latest(limit);
+        final List<Note> recentNotes = Lists.newArrayListWithCapacity(latest.length);
+        for (int index: latest) {
+            recentNotes.add(notes.get(index));
+        }
+        return recentNotes;
+    }
+
+    /**
+     * Replace the tags of a note.
+     * @param note The note.
+     * @param tags The new tags. Whitespace separated tags are split, and
+     *             duplicates are dropped.
+     */
+    public void setNoteTags(Note note, List<String> tags) {
+        final List<String> normalized = TagIndex.normalize(tags);
+        if (normalized.equals(note.getTags())) {
+            return;
+        }
+        note.setTags(normalized);
+        tagIndex = null;
+        onUnsavedChange(new NoteEvent(NoteEvent.Type.UPDATED, note));
+    }
+
+    /**
+     * Add tags to several notes at once.
+     * @param taggedNotes The notes to tag.
+     * @param tags The tags to add. Whitespace separated tags are split, and
+     *             tags a note already has are skipped.
+     */
+    public void addNoteTags(Collection<Note> taggedNotes, Collection<String> tags) {
+        final List<String> normalized = TagIndex.normalize(tags);
+        final List<Note> changedNotes = Lists.newArrayList();
+        for (Note note: taggedNotes) {
+            final List<String> merged = TagIndex.normalize(
+                    Lists.newArrayList(Iterables.concat(note.getTags(), normalized)));
+            if (!merged.equals(note.getTags())) {
+                note.setTags(merged);
+                changedNotes.add(note);
+            }
+        }
+        if (!changedNotes.isEmpty()) {
+            tagIndex = null;
+            onUnsavedChange(new NoteEvent(NoteEvent.Type.UPDATED, changedNotes));
+        }
+    }
+
     /**
      * @return True if there are no notes.
      */
@@ -83,8 +403,15 @@ public class NoteManager extends Observable {
         return notes.isEmpty();
     }
 
+    /**
+     * @return A sorted index of the titles of all notes in the stack.
+     */
+    public TitleIndex getTitleIndex() {
+        return titleIndex;
+    }
+
     public boolean doesNoteExist(String title) {
-        return getNoteTitles().contains(title);
+        return titleIndex.contains(title);
     }
 
     public int getNoteCount() {
@@ -106,32 +433,30 @@ public class NoteManager extends Observable {
         }
         // A false value does not necessarily indicate to changes are present;
         // we need to check each note to determine if it has been updated.
+        // The result isn't cached, as autosaving can clean a dirty note.
         for (Note note: notes) {
             if (note.getState() == State.DIRTY) {
-                unsavedChanges = true;
-                setChanged();
-                break;
+                return true;
             }
         }
-        return unsavedChanges;
+        return false;
     }
 
     /**
-     * Flip the switch indicating if there are unsaved changes to the notes.
-     * @param unsavedChanges True if there are unsaved notes.
+     * Record an unsaved change to the notes, and publish it.
+     * @param event The change.
      */
-    private void setUnsavedChangesAndNotify(boolean unsavedChanges) {
-        log.debug(String.format("setUnsavedChangesAndNotify(%s).", unsavedChanges));
-
-        final boolean prevValue = this.unsavedChanges;
-        this.unsavedChanges = unsavedChanges;
-        final boolean currentValue = hasUnsavedChanges();
+    private void onUnsavedChange(NoteEvent event) {
+        log.debug(String.format("onUnsavedChange(%s).", event));
+        unsavedChanges = true;
+        eventBus.post(event);
+    }
 
-        // Notify observers if the new value is false or if the value has changed.
-        if (currentValue == false || prevValue != currentValue) {
-            setChanged();
-            notifyObservers(currentValue);
-        }
+    /**
+     * @return The bus that changes to the notes are published on.
+     */
+    public NoteEventBus getEventBus() {
+        return eventBus;
     }
 
     /**
@@ -150,35 +475,13 @@ public class NoteManager extends Observable {
      *         in the stack.
      */
     String genUniqueNoteTitle() {
-        // Get a list of default note titles.
-        final Collection<String> defaultTitles =
-                Collections2.filter(getNoteTitles(),
-                        new Predicate<String>() {
-                            @Override
-                            public boolean apply(String input) {
-                                return input.startsWith(DEFAULT_NOTE_TITLE);
-                            }
-                        });
-
-        if (defaultTitles.isEmpty()) {
+        if (!titleIndex.containsPrefix(DEFAULT_NOTE_TITLE)) {
             return DEFAULT_NOTE_TITLE;
         }
 
-        // Default note titles exist; work thought the list and create a new,
-        // unique default note title.
-        Pattern titleRegex = Pattern.compile(DEFAULT_NOTE_TITLE + " (\\d+)");
-        int maxSuffix = 1;
-        for (String title: defaultTitles) {
-            Matcher matcher = titleRegex.matcher(title);
-            if (matcher.matches()) {
-                int suffix = Integer.parseInt(matcher.group(1));
-                if (suffix > maxSuffix) {
-                    maxSuffix = suffix;
-                }
-            }
-        }
-        String title = String.format("%s %d", DEFAULT_NOTE_TITLE, maxSuffix + 1);
-        return title;
+        // Default note titles exist; create a new, unique default note title.
+        return String.format("%s %d", DEFAULT_NOTE_TITLE,
+                titleIndex.nextFreeSuffix(DEFAULT_NOTE_TITLE));
     }
 
     public void addNewNote(String title) {
@@ -189,51 +492,336 @@ public class NoteManager extends Observable {
 
     void addNote(Note newNote) {
         notes.add(newNote);
-        setUnsavedChangesAndNotify(true);
+        titleIndex.add(newNote.getTitle());
+        if (timestampChangeCount == changeCount) {
+            modifiedIndex.add(notes.size() - 1, newNote);
+            createdIndex.add(notes.size() - 1, newNote);
+            timestampChangeCount++;
+        }
+        changeCount++;
+        onUnsavedChange(new NoteEvent(NoteEvent.Type.ADDED, newNote));
+    }
+
+    /**
+     * Change the title of a note.
+     * @param note The note.
+     * @param title The new title.
+     * @throws IllegalArgumentException If another note already has the title.
+     */
+    public void renameNote(Note note, String title) {
+        final String oldTitle = note.getTitle();
+        if (title.equals(oldTitle)) {
+            return;
+        }
+        if (titleIndex.contains(title)) {
+            throw new IllegalArgumentException(String.format(
+                    "A note with title [%s] already exists.", title));
+        }
+
+        note.getText(); // Hollow notes can't be changed.
+        note.setTitle(title);
+        titleIndex.remove(oldTitle);
+        titleIndex.add(title);
+        frecencyTracker.rename(oldTitle, title);
+        // Title searches are cached by change count; the timestamps are unaffected.
+        if (timestampChangeCount == changeCount) {
+            timestampChangeCount++;
+        }
+        changeCount++;
+        onUnsavedChange(new NoteEvent(NoteEvent.Type.RENAMED, note));
     }
 
     public void deleteNote(Note note) {
-        if (!notes.remove(note)) {
+        deleteNotes(Collections.singletonList(note));
+    }
+
+    /**
+     * Delete several notes at once, in a single pass over the stack.
+     * @param doomedNotes The notes to delete.
+     */
+    public void deleteNotes(Collection<Note> doomedNotes) {
+        final Set<Note> doomed = Sets.newIdentityHashSet();
+        doomed.addAll(doomedNotes);
+        final List<Note> keptNotes = Lists.newArrayListWithCapacity(notes.size());
+        final List<Note> removedNotes = Lists.newArrayListWithCapacity(doomed.size());
+        for (Note note: notes) {
+            if (doomed.remove(note)) {
+                removedNotes.add(note);
+            } else {
+                keptNotes.add(note);
+            }
+        }
+        if (!doomed.isEmpty()) {
             throw new IllegalArgumentException(String.format(
-                    "Note [%s] does not exist.", note));
+                    "Note [%s] does not exist.", doomed.iterator().next()));
+        }
+        if (removedNotes.isEmpty()) {
+            return;
         }
-        deletedNotes.add(note);
-        setUnsavedChangesAndNotify(true);
+
+        notes = keptNotes;
+        deletedNotes.addAll(removedNotes);
+        for (Note note: removedNotes) {
+            titleIndex.remove(note.getTitle());
+            frecencyTracker.forget(note.getTitle());
+        }
+        changeCount++;
+        onUnsavedChange(new NoteEvent(NoteEvent.Type.DELETED, removedNotes));
     }
 
     /**
-     * Save any changes made to the notes.
+     * Save any changes made to the notes, and wait for the save to finish.
      */
     public void saveAll() {
 		log.debug("saveAll().");
+        final SaveSnapshot snapshot = beginSave();
         try {
-            for (Note note: deletedNotes) {
-                log.debug(String.format("Deleting note [%s].", note));
-                if (!note.isNew()) {
-                    // Only previously saved notes need to be deleted.
-                    noteDao.deleteNote(note);
+            // Wait for any autosave in progress.
+            synchronized (noteDao) {
+                snapshot.write(noteDao);
+            }
+            frecencyTracker.save();
+        } catch (PersistenceException e) {
+            endSave(snapshot, false);
+            throw new DataStoreException("Could not read/write notes.", e);
+        } catch (ValidationException e) {
+            endSave(snapshot, false);
+            throw new DataStoreException("Invalid note.", e);
+        }
+        endSave(snapshot, true);
+    }
+
+    /**
+     * Save any changes made to the notes on a background thread. The notes
+     * may keep being changed while they are saved; changes made after the
+     * save began are left unsaved. Must be called on the event dispatch
+     * thread.
+     * @param onSaved Called on the event dispatch thread once the save is
+     *                over, with true if every change was saved.
+     * @throws DataStoreException On the event dispatch thread, after the
+     *                            callback, if the save fails.
+     */
+    public void saveInBackground(final Callback<Boolean> onSaved) {
+        log.debug("saveInBackground().");
+        final SaveSnapshot snapshot = beginSave();
+        synchronized (this) {
+            pendingSaves++;
+        }
+        TaskScheduler.getInstance().submit(Lane.SAVE, new Task() {
+            @Override
+            public void run(CancellationToken token) {
+                Exception error = null;
+                try {
+                    synchronized (noteDao) {
+                        snapshot.write(noteDao);
+                    }
+                    frecencyTracker.save();
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    synchronized (NoteManager.this) {
+                        pendingSaves--;
+                        NoteManager.this.notifyAll();
+                    }
+                }
+
+                final Exception saveError = error;
+                EventQueue.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        endSave(snapshot, saveError == null);
+                        onSaved.callback(saveError == null);
+                        if (saveError instanceof ValidationException) {
+                            throw new DataStoreException("Invalid note.", saveError);
+                        } else if (saveError != null) {
+                            throw new DataStoreException("Could not read/write notes.", saveError);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return True while the notes are being saved.
+     */
+    public boolean isSaving() {
+        return saving;
+    }
+
+    /**
+     * Take a snapshot of the changes to save.
+     */
+    private SaveSnapshot beginSave() {
+        if (loading) {
+            throw new IllegalStateException("The stack is still loading.");
+        }
+        if (saving) {
+            throw new IllegalStateException("The stack is already being saved.");
+        }
+        saving = true;
+        final SaveSnapshot snapshot = new SaveSnapshot(changeCount, notes, deletedNotes);
+        deletedNotes.clear();
+        return snapshot;
+    }
+
+    /**
+     * Reconcile the stack with what a save wrote, and publish the save.
+     * Notes that were changed while they were being saved are left unsaved.
+     * @param snapshot The snapshot that was written.
+     * @param succeeded True if the whole snapshot was written.
+     */
+    private void endSave(SaveSnapshot snapshot, boolean succeeded) {
+        saving = false;
+        deletedNotes.addAll(snapshot.getUnwrittenDeletedNotes());
+        final boolean unchanged = (snapshot.getChangeCount() == changeCount);
+        final List<Note> savedNotes = Lists.newArrayList();
+
+        if (snapshot.getWrittenNotes().size() > 0 && timestampChangeCount == changeCount) {
+            final Map<Note, Integer> indexes = Maps.newIdentityHashMap();
+            for (int i = 0; i < notes.size(); i++) {
+                indexes.put(notes.get(i), i);
+            }
+            for (int i = 0; i < snapshot.getWrittenNotes().size(); i++) {
+                final Integer index = indexes.get(snapshot.getWrittenNotes().get(i));
+                if (index != null) {
+                    modifiedIndex.update(index,
+                            snapshot.getOldModifiedDate(i), snapshot.getNewModifiedDate(i));
+                }
+            }
+        }
+        savedNotes.addAll(snapshot.getWrittenNotes());
+
+        if (snapshot.getAddedCount() > 0) {
+            // Notes saved for the first time are replaced by the data store's
+            // copies, which carry on any changes made during the save.
+            final Map<Note, Note> replacements = Maps.newIdentityHashMap();
+            for (int i = 0; i < snapshot.getAddedCount(); i++) {
+                final Note newNote = snapshot.getNewNote(i);
+                final Note addedNote = snapshot.getAddedNote(i);
+                if (snapshot.isNewNoteChanged(i)) {
+                    addedNote.setTitle(newNote.getTitle());
+                    addedNote.setText(newNote.getText());
+                    addedNote.setTags(newNote.getTags());
                 }
+                replacements.put(newNote, addedNote);
+                savedNotes.add(addedNote);
             }
+            notes = replace(notes, replacements);
+            final List<Note> replacedDeletedNotes = replace(deletedNotes, replacements);
             deletedNotes.clear();
+            deletedNotes.addAll(replacedDeletedNotes);
+            changeCount++;
+        }
+
+        if (succeeded && unchanged) {
+            unsavedChanges = false;
+        }
+        if (succeeded) {
+            eventBus.post(new NoteEvent(NoteEvent.Type.SAVED, savedNotes));
+        }
+    }
+
+    /**
+     * @param source A collection of notes.
+     * @param replacements Replacements for some of the notes, by identity.
+     * @return A copy of the collection, with the notes replaced.
+     */
+    private static List<Note> replace(Collection<Note> source, Map<Note, Note> replacements) {
+        final List<Note> replaced = Lists.newArrayListWithCapacity(source.size());
+        for (Note note: source) {
+            final Note replacement = replacements.get(note);
+            replaced.add(replacement == null? note : replacement);
+        }
+        return replaced;
+    }
 
-            for (Note note: notes) {
-                log.debug(String.format("Saving note [%s].", note));
-                switch (note.getState()) {
-                case DIRTY:
-                    noteDao.updateNote(note);
-                    break;
-                case NEW:
-                    noteDao.addNote(note);
-                    break;
-                default:
-                    continue;
+    /**
+     * Save a single edited note in the background, without saving the rest
+     * of the stack or reloading it. The note may keep being edited while it
+     * is saved; if it is, it is left dirty. New notes are left for the next
+     * full save, as adding a note to the data store replaces it.
+     * @param note The note to save.
+     */
+    public void autosaveNote(final Note note) {
+        if (!note.isDirty()) {
+            return;
+        }
+        synchronized (this) {
+            pendingSaves++;
+        }
+        TaskScheduler.getInstance().submit(Lane.SAVE, new Task() {
+            @Override
+            public void run(CancellationToken token) throws PersistenceException {
+                try {
+                    final Date oldModifiedDate;
+                    final Date newModifiedDate;
+                    synchronized (noteDao) {
+                        if (!note.isDirty()) {
+                            return; // Saved in the meantime.
+                        }
+                        oldModifiedDate = note.getModifiedDate();
+                        noteDao.updateNote(note);
+                        newModifiedDate = note.getModifiedDate();
+                    }
+                    EventQueue.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            onNoteAutosaved(note, oldModifiedDate, newModifiedDate);
+                        }
+                    });
+                } finally {
+                    synchronized (NoteManager.this) {
+                        pendingSaves--;
+                        NoteManager.this.notifyAll();
+                    }
                 }
             }
-            loadAllNotes();
+        });
+    }
+
+    /**
+     * Wait for every background save to finish (e.g. before the application
+     * exits, so that no note is left half written).
+     */
+    public synchronized void awaitSaves() throws InterruptedException {
+        while (pendingSaves > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Close the data store, once every background save has finished. Should
+     * be called when the application exits normally.
+     */
+    public void close() throws InterruptedException {
+        awaitSaves();
+        try {
+            synchronized (noteDao) {
+                noteDao.close();
+            }
         } catch (PersistenceException e) {
-            throw new DataStoreException("Could not read/write notes.", e);
-        } catch (ValidationException e) {
-            throw new DataStoreException("Invalid note.", e);
+            throw new DataStoreException("Could not write notes.", e);
+        }
+    }
+
+    /**
+     * Handler for when a note has been saved in the background.
+     * @param note The note.
+     * @param oldModifiedDate The note's modified date before it was saved.
+     * @param newModifiedDate The note's modified date as it was saved.
+     */
+    private void onNoteAutosaved(Note note, Date oldModifiedDate, Date newModifiedDate) {
+        int index = notes.size() - 1;
+        while (index >= 0 && notes.get(index) != note) {
+            index--;
+        }
+        if (index == -1) {
+            return; // Deleted in the meantime.
+        }
+        if (timestampChangeCount == changeCount) {
+            modifiedIndex.update(index, oldModifiedDate, newModifiedDate);
         }
+        eventBus.post(new NoteEvent(NoteEvent.Type.UPDATED, note));
     }
 }
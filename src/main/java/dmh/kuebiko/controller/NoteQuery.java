@@ -0,0 +1,412 @@
+/**
+ * Kuebiko - NoteQuery.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import dmh.kuebiko.model.Note;
+
+/**
+ * A parsed search query. Queries are made up of whitespace separated terms,
+ * all of which must match:
+ * <ul>
+ * <li><code>word</code> or <code>"quoted phrase"</code> &mdash; the title
+ *     contains the text (ignoring case); same as <code>title:word</code>.</li>
+ * <li><code>tag:name</code> or <code>#name</code> &mdash; the note has the tag;
+ *     alternatives may be separated by <code>|</code>.</li>
+ * <li><code>modified:</code> or <code>created:</code> followed by a date
+ *     (<code>yyyy-MM-dd</code>), optionally prefixed by <code>&gt;</code>,
+ *     <code>&gt;=</code>, <code>&lt;</code> or <code>&lt;=</code>.</li>
+ * <li>Any term may be negated by prefixing it with <code>-</code>.</li>
+ * </ul>
+ *
+ * <p>Queries are executed as a simple plan: the terms are ordered by their
+ * estimated selectivity, the most selective term is looked up in its index,
+ * and the remaining terms are intersected with the result. Once the set of
+ * candidates is small, remaining terms are checked note by note rather than
+ * by computing their full result sets.</p>
+ *
+ * @author davehuffman
+ */
+public class NoteQuery {
+    static final String TITLE_FIELD = "title:";
+    static final String TAG_FIELD = "tag:";
+    static final String MODIFIED_FIELD = "modified:";
+    static final String CREATED_FIELD = "created:";
+    private static final String[] FIELDS = {
+        TITLE_FIELD, TAG_FIELD, MODIFIED_FIELD, CREATED_FIELD };
+
+    static final String DATE_FORMAT = "yyyy-MM-dd";
+
+    /** Once there are fewer candidates than one in this many notes, the
+     *  remaining terms are checked note by note. */
+    static final int LAZY_RATIO = 8;
+
+    /**
+     * A single, possibly negated, query term.
+     */
+    abstract static class Term {
+        final boolean negated;
+
+        Term(boolean negated) {
+            this.negated = negated;
+        }
+
+        /**
+         * @return An estimate of the number of notes the (un-negated) term
+         *         matches, used to order the plan; lower is run first.
+         */
+        abstract int estimate(NoteManager noteMngr);
+
+        /**
+         * @return The indices of all notes the (un-negated) term matches.
+         */
+        abstract BitSet find(NoteManager noteMngr);
+
+        /**
+         * @return True if the (un-negated) term matches a note.
+         */
+        abstract boolean matches(Note note);
+    }
+
+    /** Matches notes with a title containing some text. */
+    static class TitleTerm extends Term {
+        private final String text;
+        private final String foldedText;
+
+        TitleTerm(String text, boolean negated) {
+            super(negated);
+            this.text = text;
+            this.foldedText = TitleIndex.fold(text);
+        }
+
+        @Override
+        int estimate(NoteManager noteMngr) {
+            // Longer text is more selective; the search itself is cached.
+            return noteMngr.getNoteCount() / (1 + text.length());
+        }
+
+        @Override
+        BitSet find(NoteManager noteMngr) {
+            return (BitSet) noteMngr.getSearcher().searchTitles(text, true).clone();
+        }
+
+        @Override
+        boolean matches(Note note) {
+            final String title = note.getTitle();
+            return title != null && TitleIndex.fold(title).contains(foldedText);
+        }
+    }
+
+    /** Matches notes with any of a set of tags. */
+    static class TagTerm extends Term {
+        private final List<String> tags;
+
+        TagTerm(List<String> tags, boolean negated) {
+            super(negated);
+            this.tags = tags;
+        }
+
+        @Override
+        int estimate(NoteManager noteMngr) {
+            // Exact, courtesy of the tag index.
+            final TagIndex tagIndex = noteMngr.getTagIndex();
+            int count = 0;
+            for (String tag: tags) {
+                count += tagIndex.getNoteCount(tag);
+            }
+            return count;
+        }
+
+        @Override
+        BitSet find(NoteManager noteMngr) {
+            return noteMngr.getTagIndex().findAny(tags);
+        }
+
+        @Override
+        boolean matches(Note note) {
+            for (String tag: note.getTags()) {
+                if (tags.contains(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Matches notes with a date within a range. */
+    static class DateTerm extends Term {
+        private final boolean modified;
+        /** Inclusive lower bound, in milliseconds. */
+        private final long from;
+        /** Exclusive upper bound, in milliseconds. */
+        private final long to;
+
+        DateTerm(boolean modified, long from, long to, boolean negated) {
+            super(negated);
+            this.modified = modified;
+            this.from = from;
+            this.to = to;
+        }
+
+        private TimestampIndex getIndex(NoteManager noteMngr) {
+            return modified? noteMngr.getModifiedIndex() : noteMngr.getCreatedIndex();
+        }
+
+        @Override
+        int estimate(NoteManager noteMngr) {
+            // Exact, courtesy of the timestamp index.
+            return getIndex(noteMngr).count(from, to);
+        }
+
+        @Override
+        BitSet find(NoteManager noteMngr) {
+            return getIndex(noteMngr).range(from, to);
+        }
+
+        @Override
+        boolean matches(Note note) {
+            final Date date = modified? note.getModifiedDate() : note.getCreateDate();
+            return date != null && date.getTime() >= from && date.getTime() < to;
+        }
+    }
+
+    /**
+     * Determine if a search string uses any query syntax beyond plain text,
+     * and so should be parsed as a query rather than matched as a title.
+     * @param str The search string.
+     * @return True if the string is a structured query.
+     */
+    public static boolean isQuery(String str) {
+        if (StringUtils.isBlank(str)) {
+            return false;
+        }
+        if (str.indexOf('"') >= 0) {
+            return true;
+        }
+        for (String token: StringUtils.split(str)) {
+            if (isTerm(token.charAt(0) == '-'? token.substring(1) : token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param token A search token, without any negation prefix.
+     * @return True if the token starts with a known term prefix: a tag
+     *         prefix followed by a tag, or a field name followed by a value.
+     */
+    private static boolean isTerm(String token) {
+        if (token.length() > 1 && token.charAt(0) == TagIndex.TAG_PREFIX) {
+            return Character.isLetterOrDigit(token.charAt(1));
+        }
+        for (String field: FIELDS) {
+            if (token.startsWith(field) && token.length() > field.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse a query string.
+     * @param str The query string.
+     * @return The parsed query.
+     * @throws IllegalArgumentException If the query is invalid.
+     */
+    public static NoteQuery parse(String str) {
+        final List<Term> terms = Lists.newArrayList();
+        for (String token: tokenize(StringUtils.defaultString(str))) {
+            final boolean negated = token.length() > 1 && token.charAt(0) == '-';
+            final Term term = parseTerm(negated? token.substring(1) : token, negated);
+            if (term != null) {
+                terms.add(term);
+            }
+        }
+        return new NoteQuery(terms);
+    }
+
+    /**
+     * Split a query string on whitespace, keeping quoted phrases together.
+     * Quotes are kept in the tokens, so that they can be told apart from
+     * field prefixes.
+     */
+    private static List<String> tokenize(String str) {
+        final List<String> tokens = Lists.newArrayList();
+        final StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (token.length() > 0) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                }
+                continue;
+            }
+            token.append(c);
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quote.");
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    private static Term parseTerm(String token, boolean negated) {
+        if (token.charAt(0) == TagIndex.TAG_PREFIX) {
+            return parseTagTerm(token, negated);
+        }
+        if (token.startsWith(TAG_FIELD)) {
+            return parseTagTerm(token.substring(TAG_FIELD.length()), negated);
+        }
+        if (token.startsWith(MODIFIED_FIELD)) {
+            return parseDateTerm(true, token.substring(MODIFIED_FIELD.length()), negated);
+        }
+        if (token.startsWith(CREATED_FIELD)) {
+            return parseDateTerm(false, token.substring(CREATED_FIELD.length()), negated);
+        }
+        if (token.startsWith(TITLE_FIELD)) {
+            token = token.substring(TITLE_FIELD.length());
+        }
+        final String text = StringUtils.remove(token, '"');
+        return text.isEmpty()? null : new TitleTerm(text, negated);
+    }
+
+    private static Term parseTagTerm(String value, boolean negated) {
+        final List<String> tags = TagIndex.normalize(Lists.newArrayList(
+                StringUtils.split(StringUtils.remove(value, '"'), TagIndex.OR_SEPARATOR)));
+        return tags.isEmpty()? null : new TagTerm(tags, negated);
+    }
+
+    private static Term parseDateTerm(boolean modified, String value, boolean negated) {
+        String operator = "";
+        for (String candidate: new String[] { ">=", "<=", ">", "<" }) {
+            if (value.startsWith(candidate)) {
+                operator = candidate;
+                break;
+            }
+        }
+
+        final Calendar day = Calendar.getInstance();
+        try {
+            final SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+            format.setLenient(false);
+            day.setTime(format.parse(StringUtils.remove(
+                    value.substring(operator.length()), '"')));
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid date [%s]; expected %s.", value, DATE_FORMAT), e);
+        }
+        final long dayStart = day.getTimeInMillis();
+        day.add(Calendar.DAY_OF_MONTH, 1);
+        final long dayEnd = day.getTimeInMillis();
+
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        if (operator.equals(">")) {
+            from = dayEnd;
+        } else if (operator.equals(">=")) {
+            from = dayStart;
+        } else if (operator.equals("<")) {
+            to = dayStart;
+        } else if (operator.equals("<=")) {
+            to = dayEnd;
+        } else {
+            from = dayStart;
+            to = dayEnd;
+        }
+        return new DateTerm(modified, from, to, negated);
+    }
+
+    private final List<Term> terms;
+
+    NoteQuery(List<Term> terms) {
+        this.terms = ImmutableList.copyOf(terms);
+    }
+
+    List<Term> getTerms() {
+        return terms;
+    }
+
+    /**
+     * Run the query against a stack.
+     * @param noteMngr The stack's manager.
+     * @return The indices of the matching notes.
+     */
+    public BitSet execute(final NoteManager noteMngr) {
+        final int noteCount = noteMngr.getNoteCount();
+
+        // Plan: positive terms first (they shrink the candidates), each group
+        // ordered from most to least selective.
+        final List<Term> plan = Lists.newArrayList(terms);
+        Collections.sort(plan, new Comparator<Term>() {
+            @Override
+            public int compare(Term o1, Term o2) {
+                if (o1.negated != o2.negated) {
+                    return o1.negated? 1 : -1;
+                }
+                final int e1 = o1.estimate(noteMngr);
+                final int e2 = o2.estimate(noteMngr);
+                return (e1 < e2)? -1 : ((e1 == e2)? 0 : 1);
+            }
+        });
+
+        BitSet candidates = null;
+        for (Term term: plan) {
+            if (candidates == null) {
+                if (term.negated) {
+                    candidates = new BitSet(noteCount);
+                    candidates.set(0, noteCount);
+                } else {
+                    candidates = term.find(noteMngr);
+                    continue;
+                }
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+
+            if (candidates.cardinality() * LAZY_RATIO < noteCount) {
+                // Few candidates; check each directly.
+                final List<Note> notes = noteMngr.getNotes();
+                for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                    if (term.matches(notes.get(i)) == term.negated) {
+                        candidates.clear(i);
+                    }
+                }
+            } else if (term.negated) {
+                candidates.andNot(term.find(noteMngr));
+            } else {
+                candidates.and(term.find(noteMngr));
+            }
+        }
+
+        if (candidates == null) {
+            // An empty query matches everything.
+            candidates = new BitSet(noteCount);
+            candidates.set(0, noteCount);
+        }
+        return candidates;
+    }
+}
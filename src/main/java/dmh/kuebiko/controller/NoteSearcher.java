@@ -0,0 +1,194 @@
+/**
+ * Kuebiko - NoteSearcher.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import dmh.kuebiko.model.Note;
+
+/**
+ * Search object for the notes in a stack. Results are returned as a set of
+ * note indices, which correspond to the indices in {@link NoteManager#getNotes()}.
+ *
+ * <p>A small cache of recent query results is kept, and is thrown away as soon
+ * as the stack changes (as tracked by {@link NoteManager#getChangeCount()}).
+ * Because a query that contains a previous query can only ever match a subset
+ * of the previous query's results, refinements (e.g. typing one more
+ * character) only need to check the notes matched by the cached result.</p>
+ *
+ * <p>Case insensitive searches compare against case-folded copies of the
+ * titles, which are built once per change to the stack rather than once per
+ * comparison.</p>
+ *
+ * @author davehuffman
+ */
+public class NoteSearcher {
+    private static final Logger log = Logger.getLogger(NoteSearcher.class);
+
+    /** The default number of query results to cache. */
+    static final int DEFAULT_CACHE_SIZE = 16;
+
+    private final NoteManager noteMngr;
+    private final Map<String, BitSet> resultCache;
+    private final Map<String, BitSet> foldedResultCache;
+
+    /** Case-folded titles, by note index; built on demand. */
+    private String[] foldedTitles = null;
+
+    /** The stack change count at the time the cache was last valid. */
+    private int cacheChangeCount = -1;
+
+    /**
+     * Constructor.
+     * @param noteMngr The manager of the notes to search.
+     */
+    public NoteSearcher(NoteManager noteMngr) {
+        this(noteMngr, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param noteMngr The manager of the notes to search.
+     * @param cacheSize The maximum number of query results to cache.
+     */
+    NoteSearcher(NoteManager noteMngr, final int cacheSize) {
+        this.noteMngr = noteMngr;
+        resultCache = newCache(cacheSize);
+        foldedResultCache = newCache(cacheSize);
+    }
+
+    private static Map<String, BitSet> newCache(final int cacheSize) {
+        return new LinkedHashMap<String, BitSet>(cacheSize * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BitSet> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Find all notes with a title containing the passed query string.
+     * @param query The string to search for. May not be null.
+     * @return The indices of all matching notes. The returned set is shared
+     *         with the cache, and must not be modified by clients.
+     */
+    public BitSet searchTitles(String query) {
+        return searchTitles(query, false);
+    }
+
+    /**
+     * Find all notes with a title containing the passed query string.
+     * @param query The string to search for. May not be null.
+     * @param ignoreCase True if case should be ignored when matching.
+     * @return The indices of all matching notes. The returned set is shared
+     *         with the cache, and must not be modified by clients.
+     */
+    public BitSet searchTitles(String query, boolean ignoreCase) {
+        checkCache();
+
+        final Map<String, BitSet> cache = ignoreCase? foldedResultCache : resultCache;
+        final String key = ignoreCase? TitleIndex.fold(query) : query;
+        BitSet result = cache.get(key);
+        if (result != null) {
+            return result;
+        }
+
+        final String[] titles = ignoreCase? getFoldedTitles() : null;
+        final BitSet candidates = findNarrowestResult(cache, key);
+        result = (candidates == null)?
+                scanAll(key, titles) : scanCandidates(key, titles, candidates);
+        cache.put(key, result);
+        return result;
+    }
+
+    /**
+     * Clear the cache if the stack has changed since the cache was filled.
+     */
+    private void checkCache() {
+        final int changeCount = noteMngr.getChangeCount();
+        if (changeCount != cacheChangeCount) {
+            log.debug(String.format("Stack changed [%d -> %d]; clearing cache.",
+                    cacheChangeCount, changeCount));
+            resultCache.clear();
+            foldedResultCache.clear();
+            foldedTitles = null;
+            cacheChangeCount = changeCount;
+        }
+    }
+
+    private String[] getFoldedTitles() {
+        if (foldedTitles == null) {
+            final List<Note> notes = noteMngr.getNotes();
+            foldedTitles = new String[notes.size()];
+            for (int i = 0; i < foldedTitles.length; i++) {
+                final String title = notes.get(i).getTitle();
+                foldedTitles[i] = (title == null)? null : TitleIndex.fold(title);
+            }
+        }
+        return foldedTitles;
+    }
+
+    /**
+     * Find the smallest cached result set that is guaranteed to contain every
+     * match for a query.
+     * @param cache The cache to look in.
+     * @param query The query.
+     * @return The smallest superset of the query's results, or null if none
+     *         is cached.
+     */
+    private static BitSet findNarrowestResult(Map<String, BitSet> cache, String query) {
+        BitSet narrowest = null;
+        for (Map.Entry<String, BitSet> entry: cache.entrySet()) {
+            if (query.contains(entry.getKey())
+                    && (narrowest == null
+                            || entry.getValue().cardinality() < narrowest.cardinality())) {
+                narrowest = entry.getValue();
+            }
+        }
+        return narrowest;
+    }
+
+    /**
+     * @param titles Case-folded titles to match against, or null to match
+     *               against the notes' own titles.
+     */
+    private BitSet scanAll(String query, String[] titles) {
+        final List<Note> notes = noteMngr.getNotes();
+        final BitSet result = new BitSet(notes.size());
+        for (int i = 0; i < notes.size(); i++) {
+            if (matches(getTitle(notes, titles, i), query)) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    private BitSet scanCandidates(String query, String[] titles, BitSet candidates) {
+        final List<Note> notes = noteMngr.getNotes();
+        final BitSet result = new BitSet(notes.size());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (matches(getTitle(notes, titles, i), query)) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    private static String getTitle(List<Note> notes, String[] titles, int index) {
+        return (titles == null)? notes.get(index).getTitle() : titles[index];
+    }
+
+    private static boolean matches(String title, String query) {
+        return title != null && title.contains(query);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Kuebiko - QuickSwitchSearch.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Search that ranks note titles for the "jump to note" switcher. Titles are
+ * fuzzy matched against a query, and the match score is boosted by how
+ * frequently and recently each note has been visited. Only the best few
+ * results are kept, so the cost of a search is one pass over the titles.
+ *
+ * <p>Searches work on immutable snapshots, so they may be run off of the
+ * event dispatch thread.</p>
+ *
+ * @author davehuffman
+ */
+public class QuickSwitchSearch {
+    /** Weight of a note's frecency relative to its match score. */
+    static final double FRECENCY_BOOST = 12;
+
+    /**
+     * Value object representing a ranked title.
+     */
+    private static class Result {
+        private final String title;
+        private final double rank;
+
+        Result(String title, double rank) {
+            this.title = title;
+            this.rank = rank;
+        }
+    }
+
+    /** Orders results from worst to best. */
+    private static final Comparator<Result> RANK_ORDER = new Comparator<Result>() {
+        @Override
+        public int compare(Result o1, Result o2) {
+            final int cmp = Double.compare(o1.rank, o2.rank);
+            // On a tie, prefer shorter titles, then alphabetical order.
+            if (cmp != 0) {
+                return cmp;
+            }
+            if (o1.title.length() != o2.title.length()) {
+                return o2.title.length() - o1.title.length();
+            }
+            return o2.title.compareTo(o1.title);
+        }
+    };
+
+    private final List<String> titles;
+    private final Map<String, Double> frecency;
+
+    /**
+     * Constructor.
+     * @param titles A snapshot of the titles to search.
+     * @param frecency A snapshot of frecency scores, keyed by title.
+     * @see FrecencyTracker#snapshot()
+     */
+    public QuickSwitchSearch(List<String> titles, Map<String, Double> frecency) {
+        this.titles = ImmutableList.copyOf(titles);
+        this.frecency = frecency;
+    }
+
+    /**
+     * Find the best matches for a query.
+     * @param query The query. An empty query matches every title, ranking by
+     *              frecency alone.
+     * @param limit The maximum number of results.
+     * @return The titles of the best matches, best first.
+     */
+    public List<String> search(String query, int limit) {
+        final FuzzyMatcher matcher = new FuzzyMatcher(query);
+        final PriorityQueue<Result> best = new PriorityQueue<Result>(limit + 1, RANK_ORDER);
+        for (String title: titles) {
+            if (Thread.currentThread().isInterrupted()) {
+                // The search has been superseded; don't bother finishing.
+                return Collections.emptyList();
+            }
+
+            final int score = matcher.score(title);
+            if (score == FuzzyMatcher.NO_MATCH) {
+                continue;
+            }
+            final Double visits = frecency.get(title);
+            final double rank = score
+                    + ((visits == null)? 0 : FRECENCY_BOOST * Math.log(1 + visits));
+
+            if (best.size() == limit && rank < best.peek().rank) {
+                continue;
+            }
+            best.add(new Result(title, rank));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        final List<String> results = Lists.newArrayListWithCapacity(best.size());
+        while (!best.isEmpty()) {
+            results.add(best.poll().title);
+        }
+        Collections.reverse(results);
+        return results;
+    }
+}
@@ -0,0 +1,371 @@
+/**
+ * Kuebiko - RecoveryJournal.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Journal of the edits made to a stack's notes since they were last saved,
+ * from which the edits can be recovered if the application dies before they
+ * are saved.
+ *
+ * <p>The journal is a sequence of entries. When the user starts editing a
+ * note, its whole text is recorded as a base; after that, only the inserts
+ * and removals are recorded, relative to the base. Recording an entry only
+ * encodes it into a buffer, so that it costs next to nothing on the event
+ * dispatch thread; the buffer is appended to the journal file by a
+ * background thread shortly afterwards, and the file is forced to disk at
+ * most once every few seconds.</p>
+ *
+ * <p>Entries are recorded on the event dispatch thread. Entries cut short by
+ * a crash are ignored when the journal is read.</p>
+ *
+ * @author davehuffman
+ */
+public class RecoveryJournal {
+    private static final Logger log = Logger.getLogger(RecoveryJournal.class);
+
+    /** The name of the file the journal is stored in. */
+    static final String FILE_NAME = "recovery.journal";
+
+    /** How long entries are buffered before they are written, in milliseconds. */
+    static final long FLUSH_DELAY = 500;
+    /** The shortest time between forcing the journal to disk, in milliseconds. */
+    static final long SYNC_INTERVAL = 5 * 1000;
+
+    private static final byte BASE = 1;
+    private static final byte INSERT = 2;
+    private static final byte REMOVE = 3;
+
+    private final File file;
+    private final ScheduledExecutorService writer;
+
+    /** The title of the note that edits are being recorded against. */
+    private String trackedTitle = null;
+
+    /** Entries waiting to be written; guarded by this. */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+    private boolean flushScheduled = false;
+    private volatile boolean closed = false;
+
+    // Only used by the writer thread.
+    private FileOutputStream out = null;
+    private long lastSync = 0;
+    private boolean syncPending = false;
+
+    /**
+     * Constructor.
+     * @param file The file to keep the journal in, or null if edits should
+     *             not be journaled.
+     */
+    public RecoveryJournal(File file) {
+        this.file = file;
+        writer = (file == null)? null : Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("recovery-journal")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /**
+     * @param title The title of a note.
+     * @return True if edits to the note are being recorded against a base;
+     *         if not, the next edit must be recorded with {@link #recordBase}.
+     */
+    public boolean isTracking(String title) {
+        return title.equals(trackedTitle);
+    }
+
+    /**
+     * Record the whole text of a note, as the base for the edits that follow.
+     * @param title The note's title.
+     * @param text The note's text.
+     */
+    public void recordBase(String title, String text) {
+        trackedTitle = title;
+        append(BASE, title, 0, 0, text);
+    }
+
+    /**
+     * Record text inserted into the tracked note.
+     * @param offset Where the text was inserted.
+     * @param text The inserted text.
+     */
+    public void recordInsert(int offset, String text) {
+        append(INSERT, null, offset, 0, text);
+    }
+
+    /**
+     * Record text removed from the tracked note.
+     * @param offset Where the text was removed from.
+     * @param length The length of the removed text.
+     */
+    public void recordRemove(int offset, int length) {
+        append(REMOVE, null, offset, length, null);
+    }
+
+    private void append(byte type, String title, int offset, int length, String text) {
+        if (file == null || closed) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                bufferOut.writeByte(type);
+                switch (type) {
+                case BASE:
+                    writeString(bufferOut, title);
+                    writeString(bufferOut, text);
+                    break;
+                case INSERT:
+                    bufferOut.writeInt(offset);
+                    writeString(bufferOut, text);
+                    break;
+                default:
+                    bufferOut.writeInt(offset);
+                    bufferOut.writeInt(length);
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e); // Not thrown by byte array streams.
+            }
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Forget every recorded edit (e.g. once every change has been saved).
+     */
+    public void clear() {
+        if (file == null || closed) {
+            return;
+        }
+        trackedTitle = null;
+        synchronized (this) {
+            buffer.reset();
+        }
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                truncate();
+            }
+        });
+    }
+
+    /**
+     * Replace the journal with bases for the passed notes, e.g. after the
+     * notes have been recovered, so that they can be recovered again until
+     * they are saved.
+     * @param texts The notes' texts, by title.
+     */
+    public void rewrite(Map<String, String> texts) {
+        clear();
+        for (Map.Entry<String, String> entry: texts.entrySet()) {
+            recordBase(entry.getKey(), entry.getValue());
+        }
+        trackedTitle = null;
+    }
+
+    /**
+     * Stop journaling, and throw away the journal, waiting for the writer to
+     * finish. Should be called when the application exits normally.
+     */
+    public void close() {
+        if (file == null || closed) {
+            return;
+        }
+        closed = true;
+        writer.shutdownNow();
+        try {
+            writer.awaitTermination(SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        truncate();
+    }
+
+    /**
+     * Read the edits in the journal.
+     * @return The latest text of each journaled note, by title, in the order
+     *         the notes were last edited.
+     */
+    public Map<String, String> recover() {
+        if (file == null || !file.exists()) {
+            return Collections.emptyMap();
+        }
+
+        final Map<String, StringBuilder> texts = Maps.newLinkedHashMap();
+        try {
+            final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                final long fileLength = file.length();
+                StringBuilder text = null;
+                while (true) {
+                    final byte type = in.readByte();
+                    if (type == BASE) {
+                        final String title = readString(in, fileLength);
+                        text = new StringBuilder(readString(in, fileLength));
+                        texts.remove(title);
+                        texts.put(title, text);
+                        continue;
+                    }
+
+                    final int offset = in.readInt();
+                    if (text == null || offset < 0 || offset > text.length()
+                            || (type != INSERT && type != REMOVE)) {
+                        log.warn(String.format("Ignoring the rest of the recovery journal [%s].", file));
+                        break;
+                    }
+                    if (type == INSERT) {
+                        text.insert(offset, readString(in, fileLength));
+                    } else {
+                        text.delete(offset, Math.min(text.length(), offset + in.readInt()));
+                    }
+                }
+            } catch (EOFException e) {
+                // The end of the journal, possibly cut short by a crash.
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warn(String.format("Could not read recovery journal [%s].", file), e);
+        }
+
+        final Map<String, String> recovered = Maps.newLinkedHashMap();
+        for (Map.Entry<String, StringBuilder> entry: texts.entrySet()) {
+            recovered.put(entry.getKey(), entry.getValue().toString());
+        }
+        return recovered;
+    }
+
+    /**
+     * Write the buffered entries now, and wait for them to be written.
+     */
+    void flushAndWait() throws InterruptedException, ExecutionException {
+        writer.submit(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }).get();
+    }
+
+    /**
+     * Append the buffered entries to the journal file, and force it to disk
+     * if it hasn't been for a while. Runs on the writer thread.
+     */
+    private void flush() {
+        final byte[] bytes;
+        synchronized (this) {
+            flushScheduled = false;
+            bytes = buffer.toByteArray();
+            buffer.reset();
+        }
+
+        try {
+            if (bytes.length > 0) {
+                if (out == null) {
+                    out = new FileOutputStream(file, true);
+                }
+                out.write(bytes);
+                syncPending = true;
+            }
+            if (!syncPending) {
+                return;
+            }
+            final long sinceSync = System.currentTimeMillis() - lastSync;
+            if (sinceSync >= SYNC_INTERVAL) {
+                out.getFD().sync();
+                lastSync = System.currentTimeMillis();
+                syncPending = false;
+            } else {
+                synchronized (this) {
+                    if (flushScheduled) {
+                        return;
+                    }
+                    flushScheduled = true;
+                }
+                writer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, SYNC_INTERVAL - sinceSync, TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException e) {
+            log.warn(String.format("Could not write recovery journal [%s].", file), e);
+        }
+    }
+
+    /**
+     * Empty the journal file. Runs on the writer thread, or once it has stopped.
+     */
+    private void truncate() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            syncPending = false;
+            if (file.exists() && !file.delete()) {
+                new FileOutputStream(file).close();
+            }
+        } catch (IOException e) {
+            log.warn(String.format("Could not clear recovery journal [%s].", file), e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString}.
+     * @param in The stream to read from.
+     * @param maxLength The longest the string could be (e.g. the length of the
+     *                  file), to guard against lengths cut short by a crash.
+     */
+    private static String readString(DataInputStream in, long maxLength) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new EOFException("Bad string length.");
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
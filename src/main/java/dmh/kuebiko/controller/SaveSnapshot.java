@@ -0,0 +1,178 @@
+/**
+ * Kuebiko - SaveSnapshot.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+
+import dmh.kuebiko.model.Note;
+import dmh.kuebiko.model.NoteDao;
+import dmh.kuebiko.model.PersistenceException;
+import dmh.kuebiko.model.ValidationException;
+
+/**
+ * The changes to a stack of notes that a save is writing, and what came of
+ * writing them. The snapshot is taken on the event dispatch thread, and only
+ * copies the lists of changed notes, so it is cheap; the notes themselves may
+ * keep being edited while the snapshot is written, and each note is written
+ * as it is when its turn comes. Each note's modification count is recorded as
+ * it is written, so that changes made during the write are left unsaved
+ * rather than lost.
+ *
+ * @author davehuffman
+ */
+final class SaveSnapshot {
+    private static final Logger log = Logger.getLogger(SaveSnapshot.class);
+
+    private final int changeCount;
+    private final List<Note> deletedNotes;
+    private final List<Note> dirtyNotes = Lists.newArrayList();
+    private final List<Note> newNotes = Lists.newArrayList();
+    private final List<Integer> newNoteModCounts = Lists.newArrayList();
+
+    private int deletedCount = 0;
+    private final List<Note> writtenNotes = Lists.newArrayList();
+    private final List<Date> oldModifiedDates = Lists.newArrayList();
+    private final List<Date> newModifiedDates = Lists.newArrayList();
+    private final List<Note> addedNotes = Lists.newArrayList();
+
+    /**
+     * Constructor. Must be called on the event dispatch thread.
+     * @param changeCount The note manager's change count.
+     * @param notes The notes in the stack.
+     * @param deletedNotes The notes deleted from the stack since the last save.
+     */
+    SaveSnapshot(int changeCount, List<Note> notes, Collection<Note> deletedNotes) {
+        this.changeCount = changeCount;
+        this.deletedNotes = Lists.newArrayList(deletedNotes);
+        for (Note note: notes) {
+            switch (note.getState()) {
+            case DIRTY:
+                dirtyNotes.add(note);
+                break;
+            case NEW:
+                newNotes.add(note);
+                break;
+            default:
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Write the snapshot to the data store, as a single batch. Notes that
+     * have already been saved (e.g. by an autosave) are skipped. If writing
+     * fails part way, what was written is still recorded.
+     * @param noteDao The data store. The caller must hold its lock.
+     */
+    void write(NoteDao noteDao) throws PersistenceException, ValidationException {
+        noteDao.beginBatch();
+        try {
+            for (Note note: deletedNotes) {
+                log.debug(String.format("Deleting note [%s].", note));
+                if (!note.isNew()) {
+                    // Only previously saved notes need to be deleted.
+                    noteDao.deleteNote(note);
+                }
+                deletedCount++;
+            }
+            // Existing notes are written before new ones, so that a new note
+            // may take the title an existing note was renamed from.
+            for (Note note: dirtyNotes) {
+                if (!note.isDirty()) {
+                    continue;
+                }
+                log.debug(String.format("Saving note [%s].", note));
+                final Date oldModifiedDate = note.getModifiedDate();
+                noteDao.updateNote(note);
+                writtenNotes.add(note);
+                oldModifiedDates.add(oldModifiedDate);
+                newModifiedDates.add(note.getModifiedDate());
+            }
+            for (Note note: newNotes) {
+                log.debug(String.format("Adding note [%s].", note));
+                newNoteModCounts.add(note.getModCount());
+                addedNotes.add(noteDao.addNote(note));
+            }
+        } finally {
+            noteDao.commitBatch();
+        }
+    }
+
+    /**
+     * @return The note manager's change count when the snapshot was taken.
+     */
+    int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * @return The deleted notes that have yet to be deleted from the data store.
+     */
+    List<Note> getUnwrittenDeletedNotes() {
+        return deletedNotes.subList(deletedCount, deletedNotes.size());
+    }
+
+    /**
+     * @return The existing notes that were written, in the order they were written.
+     */
+    List<Note> getWrittenNotes() {
+        return Collections.unmodifiableList(writtenNotes);
+    }
+
+    /**
+     * @param i The index of a written note.
+     * @return The note's modified date before it was written.
+     */
+    Date getOldModifiedDate(int i) {
+        return oldModifiedDates.get(i);
+    }
+
+    /**
+     * @param i The index of a written note.
+     * @return The note's modified date as it was written.
+     */
+    Date getNewModifiedDate(int i) {
+        return newModifiedDates.get(i);
+    }
+
+    /**
+     * @return The number of new notes that were added to the data store.
+     */
+    int getAddedCount() {
+        return addedNotes.size();
+    }
+
+    /**
+     * @param i The index of an added note.
+     * @return The new note in the stack.
+     */
+    Note getNewNote(int i) {
+        return newNotes.get(i);
+    }
+
+    /**
+     * @param i The index of an added note.
+     * @return The data store's copy of the new note, which replaces it.
+     */
+    Note getAddedNote(int i) {
+        return addedNotes.get(i);
+    }
+
+    /**
+     * @param i The index of an added note.
+     * @return True if the new note was changed after it was written.
+     */
+    boolean isNewNoteChanged(int i) {
+        return newNotes.get(i).getModCount() != newNoteModCounts.get(i);
+    }
+}
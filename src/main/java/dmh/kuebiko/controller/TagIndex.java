@@ -0,0 +1,188 @@
+/**
+ * Kuebiko - TagIndex.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import dmh.kuebiko.model.Note;
+
+/**
+ * Inverted index of the tags of the notes in a stack. Each distinct tag is
+ * interned into a dictionary, and maps to a postings list of the indices of
+ * the notes that carry it (as in {@link NoteManager#getNotes()}).
+ *
+ * <p>Postings lists are compressed according to their density: rare tags are
+ * stored as sorted arrays of note indices, and common tags as bitmaps, so that
+ * memory stays proportional to the number of tag assignments even for large
+ * stacks. Tag terms are evaluated as bitmap unions over the postings
+ * lists.</p>
+ *
+ * <p>The index is immutable; it is rebuilt when the stack changes.</p>
+ *
+ * @author davehuffman
+ */
+public class TagIndex {
+    /** Prefix that marks a tag within a query. */
+    public static final char TAG_PREFIX = '#';
+    /** Separator between alternatives within a query term. */
+    static final char OR_SEPARATOR = '|';
+
+    /** Postings with more than one note in this many are stored as bitmaps;
+     *  an array entry costs 32 bits, while a bitmap costs one bit per note. */
+    static final int DENSE_RATIO = 32;
+
+    /**
+     * A compressed set of note indices.
+     */
+    private static final class Postings {
+        /** Sorted note indices, for sparse postings; otherwise null. */
+        private final int[] indices;
+        /** Note indices, for dense postings; otherwise null. */
+        private final BitSet bits;
+        private final int cardinality;
+
+        Postings(int[] indices, int count, int noteCount) {
+            cardinality = count;
+            if ((long) count * DENSE_RATIO > noteCount) {
+                this.indices = null;
+                this.bits = new BitSet(noteCount);
+                for (int i = 0; i < count; i++) {
+                    bits.set(indices[i]);
+                }
+            } else {
+                this.indices = Arrays.copyOf(indices, count);
+                this.bits = null;
+            }
+        }
+
+        boolean isDense() {
+            return bits != null;
+        }
+
+        /** target |= this */
+        void orInto(BitSet target) {
+            if (isDense()) {
+                target.or(bits);
+            } else {
+                for (int index: indices) {
+                    target.set(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clean up a list of tags: split on whitespace, strip any leading tag
+     * prefixes, and drop empty and duplicate tags.
+     * @param tags The tags to normalize.
+     * @return The normalized tags, in their original order.
+     */
+    public static List<String> normalize(Collection<String> tags) {
+        final Set<String> normalized = Sets.newLinkedHashSet();
+        for (String tag: tags) {
+            for (String part: StringUtils.split(StringUtils.defaultString(tag))) {
+                part = StringUtils.stripStart(part, String.valueOf(TAG_PREFIX));
+                if (!part.isEmpty()) {
+                    normalized.add(part);
+                }
+            }
+        }
+        return Lists.newArrayList(normalized);
+    }
+
+    private final int noteCount;
+    /** The tag dictionary; maps each tag to its postings. */
+    private final Map<String, Postings> dictionary;
+
+    /**
+     * Constructor. Indexes the tags of a list of notes.
+     * @param notes The notes to index.
+     */
+    public TagIndex(List<Note> notes) {
+        noteCount = notes.size();
+
+        // Collect the postings of each tag, as growable arrays.
+        final Map<String, int[]> buffers = Maps.newHashMap();
+        final Map<String, Integer> counts = Maps.newHashMap();
+        for (int i = 0; i < noteCount; i++) {
+            for (String tag: notes.get(i).getTags()) {
+                int[] buffer = buffers.get(tag);
+                final Integer count = counts.get(tag);
+                final int n = (count == null)? 0 : count;
+                if (buffer == null) {
+                    buffer = new int[4];
+                    buffers.put(tag, buffer);
+                } else if (n == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, n * 2);
+                    buffers.put(tag, buffer);
+                }
+                if (n > 0 && buffer[n - 1] == i) {
+                    continue; // The same tag twice on one note.
+                }
+                buffer[n] = i;
+                counts.put(tag, n + 1);
+            }
+        }
+
+        dictionary = Maps.newHashMapWithExpectedSize(buffers.size());
+        for (Map.Entry<String, int[]> entry: buffers.entrySet()) {
+            final String tag = entry.getKey();
+            dictionary.put(tag, new Postings(entry.getValue(), counts.get(tag), noteCount));
+        }
+    }
+
+    /**
+     * @return Every tag in use, in sorted order.
+     */
+    public Set<String> getTags() {
+        return ImmutableSortedSet.copyOf(dictionary.keySet());
+    }
+
+    /**
+     * @param tag A tag.
+     * @return The number of notes with the tag.
+     */
+    public int getNoteCount(String tag) {
+        final Postings postings = dictionary.get(tag);
+        return (postings == null)? 0 : postings.cardinality;
+    }
+
+    /**
+     * @param tag A tag.
+     * @return The indices of the notes with the tag.
+     */
+    public BitSet find(String tag) {
+        return findAny(Collections.singleton(tag));
+    }
+
+    /**
+     * @param tags Some tags.
+     * @return The indices of the notes with any of the tags.
+     */
+    public BitSet findAny(Collection<String> tags) {
+        final BitSet result = new BitSet(noteCount);
+        for (String tag: tags) {
+            final Postings postings = dictionary.get(tag);
+            if (postings != null) {
+                postings.orInto(result);
+            }
+        }
+        return result;
+    }
+}
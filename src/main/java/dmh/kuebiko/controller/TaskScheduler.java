@@ -0,0 +1,249 @@
+/**
+ * Kuebiko - TaskScheduler.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Central scheduler for work that should run off of the event dispatch
+ * thread. Tasks are submitted to one of several priority lanes; whenever a
+ * worker is free, the oldest task in the highest priority lane that is below
+ * its concurrency limit is started.
+ *
+ * <p>Tasks in the {@link Lane#IDLE} lane are only started while the user is
+ * idle, i.e. when no activity has been recorded for a while. They should be
+ * used for heavy maintenance work that would otherwise compete with the
+ * user.</p>
+ *
+ * @author davehuffman
+ */
+public class TaskScheduler {
+    private static final Logger log = Logger.getLogger(TaskScheduler.class);
+
+    /** The time without activity after which the user is idle, in milliseconds. */
+    static final long DEFAULT_IDLE_THRESHOLD = 30 * 1000;
+    /** How often to check for idleness while idle tasks are waiting, in milliseconds. */
+    private static final long IDLE_POLL_INTERVAL = 1000;
+
+    /** Enumeration of the lanes, from highest to lowest priority. */
+    public static enum Lane {
+        /** Work the user is waiting on (e.g. loading a note or search results). */
+        INTERACTIVE(2),
+        /** Saving changes. Run one at a time, to keep saves in order. */
+        SAVE(1),
+        /** Work the user isn't waiting on (e.g. indexing and prefetching). */
+        BACKGROUND(1),
+        /** Heavy maintenance; only run while the user is idle. */
+        IDLE(1);
+
+        private final int concurrency;
+
+        private Lane(int concurrency) {
+            this.concurrency = concurrency;
+        }
+
+        /**
+         * @return The maximum number of the lane's tasks that may run at once.
+         */
+        public int getConcurrency() {
+            return concurrency;
+        }
+    }
+
+    /**
+     * A unit of work.
+     */
+    public interface Task {
+        /**
+         * Do the work. Long running tasks should check the token periodically,
+         * and return early once it is cancelled.
+         * @param token The task's cancellation token.
+         */
+        public void run(CancellationToken token) throws Exception;
+    }
+
+    /**
+     * Token for cancelling a submitted task. A task that has not yet started
+     * when it is cancelled is never started.
+     */
+    public static final class CancellationToken {
+        private volatile boolean cancelled = false;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /** A submitted task, with its token. */
+    private static final class Entry {
+        private final Task task;
+        private final CancellationToken token;
+
+        Entry(Task task, CancellationToken token) {
+            this.task = task;
+            this.token = token;
+        }
+    }
+
+    private static TaskScheduler instance = null;
+
+    /**
+     * @return The application's shared scheduler.
+     */
+    public static synchronized TaskScheduler getInstance() {
+        if (instance == null) {
+            instance = new TaskScheduler(DEFAULT_IDLE_THRESHOLD);
+        }
+        return instance;
+    }
+
+    private final long idleThreshold;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService idleTimer;
+
+    private final Map<Lane, Queue<Entry>> queues = Maps.newEnumMap(Lane.class);
+    private final Map<Lane, Integer> runningCounts = Maps.newEnumMap(Lane.class);
+    private boolean idlePollScheduled = false;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    /**
+     * Constructor.
+     * @param idleThreshold The time without activity after which the user is
+     *                      considered idle, in milliseconds.
+     */
+    TaskScheduler(long idleThreshold) {
+        this.idleThreshold = idleThreshold;
+        workers = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("task-%d")
+                .setDaemon(true)
+                .build());
+        idleTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("task-idle-timer")
+                .setDaemon(true)
+                .build());
+        for (Lane lane: Lane.values()) {
+            queues.put(lane, Lists.<Entry>newLinkedList());
+            runningCounts.put(lane, 0);
+        }
+    }
+
+    /**
+     * Submit a task to run.
+     * @param lane The lane to run the task in.
+     * @param task The task.
+     * @return The task's cancellation token.
+     */
+    public CancellationToken submit(Lane lane, Task task) {
+        final CancellationToken token = new CancellationToken();
+        synchronized (this) {
+            queues.get(lane).add(new Entry(task, token));
+        }
+        dispatch();
+        return token;
+    }
+
+    /**
+     * Record that the user did something, postponing idle tasks.
+     */
+    public void recordActivity() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * @return True if the user has been idle for long enough to run idle tasks.
+     */
+    public boolean isIdle() {
+        return System.currentTimeMillis() - lastActivity >= idleThreshold;
+    }
+
+    /**
+     * @param lane A lane.
+     * @return The number of the lane's tasks that are waiting to start.
+     */
+    public synchronized int getQueuedCount(Lane lane) {
+        return queues.get(lane).size();
+    }
+
+    /**
+     * Start as many waiting tasks as the lanes' limits allow. Tasks in a lane
+     * are held back while a higher priority lane has a backlog.
+     */
+    private synchronized void dispatch() {
+        for (Lane lane: Lane.values()) {
+            final Queue<Entry> queue = queues.get(lane);
+            while (!queue.isEmpty() && runningCounts.get(lane) < lane.getConcurrency()) {
+                if (lane == Lane.IDLE && !isIdle()) {
+                    scheduleIdlePoll();
+                    break;
+                }
+                final Entry entry = queue.remove();
+                if (!entry.token.isCancelled()) {
+                    start(lane, entry);
+                }
+            }
+            if (!queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private void start(final Lane lane, final Entry entry) {
+        runningCounts.put(lane, runningCounts.get(lane) + 1);
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!entry.token.isCancelled()) {
+                        entry.task.run(entry.token);
+                    }
+                } catch (Exception e) {
+                    log.error(String.format("Task [%s] in lane [%s] failed.", entry.task, lane), e);
+                } finally {
+                    synchronized (TaskScheduler.this) {
+                        runningCounts.put(lane, runningCounts.get(lane) - 1);
+                    }
+                    dispatch();
+                }
+            }
+        });
+    }
+
+    /**
+     * Check again later whether idle tasks may start.
+     */
+    private void scheduleIdlePoll() {
+        if (idlePollScheduled) {
+            return;
+        }
+        idlePollScheduled = true;
+        idleTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (TaskScheduler.this) {
+                    idlePollScheduled = false;
+                }
+                dispatch();
+            }
+        }, Math.max(1, Math.min(IDLE_POLL_INTERVAL,
+                idleThreshold - (System.currentTimeMillis() - lastActivity))),
+                TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Kuebiko - TextScanSearch.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import dmh.kuebiko.model.Note;
+import dmh.kuebiko.model.PersistenceException;
+
+/**
+ * A brute force search of the text of every note in a stack. The notes are
+ * split into small chunks that are scanned in parallel, and hits are reported
+ * as soon as each chunk is done, so that clients can display results long
+ * before the whole stack has been read.
+ *
+ * <p>Scanning does not require (or build) an index, and supports arbitrary
+ * regular expressions.</p>
+ *
+ * @author davehuffman
+ */
+public class TextScanSearch {
+    private static final Logger log = Logger.getLogger(TextScanSearch.class);
+
+    /** The number of notes scanned by each task. Kept small so that the first
+     *  hits are reported quickly. */
+    static final int CHUNK_SIZE = 32;
+
+    /**
+     * Interface for objects that receive the results of a scan as they are
+     * found. Methods will be called from scanning threads.
+     */
+    public interface HitListener {
+        /**
+         * Called each time a chunk of notes has been scanned.
+         * @param hits The indices of the matching notes found in the chunk.
+         *             May be empty.
+         * @param scannedCount The total number of notes scanned so far.
+         * @param noteCount The total number of notes to scan.
+         */
+        public void onHits(BitSet hits, int scannedCount, int noteCount);
+    }
+
+    private static ExecutorService executor = null;
+
+    /**
+     * @return The shared pool used to scan notes; one thread per processor.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("text-scan-%d")
+                            .setDaemon(true)
+                            .build());
+        }
+        return executor;
+    }
+
+    /**
+     * Build a search pattern from a query string. Queries wrapped in slashes
+     * (e.g. <code>/foo.*bar/</code>) are treated as regular expressions; any
+     * other query is matched literally. Matching is case insensitive.
+     * @param query The query string.
+     * @return The compiled pattern.
+     * @throws IllegalArgumentException If the query is an invalid regex.
+     */
+    public static Pattern compileQuery(String query) {
+        final int flags = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        if (query.length() > 1 && query.startsWith("/") && query.endsWith("/")) {
+            try {
+                return Pattern.compile(query.substring(1, query.length() - 1), flags);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(
+                        String.format("Invalid regular expression [%s].", query), e);
+            }
+        }
+        return Pattern.compile(Pattern.quote(query), flags);
+    }
+
+    private final List<Note> notes;
+    private final Pattern pattern;
+    private final AtomicInteger scannedCount = new AtomicInteger();
+    private volatile boolean cancelled = false;
+
+    /**
+     * Constructor.
+     * @param notes The notes to scan. The indices of this list are used to
+     *              report hits.
+     * @param pattern The pattern to search for.
+     */
+    public TextScanSearch(List<Note> notes, Pattern pattern) {
+        this.notes = ImmutableList.copyOf(notes);
+        this.pattern = pattern;
+    }
+
+    /**
+     * Run the scan, blocking until every note has been scanned or the scan is
+     * cancelled.
+     * @param listener The object that will receive hits.
+     * @return The indices of every matching note found.
+     */
+    public BitSet run(HitListener listener) throws InterruptedException {
+        final int noteCount = notes.size();
+        final CompletionService<BitSet> completionService =
+                new ExecutorCompletionService<BitSet>(getExecutor());
+
+        int chunkCount = 0;
+        for (int start = 0; start < noteCount; start += CHUNK_SIZE) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(start + CHUNK_SIZE, noteCount);
+            completionService.submit(new Callable<BitSet>() {
+                @Override
+                public BitSet call() {
+                    final BitSet hits = scanChunk(chunkStart, chunkEnd);
+                    scannedCount.addAndGet(chunkEnd - chunkStart);
+                    return hits;
+                }
+            });
+            chunkCount++;
+        }
+
+        final BitSet allHits = new BitSet(noteCount);
+        for (int i = 0; i < chunkCount; i++) {
+            final BitSet hits;
+            try {
+                hits = completionService.take().get();
+            } catch (ExecutionException e) {
+                cancel();
+                throw new DataStoreException("Could not scan notes.", e.getCause());
+            }
+            if (cancelled) {
+                // Remaining chunks will finish quickly; don't report them.
+                break;
+            }
+            allHits.or(hits);
+            listener.onHits(hits, scannedCount.get(), noteCount);
+        }
+        return allHits;
+    }
+
+    /**
+     * Scan a contiguous range of notes.
+     * @param start The index of the first note to scan.
+     * @param end The index after the last note to scan.
+     * @return The indices of the matching notes.
+     */
+    private BitSet scanChunk(int start, int end) {
+        final BitSet hits = new BitSet();
+        final Matcher matcher = pattern.matcher("");
+        for (int i = start; i < end && !cancelled; i++) {
+            final Note note = notes.get(i);
+            try {
+                final CharSequence text = note.scanText();
+                if (text != null && matcher.reset(text).find()) {
+                    hits.set(i);
+                }
+            } catch (PersistenceException e) {
+                // One unreadable note shouldn't spoil the whole search.
+                log.warn(String.format("Could not scan note [%s].", note), e);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Cancel the scan. Any notes currently being scanned will be finished,
+     * but no further notes will be read and no further hits will be reported.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
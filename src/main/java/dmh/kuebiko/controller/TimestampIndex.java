@@ -0,0 +1,240 @@
+/**
+ * Kuebiko - TimestampIndex.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import com.google.common.base.Function;
+
+import dmh.kuebiko.model.Note;
+
+/**
+ * Sorted index of one of the timestamps (e.g. the modified date) of the notes
+ * in a stack. Entries are (timestamp, note index) pairs kept in parallel
+ * primitive arrays, ordered by timestamp, so that range queries and "most
+ * recent" queries cost a binary search rather than a pass over every note.
+ * Note indices correspond to the indices in {@link NoteManager#getNotes()}.
+ *
+ * <p>Notes without the timestamp are not indexed.</p>
+ *
+ * @author davehuffman
+ */
+public class TimestampIndex {
+    /** Extracts a note's modified date. */
+    static final Function<Note, Date> MODIFIED_DATE = new Function<Note, Date>() {
+        @Override
+        public Date apply(Note note) {
+            return note.getModifiedDate();
+        }
+    };
+
+    /** Extracts a note's create date. */
+    static final Function<Note, Date> CREATE_DATE = new Function<Note, Date>() {
+        @Override
+        public Date apply(Note note) {
+            return note.getCreateDate();
+        }
+    };
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Function<Note, Date> dateFn;
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int[] indices = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Constructor.
+     * @param dateFn Function for extracting the indexed timestamp from a note.
+     */
+    TimestampIndex(Function<Note, Date> dateFn) {
+        this.dateFn = dateFn;
+    }
+
+    /**
+     * Replace the contents of the index.
+     * @param notes The notes to index.
+     */
+    void reset(List<Note> notes) {
+        final Integer[] order = new Integer[notes.size()];
+        final long[] noteTimes = new long[notes.size()];
+        int count = 0;
+        for (int i = 0; i < notes.size(); i++) {
+            final Date date = dateFn.apply(notes.get(i));
+            if (date != null) {
+                noteTimes[i] = date.getTime();
+                order[count++] = i;
+            }
+        }
+        Arrays.sort(order, 0, count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return compareEntries(noteTimes[o1], o1, noteTimes[o2], o2);
+            }
+        });
+
+        final int capacity = Math.max(INITIAL_CAPACITY, count);
+        times = new long[capacity];
+        indices = new int[capacity];
+        size = count;
+        for (int i = 0; i < count; i++) {
+            times[i] = noteTimes[order[i]];
+            indices[i] = order[i];
+        }
+    }
+
+    /**
+     * Add a note to the index.
+     * @param index The note's index.
+     * @param note The note.
+     */
+    void add(int index, Note note) {
+        final Date date = dateFn.apply(note);
+        if (date != null) {
+            insert(date.getTime(), index);
+        }
+    }
+
+    /**
+     * Move a note whose timestamp has changed.
+     * @param index The note's index.
+     * @param oldDate The note's previous timestamp. May be null.
+     * @param newDate The note's new timestamp. May be null.
+     */
+    void update(int index, Date oldDate, Date newDate) {
+        if (oldDate != null) {
+            final int pos = search(oldDate.getTime(), index);
+            if (pos >= 0) {
+                System.arraycopy(times, pos + 1, times, pos, size - pos - 1);
+                System.arraycopy(indices, pos + 1, indices, pos, size - pos - 1);
+                size--;
+            }
+        }
+        if (newDate != null) {
+            insert(newDate.getTime(), index);
+        }
+    }
+
+    private void insert(long time, int index) {
+        int pos = search(time, index);
+        if (pos >= 0) {
+            return; // Already indexed.
+        }
+        pos = -(pos + 1);
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            indices = Arrays.copyOf(indices, size * 2);
+        }
+        System.arraycopy(times, pos, times, pos + 1, size - pos);
+        System.arraycopy(indices, pos, indices, pos + 1, size - pos);
+        times[pos] = time;
+        indices[pos] = index;
+        size++;
+    }
+
+    /**
+     * @return The number of indexed notes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Count the notes with a timestamp in a range.
+     * @param from The inclusive lower bound, in milliseconds.
+     * @param to The exclusive upper bound, in milliseconds.
+     * @return The number of notes in the range.
+     */
+    public int count(long from, long to) {
+        return Math.max(0, lowerBound(to) - lowerBound(from));
+    }
+
+    /**
+     * Find the notes with a timestamp in a range.
+     * @param from The inclusive lower bound, in milliseconds.
+     * @param to The exclusive upper bound, in milliseconds.
+     * @return The indices of the notes in the range.
+     */
+    public BitSet range(long from, long to) {
+        final BitSet result = new BitSet();
+        final int end = lowerBound(to);
+        for (int i = lowerBound(from); i < end; i++) {
+            result.set(indices[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Find the notes with the latest timestamps.
+     * @param limit The maximum number of notes to return.
+     * @return The indices of the latest notes, latest first.
+     */
+    public int[] latest(int limit) {
+        final int count = Math.min(limit, size);
+        final int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = indices[size - 1 - i];
+        }
+        return result;
+    }
+
+    /**
+     * @return The indices of every indexed note, earliest first.
+     */
+    public int[] ordered() {
+        return Arrays.copyOf(indices, size);
+    }
+
+    /**
+     * Binary search for an exact entry.
+     * @return The position of the entry if found; otherwise, (-(insertion point) - 1).
+     */
+    private int search(long time, int index) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareEntries(times[mid], indices[mid], time, index);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return The position of the first entry with a timestamp not less than
+     *         the passed timestamp.
+     */
+    private int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compareEntries(long time1, int index1, long time2, int index2) {
+        if (time1 != time2) {
+            return (time1 < time2)? -1 : 1;
+        }
+        return (index1 < index2)? -1 : ((index1 == index2)? 0 : 1);
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Kuebiko - TitleIndex.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Sorted index of note titles. Titles are kept in a sorted array, ordered by
+ * their case-folded form, so that existence checks and prefix lookups cost a
+ * binary search rather than a pass over every note. Duplicate titles are
+ * allowed, since a stack may briefly contain them before it is saved.
+ *
+ * <p>The index also tracks the numeric suffixes of titles of the form
+ * "[base] [number]", which makes generating a new, unique title cheap.</p>
+ *
+ * @author davehuffman
+ */
+public class TitleIndex {
+    private static final int INITIAL_CAPACITY = 16;
+    /** Numeric suffixes longer than this could overflow an int. */
+    private static final int MAX_SUFFIX_DIGITS = 9;
+
+    /**
+     * Fold a string for case insensitive comparison. Folding is done one
+     * character at a time, the same way as
+     * {@link String#regionMatches(boolean, int, String, int, int)}.
+     * @param str The string to fold. May not be null.
+     * @return The folded string.
+     */
+    public static String fold(String str) {
+        final char[] chars = str.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * A contiguous range of titles within the index.
+     */
+    public final class Range extends AbstractList<String> {
+        private final int start;
+        private final int end;
+
+        private Range(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return titles[start + index];
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+
+    /** Folded titles; the sort key. */
+    private String[] keys = new String[INITIAL_CAPACITY];
+    /** Original titles, in the same order as the keys. */
+    private String[] titles = new String[INITIAL_CAPACITY];
+    private int size = 0;
+    /** Incremented every time the index is modified. */
+    private int modCount = 0;
+
+    /** Numeric suffixes in use, and their counts, keyed by base title. */
+    private final Map<String, TreeMap<Integer, Integer>> suffixes = Maps.newHashMap();
+
+    /**
+     * Replace the contents of the index.
+     * @param newTitles The titles to index.
+     */
+    public void reset(Collection<String> newTitles) {
+        final String[][] pairs = sortEntries(newTitles);
+        final int capacity = Math.max(INITIAL_CAPACITY, pairs.length);
+        keys = new String[capacity];
+        titles = new String[capacity];
+        size = pairs.length;
+        suffixes.clear();
+        modCount++;
+        for (int i = 0; i < size; i++) {
+            keys[i] = pairs[i][0];
+            titles[i] = pairs[i][1];
+            updateSuffix(titles[i], 1);
+        }
+    }
+
+    /**
+     * Add several titles to the index at once. The titles are sorted and
+     * merged into the index in one pass, rather than inserted one at a time.
+     * @param newTitles The titles to add. Null titles are ignored.
+     */
+    public void addAll(Collection<String> newTitles) {
+        final String[][] pairs = sortEntries(newTitles);
+        if (pairs.length == 0) {
+            return;
+        }
+        final int newSize = size + pairs.length;
+        if (newSize > keys.length) {
+            final int capacity = Math.max(newSize, keys.length * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+        }
+
+        // Merge from the back, so that no entry is overwritten before it moves.
+        int i = size - 1;
+        int j = pairs.length - 1;
+        for (int k = newSize - 1; j >= 0; k--) {
+            if (i >= 0 && compareEntries(keys[i], titles[i], pairs[j][0], pairs[j][1]) > 0) {
+                keys[k] = keys[i];
+                titles[k] = titles[i];
+                i--;
+            } else {
+                keys[k] = pairs[j][0];
+                titles[k] = pairs[j][1];
+                updateSuffix(titles[k], 1);
+                j--;
+            }
+        }
+        size = newSize;
+        modCount++;
+    }
+
+    /**
+     * Add a title to the index.
+     * @param title The title to add. Null titles are ignored.
+     */
+    public void add(String title) {
+        if (title == null) {
+            return;
+        }
+        final String key = fold(title);
+        int index = search(key, title);
+        if (index < 0) {
+            index = -(index + 1);
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            titles = Arrays.copyOf(titles, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(titles, index, titles, index + 1, size - index);
+        keys[index] = key;
+        titles[index] = title;
+        size++;
+        modCount++;
+        updateSuffix(title, 1);
+    }
+
+    /**
+     * Remove one occurrence of a title from the index.
+     * @param title The title to remove.
+     * @return True if the title was in the index.
+     */
+    public boolean remove(String title) {
+        if (title == null) {
+            return false;
+        }
+        final int index = search(fold(title), title);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(titles, index + 1, titles, index, size - index - 1);
+        size--;
+        keys[size] = null;
+        titles[size] = null;
+        modCount++;
+        updateSuffix(title, -1);
+        return true;
+    }
+
+    /**
+     * @param title A title. May not be null.
+     * @return True if the exact (case sensitive) title is in the index.
+     */
+    public boolean contains(String title) {
+        return search(fold(title), title) >= 0;
+    }
+
+    /**
+     * @return The number of titles in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return A counter that changes every time the index is modified. Can be
+     *         used to detect stale ranges.
+     */
+    public int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Find all titles that start with a prefix, ignoring case.
+     * @param prefix The prefix. May not be null.
+     * @return A view of the matching titles, in sorted order. The view is
+     *         only valid until the index is next modified.
+     */
+    public Range prefixRange(String prefix) {
+        final String key = fold(prefix);
+        return new Range(lowerBound(key), lowerBound(key + Character.MAX_VALUE));
+    }
+
+    /**
+     * Determine if any title starts with a prefix, respecting case.
+     * @param prefix The prefix. May not be null.
+     * @return True if a title starts with the prefix.
+     */
+    public boolean containsPrefix(String prefix) {
+        for (String title: prefixRange(prefix)) {
+            if (title.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the next free numeric suffix for a base title. The base title on
+     * its own is treated as having the suffix 1, so the first free suffix is
+     * always at least 2.
+     * @param base The base title, e.g. "Untitled Note".
+     * @return One more than the largest suffix in use for the base title.
+     */
+    public int nextFreeSuffix(String base) {
+        final TreeMap<Integer, Integer> baseSuffixes = suffixes.get(base);
+        final int maxSuffix = (baseSuffixes == null)? 1 : Math.max(1, baseSuffixes.lastKey());
+        return maxSuffix + 1;
+    }
+
+    /**
+     * Binary search for an exact entry.
+     * @return The index of the entry if found; otherwise, (-(insertion point) - 1).
+     */
+    private int search(String key, String title) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareEntries(keys[mid], titles[mid], key, title);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return The index of the first entry with a key not less than the passed key.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param newTitles Titles. Null titles are skipped.
+     * @return The titles' (key, title) entries, in index order.
+     */
+    private static String[][] sortEntries(Collection<String> newTitles) {
+        String[][] pairs = new String[newTitles.size()][];
+        int i = 0;
+        for (String title: newTitles) {
+            if (title != null) {
+                pairs[i++] = new String[] { fold(title), title };
+            }
+        }
+        pairs = Arrays.copyOf(pairs, i);
+        Arrays.sort(pairs, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] o1, String[] o2) {
+                return compareEntries(o1[0], o1[1], o2[0], o2[1]);
+            }
+        });
+        return pairs;
+    }
+
+    private static int compareEntries(String key1, String title1, String key2, String title2) {
+        final int cmp = key1.compareTo(key2);
+        return (cmp != 0)? cmp : title1.compareTo(title2);
+    }
+
+    /**
+     * Update the suffix counts for a title, if it has a numeric suffix.
+     * @param title The title.
+     * @param delta The change in the number of occurrences of the title.
+     */
+    private void updateSuffix(String title, int delta) {
+        final int space = title.lastIndexOf(' ');
+        final int digitCount = title.length() - space - 1;
+        if (space <= 0 || digitCount == 0 || digitCount > MAX_SUFFIX_DIGITS) {
+            return;
+        }
+        for (int i = space + 1; i < title.length(); i++) {
+            final char c = title.charAt(i);
+            if (c < '0' || c > '9') {
+                return;
+            }
+        }
+
+        final String base = title.substring(0, space);
+        final Integer suffix = Integer.valueOf(title.substring(space + 1));
+        TreeMap<Integer, Integer> baseSuffixes = suffixes.get(base);
+        if (baseSuffixes == null) {
+            baseSuffixes = new TreeMap<Integer, Integer>();
+            suffixes.put(base, baseSuffixes);
+        }
+
+        final Integer count = baseSuffixes.get(suffix);
+        final int newCount = ((count == null)? 0 : count) + delta;
+        if (newCount > 0) {
+            baseSuffixes.put(suffix, newCount);
+        } else {
+            baseSuffixes.remove(suffix);
+            if (baseSuffixes.isEmpty()) {
+                suffixes.remove(base);
+            }
+        }
+    }
+}
@@ -6,11 +6,19 @@
 
 package dmh.kuebiko.model;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * Abstract class for note data access objects (DAOs). This class contains 
@@ -20,9 +28,63 @@ import com.google.common.base.Preconditions;
  * @author davehuffman
  */
 public abstract class AbstractNoteDao implements NoteDao {
+    /**
+     * The sort keys of every note in the data store, in one order, so that
+     * unfiltered pages can be found with a binary search rather than a pass
+     * over every note.
+     */
+    private static final class SortedKeys {
+        private final Object[] keys;
+        private final int[] ids;
+
+        SortedKeys(final NoteOrder order, Iterable<Note> notes) {
+            final List<Object[]> entries = Lists.newArrayList();
+            for (Note note: notes) {
+                entries.add(new Object[] { order.key(note), note.getId() });
+            }
+            Collections.sort(entries, new Comparator<Object[]>() {
+                @Override
+                public int compare(Object[] o1, Object[] o2) {
+                    return order.compare(o1[0], (Integer) o1[1], o2[0], (Integer) o2[1]);
+                }
+            });
+
+            keys = new Object[entries.size()];
+            ids = new int[entries.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = entries.get(i)[0];
+                ids[i] = (Integer) entries.get(i)[1];
+            }
+        }
+
+        /**
+         * @param after A cursor, or null for the start of the order.
+         * @return The index of the first note after the cursor.
+         */
+        int indexAfter(NoteCursor after) {
+            if (after == null) {
+                return 0;
+            }
+            int low = 0;
+            int high = ids.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (after.isBefore(keys[mid], ids[mid])) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+
     private final Set<DaoParameter> requiredParameters;
     
     protected Map<String, String> params;
+    private boolean batching = false;
+    /** Sort keys for the orders paged through since the data store last changed. */
+    private final Map<NoteOrder, SortedKeys> sortedKeys = Maps.newEnumMap(NoteOrder.class);
     
     protected AbstractNoteDao() {
         this(null);
@@ -83,6 +145,102 @@ public abstract class AbstractNoteDao implements NoteDao {
         return DaoParameter.getParameter(params, paramKey);
     }
     
+    @Override
+    public File getMetadataDirectory() throws PersistenceException {
+        // By default, there is nowhere to store metadata.
+        return null;
+    }
+
+    /**
+     * Retrieve every note in the data store, for filtering and paging. By
+     * default this is {@link #readNotes()}; subclasses should override it if
+     * they can provide a view of their notes without copying them.
+     * @return All notes.
+     */
+    protected Iterable<Note> scanNotes() throws PersistenceException {
+        return readNotes();
+    }
+
+    @Override
+    public int countNotes(Predicate<Note> filter) throws PersistenceException {
+        int count = 0;
+        for (Note note: scanNotes()) {
+            if (filter == null || filter.apply(note)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public NotePage readNotes(Predicate<Note> filter, NoteOrder order, NoteCursor after,
+            int limit) throws PersistenceException {
+        Preconditions.checkNotNull(order);
+        Preconditions.checkArgument(limit > 0, "Limit must be positive.");
+        Preconditions.checkArgument(after == null || after.getOrder() == order,
+                "Cursor is for a different order.");
+        if (filter == null) {
+            return readNotes(order, after, limit);
+        }
+
+        // Select the first (limit + 1) matching notes after the cursor in a
+        // single pass, without sorting the rest. The extra note tells us if
+        // there is another page.
+        final Comparator<Note> comparator = order.comparator();
+        final PriorityQueue<Note> page = new PriorityQueue<Note>(
+                limit + 2, Collections.reverseOrder(comparator));
+        for (Note note: scanNotes()) {
+            if ((filter != null && !filter.apply(note))
+                    || (after != null && !after.isBefore(note))) {
+                continue;
+            }
+            if (page.size() <= limit) {
+                page.add(note);
+            } else if (comparator.compare(note, page.peek()) < 0) {
+                page.poll();
+                page.add(note);
+            }
+        }
+
+        final boolean hasNext = (page.size() > limit);
+        if (hasNext) {
+            page.poll();
+        }
+        final List<Note> notes = Lists.newArrayList(page);
+        Collections.sort(notes, comparator);
+        return new NotePage(notes, hasNext?
+                new NoteCursor(order, notes.get(notes.size() - 1)) : null);
+    }
+
+    /**
+     * Read one page of every note, in a particular order. The notes' sort keys
+     * are sorted once, and kept until the data store changes or the last page
+     * is read, so paging through the whole stack costs one sort rather than a
+     * pass over every note per page.
+     */
+    private NotePage readNotes(NoteOrder order, NoteCursor after, int limit)
+    throws PersistenceException {
+        SortedKeys sorted = sortedKeys.get(order);
+        if (sorted == null) {
+            sorted = new SortedKeys(order, scanNotes());
+            sortedKeys.put(order, sorted);
+        }
+
+        final int start = sorted.indexAfter(after);
+        final int end = Math.min(sorted.ids.length, start + limit);
+        final List<Note> notes = Lists.newArrayListWithCapacity(end - start);
+        for (int i = start; i < end; i++) {
+            notes.add(findNote(sorted.ids[i]));
+        }
+        final boolean hasNext = (end < sorted.ids.length);
+        if (!hasNext) {
+            // The reader has been through the whole order; don't hold on to it.
+            sortedKeys.remove(order);
+        }
+        return new NotePage(notes, hasNext?
+                new NoteCursor(order, notes.get(notes.size() - 1)) : null);
+    }
+
     /**
      * Note entity factory. Creates a new note.
      * @param title The note's title.
@@ -96,6 +254,36 @@ public abstract class AbstractNoteDao implements NoteDao {
         return new Note(getUniqueId(), title, createDate, modifiedDate, loader);
     }
     
+    /**
+     * Note entity factory. Creates a new note.
+     * @param title The note's title.
+     * @param createDate The note's create date.
+     * @param modifiedDate The note's modified date.
+     * @param tags The note's tags.
+     * @param loader A lazy loader for the note data.
+     * @return A new note from the passed data.
+     */
+    protected final Note newNote(String title, Date createDate, Date modifiedDate, 
+            List<String> tags, NoteTextLazyLoader loader) {
+        return new Note(getUniqueId(), title, createDate, modifiedDate, tags, loader);
+    }
+    
+    /**
+     * Note entity factory. Creates a hollow note with a known ID, e.g. as a
+     * view of note data the DAO holds in some other form.
+     * @param id The note's ID.
+     * @param title The note's title.
+     * @param createDate The note's create date.
+     * @param modifiedDate The note's modified date.
+     * @param tags The note's tags.
+     * @param loader A lazy loader for the note data.
+     * @return A new hollow note from the passed data.
+     */
+    protected final Note newNote(int id, String title, Date createDate, Date modifiedDate,
+            List<String> tags, NoteTextLazyLoader loader) {
+        return new Note(id, title, createDate, modifiedDate, tags, loader);
+    }
+
     /**
      * Note entity factory. Makes a hollow copy of a source note.
      * @param source The note to copy.
@@ -104,7 +292,7 @@ public abstract class AbstractNoteDao implements NoteDao {
      */
     protected final Note copyNote(Note source, NoteTextLazyLoader loader) {
         return new Note(source.getId(), source.getTitle(), 
-                source.getCreateDate(), source.getModifiedDate(), loader);
+                source.getCreateDate(), source.getModifiedDate(), source.getTags(), loader);
     }
 
     /**
@@ -130,6 +318,40 @@ public abstract class AbstractNoteDao implements NoteDao {
         return (findNote(title) == null);
     }
     
+    @Override
+    public final void beginBatch() {
+        batching = true;
+    }
+
+    @Override
+    public final void commitBatch() throws PersistenceException {
+        if (batching) {
+            batching = false;
+            persistActionCommit();
+        }
+    }
+
+    /**
+     * @return True if a batch of changes is in progress.
+     */
+    protected final boolean isBatching() {
+        return batching;
+    }
+
+    /**
+     * Write anything deferred during a batch of changes to the data store.
+     * By default, nothing is deferred.
+     * @throws PersistenceException
+     */
+    protected void persistActionCommit() throws PersistenceException {
+        // Do nothing.
+    }
+
+    @Override
+    public void close() throws PersistenceException {
+        // By default, there is nothing to close.
+    }
+
     @Override
     public final Note addNote(Note newNote) 
     throws ValidationException, PersistenceException {
@@ -144,6 +366,7 @@ public abstract class AbstractNoteDao implements NoteDao {
         addedNote.setModifiedDate(new Date());
         addedNote.reset();
         
+        sortedKeys.clear();
         return persistActionAdd(addedNote);
     }
     
@@ -171,6 +394,7 @@ public abstract class AbstractNoteDao implements NoteDao {
             throw new IllegalArgumentException(String.format(
                     "Passed note [%s] does not exist.", deletedNote));
         }
+        sortedKeys.clear();
         persistActionDelete(deletedNote);
     }
 
@@ -189,10 +413,19 @@ public abstract class AbstractNoteDao implements NoteDao {
         Preconditions.checkArgument(note.isDirty());
         Preconditions.checkNotNull(findNote(note.getId()), 
                 String.format("Note [%s] not found.", note));
-        
+
+        if (note.resetIfUnchanged()) {
+            // Nothing has changed since the note was last written (e.g. an
+            // edit was undone), so it isn't rewritten or given a new date.
+            return note;
+        }
         note.setModifiedDate(new Date());
+        sortedKeys.clear();
+        final int writtenModCount = note.getModCount();
         note = persistActionUpdate(note);
-        note.reset();
+        // If the note was changed while it was being written, it is left
+        // dirty, to be written again.
+        note.reset(writtenModCount);
         return note;
     }
     
@@ -16,7 +16,13 @@ import java.util.Map;
  */
 public enum DaoParameter {
     /** A directory in the local file system where note data can be found. */
-    CLASS_NAME, DIRECTORY;
+    CLASS_NAME, DIRECTORY,
+    /** How hard the DAO works to get changes onto the disk; see
+     *  {@link dmh.kuebiko.model.filesystem.Durability}. */
+    DURABILITY,
+    /** The size of the off-heap note text cache, in megabytes; zero (the
+     *  default) for no cache. See {@link OffHeapTextCache}. */
+    TEXT_CACHE_SIZE;
     
     /**
      * Retrieve a string parameter value from a parameter map.
@@ -13,11 +13,22 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 
 /**
  * Value object representing a note.
  *
+ * <p>A note may be saved on a background thread while the user interface
+ * reads it. Changes are made while holding the note's lock, and the fields
+ * are volatile so that reads don't need it.</p>
+ *
+ * <p>A note remembers what the data store holds for it: its title, its tags
+ * and a fingerprint of its text. A dirty note whose data matches (e.g.
+ * because an edit was undone) has nothing to save.</p>
+ *
  * @author davehuffman
  */
 public class Note implements Serializable {
@@ -25,6 +36,8 @@ public class Note implements Serializable {
 
     private static final Logger log = Logger.getLogger(Note.class);
 
+    private static final HashFunction FINGERPRINT_FUNCTION = Hashing.murmur3_128();
+
     /**
      * Enumeration of possible entity states.
      */
@@ -47,14 +60,23 @@ public class Note implements Serializable {
 
     private final int id;
 
-    private State state;
+    private volatile State state;
+    /** Incremented every time the note is marked as dirty. */
+    private int modCount = 0;
+
+    private volatile String title;
+    private volatile String text;
+    private volatile Date createDate;
+    private volatile Date modifiedDate;
 
-    private String title;
-    private String text;
-    private Date createDate;
-    private Date modifiedDate;
+    /** The note's tags; untagged notes share an empty list. */
+    private volatile List<String> tags = Collections.emptyList();
 
-    private List<String> tags = Lists.newArrayList();
+    /** What the data store holds for the note; the fingerprint is null if
+     *  it is unknown (e.g. the note is new, or its text hasn't been loaded). */
+    private volatile Long persistedFingerprint = null;
+    private volatile String persistedTitle;
+    private volatile List<String> persistedTags;
 
     /**
      * Create a new, unsaved note with default values.
@@ -65,12 +87,18 @@ public class Note implements Serializable {
     }
 
     Note(int id, String title, Date createDate, Date modifiedDate, NoteTextLazyLoader loader) {
+        this(id, title, createDate, modifiedDate, Collections.<String>emptyList(), loader);
+    }
+
+    Note(int id, String title, Date createDate, Date modifiedDate, List<String> tags,
+            NoteTextLazyLoader loader) {
         this(id, State.HOLLOW);
         this.text = null;
 
         this.title = title;
         this.createDate = createDate;
         this.modifiedDate = modifiedDate;
+        this.tags = copyTags(tags);
         this.loader = loader;
     }
 
@@ -81,6 +109,7 @@ public class Note implements Serializable {
         this.text = text;
         this.createDate = createDate;
         this.modifiedDate = modifiedDate;
+        markAsPersisted();
     }
 
     /**
@@ -88,8 +117,7 @@ public class Note implements Serializable {
      * @param source The note to copy.
      */
     Note(Note source) {
-        this(source.getId(), source.getTitle(), source.getText(),
-                source.getCreateDate(), source.getModifiedDate());
+        this(source.getId(), source);
     }
 
     /**
@@ -100,6 +128,15 @@ public class Note implements Serializable {
     Note(int id, Note source) {
         this(id, source.getTitle(), source.getText(), source.getCreateDate(),
                 source.getModifiedDate());
+        this.tags = copyTags(source.getTags());
+    }
+
+    /**
+     * @param tags Tags.
+     * @return A copy of the tags, or the shared empty list if there are none.
+     */
+    private static List<String> copyTags(List<String> tags) {
+        return tags.isEmpty()? Collections.<String>emptyList() : Lists.newArrayList(tags);
     }
 
     private Note(int id, State state) {
@@ -121,8 +158,76 @@ public class Note implements Serializable {
      * consistent with the data store. This method should only be called from
      * the model layer.
      */
-    void reset() {
-        changeStateTo(isLazy()? State.HOLLOW : State.CLEAN);
+    synchronized void reset() {
+        markAsPersisted();
+        if (isLazy()) {
+            if (loader instanceof OffHeapTextCache) {
+                // The cache holds the text off the heap; don't hold it twice.
+                text = null;
+            }
+            changeStateTo(State.HOLLOW);
+        } else {
+            changeStateTo(State.CLEAN);
+        }
+    }
+
+    /**
+     * Reset the dirty flag on this note, unless it has been changed since
+     * it was written to the data store (e.g. by the user, while the note was
+     * being saved in the background), in which case it is left dirty.
+     * @param writtenModCount The note's modification count when it was
+     *                        written.
+     * @return True if the note was reset.
+     */
+    synchronized boolean reset(int writtenModCount) {
+        if (modCount != writtenModCount) {
+            // What was written is unknown, so the note must be written again.
+            persistedFingerprint = null;
+            return false;
+        }
+        reset();
+        return true;
+    }
+
+    /**
+     * Reset the dirty flag on this note if its data matches what the data
+     * store holds, e.g. if the user typed and then undid back to the saved
+     * text.
+     * @return True if the note was reset, and so does not need to be written.
+     */
+    synchronized boolean resetIfUnchanged() {
+        if (persistedFingerprint == null
+                || !Objects.equal(title, persistedTitle)
+                || !tags.equals(persistedTags)
+                || fingerprint(text) != persistedFingerprint) {
+            return false;
+        }
+        reset();
+        return true;
+    }
+
+    /**
+     * Record the note's current data as what the data store holds.
+     */
+    private void markAsPersisted() {
+        persistedTitle = title;
+        persistedTags = tags;
+        persistedFingerprint = (text == null)? null : fingerprint(text);
+    }
+
+    /**
+     * @param text A note's text.
+     * @return A 64-bit fingerprint of the text.
+     */
+    private static long fingerprint(String text) {
+        return FINGERPRINT_FUNCTION.hashString(text).asLong();
+    }
+
+    /**
+     * @return A count that changes every time the note is changed.
+     */
+    public synchronized int getModCount() {
+        return modCount;
     }
 
     /**
@@ -233,7 +338,7 @@ public class Note implements Serializable {
     /**
      * Mark this note as dirty.
      */
-    private void markAsDirty() {
+    private synchronized void markAsDirty() {
         log.debug(String.format("[%s] markAsDirty().", getId()));
 
         if (isHollow()) {
@@ -241,6 +346,7 @@ public class Note implements Serializable {
                     "Hollow entities cannot be marked as dirty.");
         }
 
+        modCount++;
         if (state != State.NEW) {
             changeStateTo(State.DIRTY);
         }
@@ -258,12 +364,12 @@ public class Note implements Serializable {
         return title;
     }
 
-    public void setTitle(String title) {
+    public synchronized void setTitle(String title) {
         markAsDirty();
         this.title = title;
     }
 
-    public String getText() {
+    public synchronized String getText() {
         if (isHollow()) {
             try {
                 text = loader.loadText(this);
@@ -271,12 +377,27 @@ public class Note implements Serializable {
             	log.error("Error loading note.", e);
                 throw new RuntimeException(e);
             }
+            markAsPersisted();
             changeStateTo(State.CLEAN);
         }
         return text;
     }
 
-    public void setText(String text) {
+    /**
+     * Retrieve this note's text for searching. Unlike {@link #getText()}, this
+     * method does not load the text of a hollow note into the note, so it may
+     * be used to scan many notes without keeping all of their text in memory.
+     * @return The text of the note. May be null.
+     */
+    public CharSequence scanText() throws PersistenceException {
+        if (isHollow()) {
+            return (loader instanceof NoteTextScanner)?
+                    ((NoteTextScanner) loader).scanText(this) : loader.loadText(this);
+        }
+        return text;
+    }
+
+    public synchronized void setText(String text) {
         if (isHollow()) {
             throw new IllegalStateException("Note is hollow.");
         }
@@ -285,11 +406,31 @@ public class Note implements Serializable {
         this.text = text;
     }
 
+    /**
+     * Replace this note's text, loading the note first if it is hollow (e.g.
+     * because it was saved in the background since its text was read). The
+     * note can't be reset between the load and the change, as it could be
+     * between separate calls to {@link #getText()} and {@link #setText(String)}.
+     * @param text The new text.
+     */
+    public synchronized void replaceText(String text) {
+        if (isHollow()) {
+            if (this.text != null && persistedFingerprint != null) {
+                // The note still holds the text it was saved with, so there's
+                // no need to read it back just to overwrite it.
+                changeStateTo(State.CLEAN);
+            } else {
+                getText();
+            }
+        }
+        setText(text);
+    }
+
     public Date getCreateDate() {
         return createDate;
     }
 
-    void setCreateDate(Date createDate) {
+    synchronized void setCreateDate(Date createDate) {
         markAsDirty();
         this.createDate = createDate;
     }
@@ -298,7 +439,7 @@ public class Note implements Serializable {
         return modifiedDate;
     }
 
-    void setModifiedDate(Date modifiedDate) {
+    synchronized void setModifiedDate(Date modifiedDate) {
         markAsDirty();
         this.modifiedDate = modifiedDate;
     }
@@ -307,8 +448,12 @@ public class Note implements Serializable {
         return Collections.unmodifiableList(tags);
     }
 
-    public void setTags(List<String> tags) {
+    public synchronized void setTags(List<String> tags) {
+        if (isHollow()) {
+            // Saving the note rewrites its text, so the text must be loaded.
+            getText();
+        }
         markAsDirty();
-        this.tags = tags;
+        this.tags = copyTags(tags);
     }
 }
@@ -0,0 +1,61 @@
+/**
+ * Kuebiko - NoteCursor.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model;
+
+import java.io.Serializable;
+
+/**
+ * Immutable position within an ordered sequence of notes; marks the last note
+ * of a page. The next page starts with the first note that sorts after the
+ * position, so paging stays consistent even if notes are added or removed
+ * between pages.
+ *
+ * @author davehuffman
+ */
+public final class NoteCursor implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final NoteOrder order;
+    private final Object key;
+    private final int id;
+
+    /**
+     * Constructor.
+     * @param order The order the cursor is a position within.
+     * @param note The last note before the position.
+     */
+    NoteCursor(NoteOrder order, Note note) {
+        this.order = order;
+        this.key = order.key(note);
+        this.id = note.getId();
+    }
+
+    public NoteOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * @param note A note.
+     * @return True if the note sorts after this position.
+     */
+    boolean isBefore(Note note) {
+        return isBefore(order.key(note), note.getId());
+    }
+
+    /**
+     * @param noteKey A note's sort key in the cursor's order.
+     * @param noteId The note's ID.
+     * @return True if the note sorts after this position.
+     */
+    boolean isBefore(Object noteKey, int noteId) {
+        return order.compare(key, id, noteKey, noteId) < 0;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteCursor [order=" + order + ", key=" + key + ", id=" + id + "]";
+    }
+}
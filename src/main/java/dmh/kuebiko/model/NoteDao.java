@@ -5,9 +5,12 @@
  */
 package dmh.kuebiko.model;
 
+import java.io.File;
 import java.util.List;
 import java.util.Map;
 
+import com.google.common.base.Predicate;
+
 /**
  * Interface for all note data access objects. Exposes basic CRUD operations 
  * for notes.
@@ -35,14 +38,64 @@ public interface NoteDao {
     public void deleteNote(Note deletedNote) throws PersistenceException;
 
     /**
-     * Update a note in the data store with new data.
+     * Update a note in the data store with new data. If the note's data
+     * matches what the data store already holds (e.g. an edit was undone),
+     * nothing is written, and the note's modified date is left alone.
      * @param note The new note data.
      * @return The updated note.
      */
     public Note updateNote(Note updatedNote) throws PersistenceException;
 
+    /**
+     * Begin a batch of changes. Until the batch is committed, the DAO may
+     * defer writing data that covers the stack as a whole (e.g. the tags of
+     * every note), so that saving many notes costs one such write rather than
+     * one per note.
+     */
+    public void beginBatch();
+
+    /**
+     * Commit a batch of changes, writing anything deferred since
+     * {@link #beginBatch()} was called.
+     */
+    public void commitBatch() throws PersistenceException;
+
+    /**
+     * Close the data store, forcing anything it has yet to write to disk.
+     * Should be called when the application exits normally.
+     */
+    public void close() throws PersistenceException;
+
     /**
      * @return A list of all notes in the data store.
      */
     public List<Note> readNotes() throws PersistenceException;
+
+    /**
+     * Count the notes matching a filter.
+     * @param filter The filter, or null to count every note.
+     * @return The number of matching notes.
+     */
+    public int countNotes(Predicate<Note> filter) throws PersistenceException;
+
+    /**
+     * Read one page of the notes matching a filter, in a particular order.
+     * Implementations should evaluate the filter and order against their own
+     * data (and indexes), and only materialize the notes on the page.
+     * @param filter The filter, or null to read every note.
+     * @param order The order to read the notes in.
+     * @param after The cursor returned with the previous page, or null to
+     *              read the first page. Must be for the same order.
+     * @param limit The maximum number of notes on the page.
+     * @return The page of notes.
+     */
+    public NotePage readNotes(Predicate<Note> filter, NoteOrder order, NoteCursor after,
+            int limit) throws PersistenceException;
+
+    /**
+     * @return A directory where data about the stack as a whole (usage data,
+     *         indexes, etc.) may be kept, or null if the data store has no
+     *         such place.
+     */
+    public File getMetadataDirectory() throws PersistenceException;
 }
@@ -0,0 +1,107 @@
+/**
+ * Kuebiko - NoteOrder.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model;
+
+import java.util.Comparator;
+
+/**
+ * Enumeration of the orders in which notes may be read from a data store.
+ * Every order is total: notes with equal sort keys are ordered by ID, so
+ * that pages of results never overlap or skip notes.
+ *
+ * @author davehuffman
+ */
+public enum NoteOrder {
+    /** By title, ignoring case. */
+    TITLE(false) {
+        @Override
+        Object key(Note note) {
+            return note.getTitle();
+        }
+
+        @Override
+        int compareKeys(Object key1, Object key2) {
+            return String.CASE_INSENSITIVE_ORDER.compare((String) key1, (String) key2);
+        }
+    },
+    /** By modified date, oldest first. */
+    MODIFIED_DATE(false) {
+        @Override
+        Object key(Note note) {
+            return note.getModifiedDate();
+        }
+    },
+    /** By modified date, newest first. */
+    RECENTLY_MODIFIED(true) {
+        @Override
+        Object key(Note note) {
+            return note.getModifiedDate();
+        }
+    },
+    /** By create date, oldest first. */
+    CREATE_DATE(false) {
+        @Override
+        Object key(Note note) {
+            return note.getCreateDate();
+        }
+    },
+    /** By create date, newest first. */
+    RECENTLY_CREATED(true) {
+        @Override
+        Object key(Note note) {
+            return note.getCreateDate();
+        }
+    };
+
+    private final boolean descending;
+
+    private NoteOrder(boolean descending) {
+        this.descending = descending;
+    }
+
+    /**
+     * @param note A note.
+     * @return The note's sort key. May be null.
+     */
+    abstract Object key(Note note);
+
+    /**
+     * Compare two non-null sort keys, in ascending order.
+     */
+    @SuppressWarnings("unchecked")
+    int compareKeys(Object key1, Object key2) {
+        return ((Comparable<Object>) key1).compareTo(key2);
+    }
+
+    /**
+     * Compare two (sort key, ID) pairs in this order. Null keys come first in
+     * ascending orders, and last in descending orders.
+     */
+    int compare(Object key1, int id1, Object key2, int id2) {
+        int cmp;
+        if (key1 == null || key2 == null) {
+            cmp = (key1 == null)? ((key2 == null)? 0 : -1) : 1;
+        } else {
+            cmp = compareKeys(key1, key2);
+        }
+        if (cmp == 0) {
+            cmp = (id1 < id2)? -1 : ((id1 == id2)? 0 : 1);
+        }
+        return descending? -cmp : cmp;
+    }
+
+    /**
+     * @return A comparator for notes in this order.
+     */
+    public Comparator<Note> comparator() {
+        return new Comparator<Note>() {
+            @Override
+            public int compare(Note o1, Note o2) {
+                return NoteOrder.this.compare(key(o1), o1.getId(), key(o2), o2.getId());
+            }
+        };
+    }
+}
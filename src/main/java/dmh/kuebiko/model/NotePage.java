@@ -0,0 +1,50 @@
+/**
+ * Kuebiko - NotePage.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Value object representing one page of an ordered sequence of notes.
+ *
+ * @author davehuffman
+ */
+public final class NotePage {
+    private final List<Note> notes;
+    private final NoteCursor next;
+
+    /**
+     * Constructor.
+     * @param notes The notes on the page, in order.
+     * @param next The position after the last note on the page, or null if
+     *             this is the last page.
+     */
+    NotePage(List<Note> notes, NoteCursor next) {
+        this.notes = ImmutableList.copyOf(notes);
+        this.next = next;
+    }
+
+    /**
+     * @return The notes on the page, in order.
+     */
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    /**
+     * @return The cursor to pass to read the following page, or null if this
+     *         is the last page.
+     */
+    public NoteCursor getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * Kuebiko - NoteTextScanner.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model;
+
+/**
+ * Interface for objects capable of reading note text for searching, without
+ * loading the text into the note itself. Implementations are expected to be
+ * safe to call from multiple threads at once.
+ *
+ * @author davehuffman
+ */
+public interface NoteTextScanner {
+    /**
+     * Read the text of a note for a one-off scan. The note is not modified,
+     * and the returned text is not retained by the scanner.
+     * @param note The note to read. May not be null. Will not be modified.
+     * @return The text of the passed note.
+     */
+    public CharSequence scanText(Note note) throws PersistenceException;
+}
@@ -0,0 +1,233 @@
+/**
+ * Kuebiko - OffHeapTextCache.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Cache of note text kept outside the Java heap, in front of another lazy
+ * loader. Text is stored as UTF-8, in fixed size blocks carved out of direct
+ * byte buffer slabs; free blocks are kept on a free list, and the least
+ * recently used text is evicted when the cache is full. A cache hit decodes
+ * the text from the slabs rather than reading it from the data store, so a
+ * large working set of notes can be kept hot without growing the heap (or
+ * the garbage collector's work).
+ *
+ * <p>Text is cached by note ID. The owner of the cache must keep it in step
+ * with the data store, by calling {@link #put} or {@link #invalidate} when a
+ * note is written or deleted. The cache is safe to use from multiple
+ * threads.</p>
+ *
+ * @author davehuffman
+ */
+public class OffHeapTextCache implements NoteTextLazyLoader, NoteTextScanner {
+    /** The size of the blocks text is stored in, in bytes. */
+    static final int BLOCK_SIZE = 512;
+    /** The size of the slabs blocks are carved out of, in bytes. */
+    static final int SLAB_SIZE = 1024 * 1024;
+    private static final int BLOCKS_PER_SLAB = SLAB_SIZE / BLOCK_SIZE;
+
+    /** The blocks holding a note's text. */
+    private static final class Entry {
+        private final int[] blocks;
+        private final int length;
+
+        Entry(int[] blocks, int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+
+    private final NoteTextLazyLoader loader;
+    private final int maxSlabs;
+
+    private final List<ByteBuffer> slabs = Lists.newArrayList();
+    /** The indexes of the free blocks, used as a stack. */
+    private int[] freeBlocks = new int[0];
+    private int freeCount = 0;
+    /** Cached text by note ID, in least recently used order. */
+    private final Map<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * Constructor.
+     * @param loader The loader to read text from on a cache miss.
+     * @param capacity The most memory the cache may use, in bytes. It is
+     *                 rounded up to a whole number of slabs.
+     */
+    public OffHeapTextCache(NoteTextLazyLoader loader, long capacity) {
+        Preconditions.checkNotNull(loader);
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive.");
+        this.loader = loader;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE / BLOCKS_PER_SLAB,
+                (capacity + SLAB_SIZE - 1) / SLAB_SIZE);
+    }
+
+    @Override
+    public String loadText(Note note) throws PersistenceException {
+        final String cachedText = get(note.getId());
+        if (cachedText != null) {
+            return cachedText;
+        }
+        final String text = loader.loadText(note);
+        put(note.getId(), text);
+        return text;
+    }
+
+    @Override
+    public CharSequence scanText(Note note) throws PersistenceException {
+        final String cachedText = get(note.getId());
+        if (cachedText != null) {
+            return cachedText;
+        }
+        // One-off scans (e.g. searches) don't evict the working set.
+        return (loader instanceof NoteTextScanner)?
+                ((NoteTextScanner) loader).scanText(note) : loader.loadText(note);
+    }
+
+    /**
+     * Cache a note's text, replacing any text cached for it. Text too large
+     * for the cache is not cached.
+     * @param id The note's ID.
+     * @param text The note's text. May be null, in which case nothing is cached.
+     */
+    public void put(int id, String text) {
+        final byte[] bytes = (text == null)? null : text.getBytes(Charsets.UTF_8);
+        synchronized (this) {
+            invalidate(id);
+            if (bytes == null) {
+                return;
+            }
+            final int blockCount = (bytes.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            if (!reserve(blockCount)) {
+                return;
+            }
+
+            final int[] blocks = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blocks[i] = freeBlocks[--freeCount];
+                final int offset = i * BLOCK_SIZE;
+                block(blocks[i]).put(bytes, offset, Math.min(BLOCK_SIZE, bytes.length - offset));
+            }
+            entries.put(id, new Entry(blocks, bytes.length));
+        }
+    }
+
+    /**
+     * Forget a note's cached text, e.g. because the note was deleted.
+     * @param id The note's ID.
+     */
+    public synchronized void invalidate(int id) {
+        final Entry entry = entries.remove(id);
+        if (entry != null) {
+            free(entry);
+        }
+    }
+
+    /**
+     * Forget all cached text, and release the slabs.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        slabs.clear();
+        freeBlocks = new int[0];
+        freeCount = 0;
+    }
+
+    /**
+     * @param id A note ID.
+     * @return The note's cached text, or null if it isn't cached.
+     */
+    synchronized String get(int id) {
+        final Entry entry = entries.get(id);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+
+        final byte[] bytes = new byte[entry.length];
+        for (int i = 0; i < entry.blocks.length; i++) {
+            final int offset = i * BLOCK_SIZE;
+            block(entry.blocks[i]).get(bytes, offset, Math.min(BLOCK_SIZE, bytes.length - offset));
+        }
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * @return The number of times cached text was found.
+     */
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return The number of times text was not found in the cache.
+     */
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Make sure a number of blocks are free, allocating slabs and evicting
+     * the least recently used text as needed.
+     * @param blockCount The number of blocks needed.
+     * @return True if the blocks are free; false if the cache is too small.
+     */
+    private boolean reserve(int blockCount) {
+        if (blockCount > maxSlabs * BLOCKS_PER_SLAB) {
+            return false;
+        }
+        while (freeCount < blockCount && slabs.size() < maxSlabs) {
+            addSlab();
+        }
+        final Iterator<Entry> eldest = entries.values().iterator();
+        while (freeCount < blockCount) {
+            final Entry entry = eldest.next();
+            eldest.remove();
+            free(entry);
+        }
+        return true;
+    }
+
+    private void addSlab() {
+        final int firstBlock = slabs.size() * BLOCKS_PER_SLAB;
+        slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+        // The free list must be able to hold every block.
+        freeBlocks = Arrays.copyOf(freeBlocks, slabs.size() * BLOCKS_PER_SLAB);
+        // Push the blocks in reverse, so that they are handed out in order.
+        for (int block = firstBlock + BLOCKS_PER_SLAB - 1; block >= firstBlock; block--) {
+            freeBlocks[freeCount++] = block;
+        }
+    }
+
+    private void free(Entry entry) {
+        for (int block: entry.blocks) {
+            freeBlocks[freeCount++] = block;
+        }
+    }
+
+    /**
+     * @param block A block index.
+     * @return A buffer positioned at the start of the block.
+     */
+    private ByteBuffer block(int block) {
+        final ByteBuffer buffer = slabs.get(block / BLOCKS_PER_SLAB).duplicate();
+        buffer.position((block % BLOCKS_PER_SLAB) * BLOCK_SIZE);
+        return buffer;
+    }
+}
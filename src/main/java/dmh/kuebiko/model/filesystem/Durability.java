@@ -0,0 +1,25 @@
+/**
+ * Kuebiko - Durability.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model.filesystem;
+
+/**
+ * Enumeration of how hard the file system DAO works to get changes onto the
+ * disk, from the safest to the fastest.
+ *
+ * @author davehuffman
+ */
+public enum Durability {
+    /** Every group of changes is forced to disk, along with the files it
+     *  changes, before the next is made. */
+    SYNC_EACH,
+    /** Every group of changes is forced to disk once, in the log; the files
+     *  it changes are forced to disk at checkpoints. */
+    GROUP,
+    /** Nothing is forced to disk; the operating system writes changes when it
+     *  sees fit. Groups are still logged, so they survive the application
+     *  dying, but not the machine. */
+    ASYNC;
+}
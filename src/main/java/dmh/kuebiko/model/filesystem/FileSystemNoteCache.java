@@ -6,12 +6,17 @@
 package dmh.kuebiko.model.filesystem;
 
 import java.io.File;
+import java.util.AbstractCollection;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Collections2;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import dmh.kuebiko.model.Note;
@@ -19,74 +24,319 @@ import dmh.kuebiko.model.Note;
 /**
  * Cache object for note data stored in a single directory within a file system.
  *
+ * <p>The cache holds the metadata of every note in the stack, so it is kept
+ * compact: rather than a note object per note, it holds columns of titles,
+ * modified dates and tag IDs, indexed by note ID (IDs are handed out in
+ * sequence, so the columns are dense). Tags are stored once each, in a
+ * dictionary, and notes can be looked up by title through an open-addressed
+ * hash table of IDs, probed by title. Hollow notes are created from the
+ * columns on demand, by a {@link NoteFactory}, and are not kept.</p>
+ *
  * @author davehuffman
  */
 class FileSystemNoteCache {
     /**
-     * Immutable value object for representing a note and its corresponding 
-     * storage file in the cache.
+     * Factory for the hollow notes the cache hands out.
      */
-    private static class CacheItem {
-        private final File file;
-        private final Note note;
-        
-        public CacheItem(File file, Note note) {
-            this.file = file;
-            this.note = note;
-        }
+    interface NoteFactory {
+        /**
+         * Create a hollow note.
+         * @param id The note's ID.
+         * @param title The note's title.
+         * @param modifiedDate The note's modified date.
+         * @param tags The note's tags.
+         * @return The note.
+         */
+        Note newNote(int id, String title, Date modifiedDate, List<String> tags);
     }
-    
-    /** Function for extracting a note from a cache item. */
-    private final static Function<CacheItem, Note> NOTE_FN = 
-            new Function<CacheItem, Note>() {
-                @Override
-                public Note apply(CacheItem input) {
-                    return input.note;
-                }};
-    
-    private final Map<Integer, CacheItem> data;
-    
+
+    private static final int[] NO_TAGS = new int[0];
+    /** Stands in for a missing modified date. */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final File noteDir;
+    private final NoteFactory noteFactory;
+
+    /** The persisted title of each note, or null if there is no such note. */
+    private String[] titles;
+    private long[] modifiedDates;
+    private int[][] tagIds;
+    private int count = 0;
+    /** Hash table of note IDs, probed linearly by title; zero marks an empty
+     *  slot. Titles are unique, as file names are. */
+    private int[] idsByTitle;
+
+    /** Every tag in the stack, by tag ID. */
+    private final List<String> tagNames = Lists.newArrayList();
+    private final Map<String, Integer> tagIdsByName = Maps.newHashMap();
+
     /**
      * Instantiate a new file system note cache.
-     * @param The initial number of items in the cache.
+     * @param noteDir The directory where note files live.
+     * @param size The initial number of items in the cache.
+     * @param noteFactory The factory for the notes handed out by the cache.
      */
-    public FileSystemNoteCache(int size) {
-        data = Maps.newHashMapWithExpectedSize(size);
+    public FileSystemNoteCache(File noteDir, int size, NoteFactory noteFactory) {
+        this.noteDir = noteDir;
+        this.noteFactory = noteFactory;
+        // Note IDs start at one.
+        titles = new String[size + 1];
+        modifiedDates = new long[size + 1];
+        tagIds = new int[size + 1][];
+        idsByTitle = new int[tableCapacity(size)];
     }
 
     /**
-     * Add a note to the cache. 
+     * Add a note to the cache, or replace it.
      * @param id The note's unique ID.
-     * @param noteFile The file representing the note.
-     * @param note The note itself.
+     * @param title The note's title.
+     * @param modifiedDate The note's modified date. May be null.
+     * @param tags The note's tags.
      */
-    void put(int id, File noteFile, Note note) {
-        data.put(id, new CacheItem(noteFile, note));
+    void put(int id, String title, Date modifiedDate, List<String> tags) {
+        if (id >= titles.length) {
+            final int capacity = Math.max(id + 1, titles.length * 2);
+            titles = Arrays.copyOf(titles, capacity);
+            modifiedDates = Arrays.copyOf(modifiedDates, capacity);
+            tagIds = Arrays.copyOf(tagIds, capacity);
+        }
+        if (titles[id] == null) {
+            count++;
+        } else {
+            removeTitle(titles[id]);
+        }
+        titles[id] = title;
+        addTitle(id);
+        modifiedDates[id] = (modifiedDate == null)? NO_DATE : modifiedDate.getTime();
+        tagIds[id] = toTagIds(tags);
     }
-    
+
+    /**
+     * Add a note to the cache, or replace it.
+     * @param note The note.
+     */
+    void put(Note note) {
+        put(note.getId(), note.getTitle(), note.getModifiedDate(), note.getTags());
+    }
+
     /**
      * Remove a note from the cache.
      * @param id The ID of the note to remove.
      */
     public void remove(int id) {
-        data.remove(id);
+        if (!contains(id)) {
+            return;
+        }
+        removeTitle(titles[id]);
+        titles[id] = null;
+        tagIds[id] = null;
+        count--;
+    }
+
+    /**
+     * @param id A note ID.
+     * @return True if the cache holds the note.
+     */
+    boolean contains(int id) {
+        return id > 0 && id < titles.length && titles[id] != null;
     }
-    
+
     /**
      * Retrieve a note's file by its ID.
      * @param id A note ID.
      * @return The note's file object, or null if none exists for the passed ID.
      */
     File getFile(int id) {
-        CacheItem cacheItem = data.get(id);
-        return cacheItem == null? null : cacheItem.file;
+        return contains(id)?
+                new File(noteDir, NoteFileUtil.noteTitleToFileName(titles[id])) : null;
+    }
+
+    /**
+     * @param id A note ID.
+     * @return The note's stored tags; empty if the note doesn't exist.
+     */
+    List<String> getTags(int id) {
+        if (!contains(id) || tagIds[id].length == 0) {
+            return Collections.emptyList();
+        }
+        final int[] ids = tagIds[id];
+        final List<String> tags = Lists.newArrayListWithCapacity(ids.length);
+        for (int tagId: ids) {
+            tags.add(tagNames.get(tagId));
+        }
+        return tags;
+    }
+
+    /**
+     * @return The tags of every tagged note, keyed by note title.
+     */
+    Map<String, List<String>> getTagsByTitle() {
+        final Map<String, List<String>> tagsByTitle = Maps.newHashMap();
+        for (int id = 1; id < titles.length; id++) {
+            if (titles[id] != null && tagIds[id].length > 0) {
+                tagsByTitle.put(titles[id], getTags(id));
+            }
+        }
+        return tagsByTitle;
+    }
+
+    /**
+     * Find a note by its title.
+     * @param title A note title.
+     * @return The ID of the note, or zero if there is no such note.
+     */
+    int findId(String title) {
+        return idsByTitle[findSlot(title)];
+    }
+
+    /**
+     * @param id A note ID.
+     * @return A new hollow note, or null if the note doesn't exist.
+     */
+    Note getNote(int id) {
+        if (!contains(id)) {
+            return null;
+        }
+        final long modifiedDate = modifiedDates[id];
+        return noteFactory.newNote(id, titles[id],
+                (modifiedDate == NO_DATE)? null : new Date(modifiedDate), getTags(id));
     }
 
     /**
-     * @return An immutable view of the notes in the cache.
+     * @return A view of the notes in the cache. Each note is created as the
+     *         view is iterated.
      */
     Collection<Note> getNotes() {
-        return Collections.unmodifiableCollection(
-                Collections2.transform(data.values(), NOTE_FN));
+        return new AbstractCollection<Note>() {
+            @Override
+            public Iterator<Note> iterator() {
+                return new Iterator<Note>() {
+                    private int nextId = findNext(1);
+
+                    private int findNext(int id) {
+                        while (id < titles.length && titles[id] == null) {
+                            id++;
+                        }
+                        return id;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return nextId < titles.length;
+                    }
+
+                    @Override
+                    public Note next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final Note note = getNote(nextId);
+                        nextId = findNext(nextId + 1);
+                        return note;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * @param size A number of notes.
+     * @return A power-of-two title table capacity, at most half full with the
+     *         notes.
+     */
+    private static int tableCapacity(int size) {
+        return Integer.highestOneBit(Math.max(size, 4)) << 2;
+    }
+
+    /**
+     * @param title A note title.
+     * @return The slot of the title table that holds the ID of the note with
+     *         the title, or the empty slot where it belongs.
+     */
+    private int findSlot(String title) {
+        final int mask = idsByTitle.length - 1;
+        int slot = hash(title) & mask;
+        while (idsByTitle[slot] != 0 && !titles[idsByTitle[slot]].equals(title)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Add a note to the title table, growing it if needed.
+     * @param id The note's ID; its title must already be stored.
+     */
+    private void addTitle(int id) {
+        if (count * 2 > idsByTitle.length) {
+            final int[] old = idsByTitle;
+            idsByTitle = new int[tableCapacity(count)];
+            for (int oldId: old) {
+                if (oldId != 0) {
+                    idsByTitle[findSlot(titles[oldId])] = oldId;
+                }
+            }
+        }
+        idsByTitle[findSlot(titles[id])] = id;
+    }
+
+    /**
+     * Remove a note from the title table. The entries after it in its probe
+     * run are shifted back, so that later lookups don't stop at the gap.
+     * @param title The note's title, still stored under its ID.
+     */
+    private void removeTitle(String title) {
+        final int mask = idsByTitle.length - 1;
+        int gap = findSlot(title);
+        if (idsByTitle[gap] == 0) {
+            return;
+        }
+        for (int slot = (gap + 1) & mask; idsByTitle[slot] != 0;
+                slot = (slot + 1) & mask) {
+            final int home = hash(titles[idsByTitle[slot]]) & mask;
+            // Move the entry into the gap unless its home lies after the gap.
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                idsByTitle[gap] = idsByTitle[slot];
+                gap = slot;
+            }
+        }
+        idsByTitle[gap] = 0;
+    }
+
+    private static int hash(String title) {
+        final int h = title.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Convert tags to tag IDs, adding new tags to the dictionary.
+     * @param tags Tags.
+     * @return The tags' IDs.
+     */
+    private int[] toTagIds(List<String> tags) {
+        if (tags.isEmpty()) {
+            return NO_TAGS;
+        }
+        final int[] ids = new int[tags.size()];
+        for (int i = 0; i < ids.length; i++) {
+            final String tag = tags.get(i);
+            Integer tagId = tagIdsByName.get(tag);
+            if (tagId == null) {
+                tagId = tagNames.size();
+                tagNames.add(tag);
+                tagIdsByName.put(tag, tagId);
+            }
+            ids[i] = tagId;
+        }
+        return ids;
     }
 }
@@ -6,18 +6,13 @@
 package dmh.kuebiko.model.filesystem;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Preconditions;
@@ -28,21 +23,38 @@ import dmh.kuebiko.model.DaoConfigurationException;
 import dmh.kuebiko.model.DaoParameter;
 import dmh.kuebiko.model.Note;
 import dmh.kuebiko.model.NoteTextLazyLoader;
+import dmh.kuebiko.model.NoteTextScanner;
+import dmh.kuebiko.model.OffHeapTextCache;
 import dmh.kuebiko.model.PersistenceException;
 import dmh.kuebiko.util.LapCounter;
 
 /**
  * Note data access object (DAO) for storing notes in the file system.
  *
+ * <p>Changes to note files go through a {@link WriteAheadLog}, one group per
+ * batch of changes (or per change, outside of a batch), so that a batch is
+ * either saved completely or not at all. How often changes are forced to
+ * disk is set by the optional {@link DaoParameter#DURABILITY} parameter.</p>
+ *
+ * <p>If the optional {@link DaoParameter#TEXT_CACHE_SIZE} parameter is set,
+ * note text is loaded through an {@link OffHeapTextCache}, which is kept up
+ * to date as notes are written.</p>
+ *
  * @author davehuffman
  */
-public class FileSystemNoteDao extends AbstractNoteDao implements NoteTextLazyLoader {
+public class FileSystemNoteDao extends AbstractNoteDao
+implements NoteTextLazyLoader, NoteTextScanner {
     public static final Set<DaoParameter> REQUIRED_PARAMETERS =
             Collections.unmodifiableSet(EnumSet.of(DaoParameter.DIRECTORY));
 
     private LapCounter idGenerator = new LapCounter();
     private FileSystemNoteCache noteCache = null;
     private File noteDir;
+    /** True if the tag file is out of date, pending the end of a batch. */
+    private boolean tagFileStale = false;
+    private WriteAheadLog changeLog;
+    /** Cache of note text outside the heap, or null if there is none. */
+    private OffHeapTextCache textCache = null;
 
     public FileSystemNoteDao() {
         super(REQUIRED_PARAMETERS);
@@ -55,27 +67,74 @@ public class FileSystemNoteDao extends AbstractNoteDao implements NoteTextLazyLo
             throw new DaoConfigurationException(
                     String.format("Note directory [%s] does not exist.", noteDir));
         }
+
+        final Durability durability;
+        final String durabilityParam = getParameter(DaoParameter.DURABILITY);
+        try {
+            durability = (durabilityParam == null)?
+                    Durability.GROUP : Durability.valueOf(durabilityParam);
+        } catch (IllegalArgumentException e) {
+            throw new DaoConfigurationException(
+                    String.format("Durability [%s] is unknown.", durabilityParam), e);
+        }
+
+        final String textCacheParam = getParameter(DaoParameter.TEXT_CACHE_SIZE);
+        final long textCacheSize;
+        try {
+            textCacheSize = (textCacheParam == null)? 0 : Long.parseLong(textCacheParam);
+        } catch (NumberFormatException e) {
+            throw new DaoConfigurationException(
+                    String.format("Text cache size [%s] is not a number.", textCacheParam), e);
+        }
+        if (textCacheSize > 0) {
+            textCache = new OffHeapTextCache(this, textCacheSize * 1024 * 1024);
+        }
+
+        final File logFile = new File(new File(noteDir, NoteFileUtil.METADATA_DIR_NAME),
+                WriteAheadLog.FILE_NAME);
+        changeLog = new WriteAheadLog(noteDir, logFile, durability);
+        try {
+            // Finish any changes that were cut short the last time.
+            changeLog.recover();
+        } catch (IOException e) {
+            throw new DaoConfigurationException(
+                    String.format("Unable to recover changes from [%s].", logFile), e);
+        }
     }
 
-    private void loadNotes() {
+    private void loadNotes() throws PersistenceException {
         File[] noteFiles = NoteFileUtil.listNoteFilesInDir(noteDir);
+        final Map<String, List<String>> tagsByTitle;
+        try {
+            tagsByTitle = NoteFileUtil.readTagFile(getTagFile());
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
 
         // Reset the internal data structures.
-        noteCache = new FileSystemNoteCache(noteFiles.length);
+        noteCache = new FileSystemNoteCache(noteDir, noteFiles.length,
+                new FileSystemNoteCache.NoteFactory() {
+                    @Override
+                    public Note newNote(int id, String title, Date modifiedDate,
+                            List<String> tags) {
+                        // Note: the Java file API doesn't have a way to get the
+                        // create date because not all platforms support it. It
+                        // will have to be embedded in the file itself (someday).
+                        return FileSystemNoteDao.this.newNote(id, title, null, modifiedDate,
+                                tags, (textCache == null)? FileSystemNoteDao.this : textCache);
+                    }
+                });
         idGenerator = new LapCounter();
+        if (textCache != null) {
+            // Note IDs are handed out afresh.
+            textCache.clear();
+        }
 
         for (File noteFile: noteFiles) {
             String name = NoteFileUtil.fileNameToNoteTitle(noteFile.getName());
-
-            // Note: the Java file API doesn't have a way to get the create date
-            // because not all platforms support it. It will have to be embedded
-            // in the file itself (someday).
-            Date createDate = null;
-
-            Note note = newNote(name, createDate,
-                    new Date(noteFile.lastModified()), this);
-
-            noteCache.put(note.getId(), noteFile, note);
+            List<String> tags = tagsByTitle.get(name);
+            noteCache.put(getUniqueId(), name, new Date(noteFile.lastModified()),
+                    (tags == null)? Collections.<String>emptyList() : tags);
         }
     }
 
@@ -84,7 +143,7 @@ public class FileSystemNoteDao extends AbstractNoteDao implements NoteTextLazyLo
      * been reset.
      * @return All known notes.
      */
-    private Collection<Note> getNotesFromCache() {
+    private Collection<Note> getNotesFromCache() throws PersistenceException {
         if (noteCache == null) {
             loadNotes();
         }
@@ -100,6 +159,12 @@ public class FileSystemNoteDao extends AbstractNoteDao implements NoteTextLazyLo
         }
     }
 
+    @Override
+    protected Iterable<Note> scanNotes() throws PersistenceException {
+        // Page straight from the cache; the notes are hollow, so no text is read.
+        return getNotesFromCache();
+    }
+
     @Override
     protected Note findNote(int id) {
         if (noteCache == null) {
@@ -107,22 +172,17 @@ public class FileSystemNoteDao extends AbstractNoteDao implements NoteTextLazyLo
             		"Note cache has been reset, ID may be invalid.");
         }
 
-        for (Note note: getNotesFromCache()) {
-            if (id == note.getId()) {
-                return note;
-            }
-        }
-        return null;
+        return noteCache.getNote(id);
     }
 
     @Override
     protected Note findNote(String title) {
-        for (Note note: getNotesFromCache()) {
-            if (title.equals(note.getTitle())) {
-                return note;
-            }
+        try {
+            getNotesFromCache();
+        } catch (PersistenceException e) {
+            throw new IllegalStateException("Could not load notes.", e);
         }
-        return null;
+        return noteCache.getNote(noteCache.findId(title));
     }
 
     @Override
@@ -131,46 +191,134 @@ public class FileSystemNoteDao extends AbstractNoteDao implements NoteTextLazyLo
     }
 
     /**
-     * Write (persist) note data to the file system.
+     * Write (persist) note data to the file system. The write is staged in
+     * the change log, and made when the change log is committed.
      * @param note The note to persist.
-     * @return The note's file.
      */
-    private File writeNoteToFile(Note note) throws PersistenceException {
+    private void writeNoteToFile(Note note) {
         Preconditions.checkNotNull(note);
 
-        File noteFile = NoteFileUtil.getNoteFile(noteDir, note);
+        String noteText = note.getText();
+        changeLog.stagePut(NoteFileUtil.noteTitleToFileName(note.getTitle()),
+                (noteText == null? "" : noteText).getBytes());
+        if (textCache != null) {
+            // The note was just edited, so its text is likely to be wanted again.
+            textCache.put(note.getId(), noteText);
+        }
+    }
 
-        Writer out = null;
+    /**
+     * Commit the staged changes to the change log, unless a batch of changes
+     * is in progress, in which case they are committed with the batch.
+     */
+    private void commitChanges() throws PersistenceException {
+        if (isBatching()) {
+            return;
+        }
         try {
-            out = new OutputStreamWriter(new FileOutputStream(noteFile));
-            String noteText = note.getText();
-            out.write(noteText == null? "" : noteText);
-        } catch (FileNotFoundException fnfe) {
-            throw new PersistenceException(fnfe);
-        } catch (IOException ioe) {
-            throw new PersistenceException(ioe);
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException cioe) {
-                    throw new PersistenceException(cioe);
-                }
+            changeLog.commit();
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    /**
+     * @return The file note tags are stored in. It may not exist.
+     */
+    private File getTagFile() {
+        return new File(noteDir, getTagFilePath());
+    }
+
+    /**
+     * @return The path of the tag file, relative to the note directory.
+     */
+    private static String getTagFilePath() {
+        return NoteFileUtil.METADATA_DIR_NAME + "/" + NoteFileUtil.TAG_FILE_NAME;
+    }
+
+    /**
+     * Rewrite the tag file, unless a batch of changes is in progress, in
+     * which case it is rewritten once, when the batch is committed.
+     */
+    private void onStoredTagsChanged() throws PersistenceException {
+        if (isBatching()) {
+            tagFileStale = true;
+        } else {
+            writeTagFile();
+        }
+    }
+
+    @Override
+    protected void persistActionCommit() throws PersistenceException {
+        if (tagFileStale) {
+            writeTagFile();
+        }
+        commitChanges();
+    }
+
+    @Override
+    public void close() throws PersistenceException {
+        if (textCache != null) {
+            textCache.clear();
+        }
+        if (changeLog == null) {
+            return;
+        }
+        try {
+            changeLog.checkpoint();
+        } catch (IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    /**
+     * Rewrite the tag file from the stored tags of every note. The file is
+     * only rewritten when a note's tags (or the title of a tagged note)
+     * change, so saving untagged notes costs nothing extra. Like note files,
+     * the rewrite is staged in the change log.
+     */
+    private void writeTagFile() throws PersistenceException {
+        final Map<String, List<String>> tagsByTitle = noteCache.getTagsByTitle();
+        if (tagsByTitle.isEmpty()) {
+            changeLog.stageDelete(getTagFilePath());
+        } else {
+            try {
+                changeLog.stagePut(getTagFilePath(), NoteFileUtil.encodeTagFile(tagsByTitle));
+            } catch (IOException e) {
+                throw new PersistenceException(e);
             }
         }
-        return noteFile;
+        tagFileStale = false;
     }
 
     @Override
     protected Note persistActionAdd(Note addedNote) throws PersistenceException {
-        File noteFile = writeNoteToFile(addedNote);
-        noteCache.put(addedNote.getId(), noteFile, addedNote);
+        writeNoteToFile(addedNote);
+        noteCache.put(addedNote);
 
+        if (!addedNote.getTags().isEmpty()) {
+            onStoredTagsChanged();
+        }
+        commitChanges();
         return addedNote;
     }
 
     @Override
     protected void persistActionDelete(Note deletedNote) throws PersistenceException {
+        final boolean tagged = !noteCache.getTags(deletedNote.getId()).isEmpty();
+        deleteNoteFile(deletedNote);
+
+        if (tagged) {
+            onStoredTagsChanged();
+        }
+        commitChanges();
+    }
+
+    /**
+     * Delete a note's file, and remove the note from the cache.
+     * @param deletedNote The note to delete.
+     */
+    private void deleteNoteFile(Note deletedNote) throws PersistenceException {
         // Find the note in the cache.
         final int noteId = deletedNote.getId();
         File noteFile = noteCache.getFile(noteId);
@@ -179,45 +327,66 @@ public class FileSystemNoteDao extends AbstractNoteDao implements NoteTextLazyLo
                     String.format("No note exists for ID [%d].", noteId));
         }
 
-        // Delete the note file from the file system.
-        boolean success = noteFile.delete();
-        if (!success) {
-            throw new PersistenceException(
-                    String.format("Unable to delete note [%d:%s].",
-                            noteId, deletedNote.getTitle()));
-        }
+        // Stage the deletion of the note file.
+        changeLog.stageDelete(noteFile.getName());
 
-        // Update the cache.
+        // Update the caches.
         noteCache.remove(noteId);
+        if (textCache != null) {
+            textCache.invalidate(noteId);
+        }
     }
 
     @Override
     protected Note persistActionUpdate(Note updatedNote) throws PersistenceException {
+        final int noteId = updatedNote.getId();
+        final File noteFile = NoteFileUtil.getNoteFile(noteDir, updatedNote);
+        final boolean renamed = !noteFile.equals(noteCache.getFile(noteId));
+        final List<String> tags = updatedNote.getTags();
+        final boolean retagged = !tags.equals(noteCache.getTags(noteId));
+
         // Perform the update by replacing the old data.
-        persistActionDelete(updatedNote);
-        persistActionAdd(updatedNote);
+        deleteNoteFile(updatedNote);
+        writeNoteToFile(updatedNote);
+        noteCache.put(updatedNote);
 
+        if (retagged || (renamed && !tags.isEmpty())) {
+            onStoredTagsChanged();
+        }
+        commitChanges();
         return updatedNote;
     }
 
     @Override
     public String loadText(Note note) throws PersistenceException {
-        final StringBuilder text = new StringBuilder();
+        // Read the file as written, so that the text round trips exactly.
+        return scanText(note).toString();
+    }
 
-        Scanner scanner = null;
+    @Override
+    public CharSequence scanText(Note note) throws PersistenceException {
         try {
-            scanner = new Scanner(new FileInputStream(NoteFileUtil.getNoteFile(noteDir, note)));
-            while (scanner.hasNextLine()) {
-                text.append(scanner.nextLine() + NoteFileUtil.NEW_LINE);
+            // A note saved in a batch that hasn't been committed yet is read
+            // from the change log, as its file is out of date (or missing).
+            final byte[] pendingText = changeLog.readPending(
+                    NoteFileUtil.noteTitleToFileName(note.getTitle()));
+            if (pendingText != null) {
+                return new String(pendingText);
             }
-        } catch (Exception e) {
+            return NoteFileUtil.readFileText(NoteFileUtil.getNoteFile(noteDir, note));
+        } catch (IOException e) {
             throw new PersistenceException(e);
-        } finally {
-            if (scanner != null) {
-                scanner.close();
-            }
         }
-        return text.toString();
+    }
+
+    @Override
+    public File getMetadataDirectory() throws PersistenceException {
+        final File metadataDir = new File(noteDir, NoteFileUtil.METADATA_DIR_NAME);
+        if (!metadataDir.isDirectory() && !metadataDir.mkdir()) {
+            throw new PersistenceException(String.format(
+                    "Unable to create metadata directory [%s].", metadataDir));
+        }
+        return metadataDir;
     }
 
     public String getDirectory() {
@@ -5,8 +5,23 @@
  */
 package dmh.kuebiko.model.filesystem;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Maps;
 
 import dmh.kuebiko.model.Note;
 
@@ -22,6 +37,10 @@ final class NoteFileUtil {
     
     static final String FILE_EXTENSION = "html";
     static final String NEW_LINE = System.getProperty("line.separator");
+    /** Name of the hidden directory, within a stack, that holds stack metadata. */
+    static final String METADATA_DIR_NAME = ".kuebiko";
+    /** Name of the file, within the metadata directory, that holds note tags. */
+    static final String TAG_FILE_NAME = "tags.properties";
     
     /**
      * Helper method; convert a file's name to the title of the note it represents.
@@ -65,4 +84,74 @@ final class NoteFileUtil {
             }
         });
     }
+
+    /**
+     * Read the entire contents of a file in bulk. Files are read into a heap
+     * buffer rather than memory mapped: a mapping holds the file open until
+     * it is garbage collected, which (on Windows) stops the file from being
+     * overwritten or deleted when the note is next saved.
+     * @param file The file to read.
+     * @return The decoded contents of the file.
+     */
+    static CharSequence readFileText(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the buffer is full.
+            }
+            buffer.flip();
+            return Charset.defaultCharset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(buffer);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a tag file. Each entry maps a note title to its whitespace
+     * separated tags.
+     * @param tagFile The tag file. If it does not exist, no tags are read.
+     * @return The tags of each tagged note, keyed by note title.
+     */
+    static Map<String, List<String>> readTagFile(File tagFile) throws IOException {
+        final Map<String, List<String>> tags = Maps.newHashMap();
+        if (!tagFile.isFile()) {
+            return tags;
+        }
+
+        final Properties props = new Properties();
+        final InputStream in = new FileInputStream(tagFile);
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+        for (String title: props.stringPropertyNames()) {
+            final String value = props.getProperty(title).trim();
+            if (!value.isEmpty()) {
+                tags.put(title, Arrays.asList(value.split("\\s+")));
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Encode the contents of a tag file.
+     * @param tags The tags of each tagged note, keyed by note title.
+     * @return The contents of the tag file.
+     */
+    static byte[] encodeTagFile(Map<String, List<String>> tags) throws IOException {
+        final Properties props = new Properties();
+        for (Map.Entry<String, List<String>> entry: tags.entrySet()) {
+            props.setProperty(entry.getKey(), Joiner.on(' ').join(entry.getValue()));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        props.store(out, "Kuebiko note tags.");
+        return out.toByteArray();
+    }
 }
@@ -0,0 +1,345 @@
+/**
+ * Kuebiko - WriteAheadLog.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model.filesystem;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Write-ahead log for the files of a note stack. Changes to files are staged,
+ * and then committed as a group: the group is appended to the log, the log is
+ * forced to disk, and only then are the changes made to the files themselves.
+ * If the application (or the machine) dies part way through making the
+ * changes, the group is replayed from the log the next time the stack is
+ * opened, so a group's changes are made either completely or not at all.
+ *
+ * <p>Until a change has been made to its file, the file's new contents can
+ * be read with {@link #readPending(String)}, so that a file read in the middle
+ * of a batch (e.g. to reload a note that was just saved) isn't stale.
+ * Changes are staged and committed by one thread at a time, but pending
+ * changes may be read from any thread.</p>
+ *
+ * <p>The log is emptied at checkpoints, once the files it covers have been
+ * forced to disk. How often the log and the files are forced to disk depends
+ * on the log's {@link Durability}.</p>
+ *
+ * @author davehuffman
+ */
+final class WriteAheadLog {
+    private static final Logger log = Logger.getLogger(WriteAheadLog.class);
+
+    /** The name of the log file, within the metadata directory. */
+    static final String FILE_NAME = "changes.log";
+    /** The log is checkpointed once it grows past this size, in bytes. */
+    static final long CHECKPOINT_SIZE = 4 * 1024 * 1024;
+
+    /** Marks the start of a group in the log. */
+    private static final int GROUP_MAGIC = 0x4b57414c;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    /** A staged change to a file. */
+    private static final class Change {
+        private final byte type;
+        private final String path;
+        private final byte[] data;
+
+        Change(byte type, String path, byte[] data) {
+            this.type = type;
+            this.path = path;
+            this.data = data;
+        }
+    }
+
+    private final File baseDir;
+    private final File logFile;
+    private final Durability durability;
+
+    private final List<Change> staged = Lists.newArrayList();
+    /** The latest change to each file that has yet to be made, by path. */
+    private final ConcurrentMap<String, Change> pending = Maps.newConcurrentMap();
+    /** Files changed since the last checkpoint that have yet to be forced to disk. */
+    private final Set<File> unsyncedFiles = Sets.newHashSet();
+    private FileOutputStream logOut = null;
+
+    /**
+     * Constructor.
+     * @param baseDir The directory that change paths are relative to.
+     * @param logFile The log file.
+     * @param durability How often to force changes to disk.
+     */
+    WriteAheadLog(File baseDir, File logFile, Durability durability) {
+        this.baseDir = baseDir;
+        this.logFile = logFile;
+        this.durability = durability;
+    }
+
+    /**
+     * Stage the replacement of a file's contents.
+     * @param path The file's path, relative to the base directory.
+     * @param data The file's new contents.
+     */
+    void stagePut(String path, byte[] data) {
+        stage(new Change(PUT, path, data));
+    }
+
+    /**
+     * Stage the deletion of a file. Deleting a file that doesn't exist is
+     * not an error, so that groups can be replayed.
+     * @param path The file's path, relative to the base directory.
+     */
+    void stageDelete(String path) {
+        stage(new Change(DELETE, path, null));
+    }
+
+    private void stage(Change change) {
+        staged.add(change);
+        pending.put(change.path, change);
+    }
+
+    /**
+     * Read the contents a file will have once the changes to it that have
+     * been staged or committed, but not yet made, are made.
+     * @param path The file's path, relative to the base directory.
+     * @return The file's pending contents, or null if there are no pending
+     *         changes to the file (so that it should be read from disk).
+     * @throws FileNotFoundException If the file is about to be deleted.
+     */
+    byte[] readPending(String path) throws FileNotFoundException {
+        final Change change = pending.get(path);
+        if (change == null) {
+            return null;
+        }
+        if (change.type == DELETE) {
+            throw new FileNotFoundException(String.format(
+                    "File [%s] is being deleted.", new File(baseDir, path)));
+        }
+        return change.data;
+    }
+
+    /**
+     * Commit the staged changes as a group, and make them.
+     */
+    void commit() throws IOException {
+        if (staged.isEmpty()) {
+            return;
+        }
+
+        final List<Change> group = Lists.newArrayList(staged);
+        staged.clear();
+        if (logOut == null) {
+            logFile.getParentFile().mkdirs();
+            logOut = new FileOutputStream(logFile, true);
+        }
+        logOut.write(encode(group));
+        if (durability != Durability.ASYNC) {
+            logOut.getFD().sync();
+        }
+
+        for (Change change: group) {
+            apply(change);
+            // Unless the file has been changed again since, it can now be
+            // read from disk. If applying the group fails, the changes stay
+            // pending, as they will be replayed from the log.
+            pending.remove(change.path, change);
+        }
+
+        if (durability == Durability.SYNC_EACH) {
+            checkpoint();
+        } else if (logFile.length() >= CHECKPOINT_SIZE) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Force every file changed since the last checkpoint to disk, and empty
+     * the log.
+     */
+    void checkpoint() throws IOException {
+        if (durability != Durability.ASYNC) {
+            for (File file: unsyncedFiles) {
+                if (file.exists()) {
+                    final FileOutputStream out = new FileOutputStream(file, true);
+                    try {
+                        out.getFD().sync();
+                    } finally {
+                        out.close();
+                    }
+                }
+            }
+        }
+        unsyncedFiles.clear();
+
+        if (logOut != null) {
+            logOut.close();
+            logOut = null;
+        }
+        if (logFile.exists() && !logFile.delete()) {
+            throw new IOException(String.format("Unable to delete log [%s].", logFile));
+        }
+    }
+
+    /**
+     * Replay every complete group in the log, in case the changes weren't
+     * all made before the stack was last closed, and then empty the log. A
+     * group cut short by a crash was never committed, so it is ignored.
+     */
+    void recover() throws IOException {
+        if (!logFile.exists()) {
+            return;
+        }
+
+        int groupCount = 0;
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(logFile)));
+        try {
+            final long maxLength = logFile.length();
+            while (true) {
+                final List<Change> group = readGroup(in, maxLength);
+                if (group == null) {
+                    break;
+                }
+                for (Change change: group) {
+                    apply(change);
+                }
+                groupCount++;
+            }
+        } finally {
+            in.close();
+        }
+        if (groupCount > 0) {
+            log.info(String.format("Replayed %d group(s) of changes from [%s].",
+                    groupCount, logFile));
+        }
+        checkpoint();
+    }
+
+    /**
+     * Make a change to a file.
+     * @param change The change.
+     */
+    private void apply(Change change) throws IOException {
+        final File file = new File(baseDir, change.path);
+        if (change.type == DELETE) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException(String.format("Unable to delete file [%s].", file));
+            }
+            unsyncedFiles.remove(file);
+            return;
+        }
+
+        file.getParentFile().mkdirs();
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(change.data);
+            if (durability == Durability.SYNC_EACH) {
+                out.getFD().sync();
+            }
+        } finally {
+            out.close();
+        }
+        if (durability != Durability.SYNC_EACH) {
+            unsyncedFiles.add(file);
+        }
+    }
+
+    /**
+     * Encode a group of changes for the log. A group is its magic number,
+     * its number of changes, the length of the changes, the changes, and a
+     * checksum of the changes.
+     * @param group The changes.
+     * @return The encoded group.
+     */
+    private static byte[] encode(List<Change> group) throws IOException {
+        final ByteArrayOutputStream changeBytes = new ByteArrayOutputStream();
+        final DataOutputStream changeOut = new DataOutputStream(changeBytes);
+        for (Change change: group) {
+            changeOut.writeByte(change.type);
+            changeOut.writeUTF(change.path);
+            if (change.type == PUT) {
+                changeOut.writeInt(change.data.length);
+                changeOut.write(change.data);
+            }
+        }
+        changeOut.flush();
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(changeBytes.toByteArray());
+
+        final ByteArrayOutputStream groupBytes = new ByteArrayOutputStream(changeBytes.size() + 20);
+        final DataOutputStream groupOut = new DataOutputStream(groupBytes);
+        groupOut.writeInt(GROUP_MAGIC);
+        groupOut.writeInt(group.size());
+        groupOut.writeInt(changeBytes.size());
+        changeBytes.writeTo(groupOut);
+        groupOut.writeLong(checksum.getValue());
+        groupOut.flush();
+        return groupBytes.toByteArray();
+    }
+
+    /**
+     * Read a group of changes from the log.
+     * @param in The log.
+     * @param maxLength The length of the log, to guard against lengths cut
+     *                  short by a crash.
+     * @return The group, or null if there are no more complete groups.
+     */
+    private static List<Change> readGroup(DataInputStream in, long maxLength) throws IOException {
+        try {
+            if (in.readInt() != GROUP_MAGIC) {
+                return null;
+            }
+            final int count = in.readInt();
+            final int length = in.readInt();
+            if (count < 0 || length < 0 || length > maxLength) {
+                return null;
+            }
+            final byte[] changeBytes = new byte[length];
+            in.readFully(changeBytes);
+            final CRC32 checksum = new CRC32();
+            checksum.update(changeBytes);
+            if (in.readLong() != checksum.getValue()) {
+                return null;
+            }
+
+            final DataInputStream changeIn = new DataInputStream(
+                    new ByteArrayInputStream(changeBytes));
+            final List<Change> group = Lists.newArrayListWithCapacity(count);
+            for (int i = 0; i < count; i++) {
+                final byte type = changeIn.readByte();
+                final String path = changeIn.readUTF();
+                byte[] data = null;
+                if (type == PUT) {
+                    data = new byte[changeIn.readInt()];
+                    changeIn.readFully(data);
+                }
+                group.add(new Change(type, path, data));
+            }
+            return group;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
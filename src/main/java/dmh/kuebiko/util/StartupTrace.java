@@ -0,0 +1,145 @@
+/**
+ * Kuebiko - StartupTrace.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Timeline of the named phases of application startup (reading settings,
+ * building the frame, loading the stack, etc.), for finding out where the
+ * time goes on a cold start. Times are in milliseconds since the JVM started,
+ * and each phase is logged as it ends.
+ *
+ * @author davehuffman
+ */
+public final class StartupTrace {
+    private static final Logger log = Logger.getLogger(StartupTrace.class);
+
+    private static final StartupTrace INSTANCE =
+            new StartupTrace(ManagementFactory.getRuntimeMXBean().getStartTime());
+
+    /**
+     * @return The application's startup trace.
+     */
+    public static StartupTrace get() {
+        return INSTANCE;
+    }
+
+    /**
+     * A phase of startup.
+     */
+    public static final class Phase {
+        private final String name;
+        private final long start;
+        private long end = -1;
+
+        private Phase(String name, long start) {
+            this.name = name;
+            this.start = start;
+        }
+
+        private Phase(Phase source) {
+            this(source.name, source.start);
+            end = source.end;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return When the phase began.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return When the phase ended, or -1 if it is still running.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        public boolean isEnded() {
+            return end >= 0;
+        }
+
+        /**
+         * @return How long the phase took, or -1 if it is still running.
+         */
+        public long getDuration() {
+            return isEnded()? end - start : -1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d ms (%d-%d)", name, getDuration(), start, end);
+        }
+    }
+
+    private final long origin;
+    private final Map<String, Phase> phases = Maps.newLinkedHashMap();
+
+    /**
+     * Constructor.
+     * @param origin The time the timeline starts at, in epoch milliseconds.
+     */
+    StartupTrace(long origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * @return The current time on the timeline.
+     */
+    private long now() {
+        return System.currentTimeMillis() - origin;
+    }
+
+    /**
+     * Record the beginning of a phase. Only the first run of a phase is part
+     * of startup, so a phase that has already begun isn't restarted.
+     * @param name The phase's name.
+     */
+    public synchronized void begin(String name) {
+        if (!phases.containsKey(name)) {
+            phases.put(name, new Phase(name, now()));
+        }
+    }
+
+    /**
+     * Record the end of a phase. Phases that were never begun (e.g. when a
+     * frame is created outside of normal startup), or that have already
+     * ended, are ignored.
+     * @param name The phase's name.
+     */
+    public synchronized void end(String name) {
+        final Phase phase = phases.get(name);
+        if (phase == null || phase.isEnded()) {
+            return;
+        }
+        phase.end = now();
+        log.info(String.format("Startup phase [%s].", phase));
+    }
+
+    /**
+     * @return A copy of every phase, in the order they began.
+     */
+    public synchronized List<Phase> getPhases() {
+        final List<Phase> copies = Lists.newArrayListWithCapacity(phases.size());
+        for (Phase phase: phases.values()) {
+            copies.add(new Phase(phase));
+        }
+        return copies;
+    }
+}
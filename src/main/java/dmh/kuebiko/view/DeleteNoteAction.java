@@ -29,7 +29,7 @@ private static final long serialVersionUID = 1L;
         super("Delete Note");
         this.noteFrame = noteFrame;
 
-        putValue(SHORT_DESCRIPTION, "Delete the selected note from the stack.");
+        putValue(SHORT_DESCRIPTION, "Delete the selected notes from the stack.");
         putValue(LONG_DESCRIPTION, getValue(SHORT_DESCRIPTION));
         putValue(ACCELERATOR_KEY, getKeyStroke(KeyEvent.VK_D,
                 Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | InputEvent.SHIFT_DOWN_MASK));
@@ -38,7 +38,7 @@ private static final long serialVersionUID = 1L;
 
     @Override
     public void actionPerformed(ActionEvent event) {
-        noteFrame.deleteSelectedNote();
+        noteFrame.deleteSelectedNotes();
     }
 
     @Override
@@ -13,6 +13,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.util.Observable;
 
+import dmh.kuebiko.controller.NoteQuery;
 import dmh.swing.AbstractActionObserver;
 
 /**
@@ -38,11 +39,17 @@ class NewNoteAction extends AbstractActionObserver {
 
     @Override
     public void actionPerformed(ActionEvent e) {
+        if (!isEnabled()) {
+            // The action is also bound to the search field, which ignores
+            // whether the action is enabled.
+            return;
+        }
         final NoteTable noteTable = noteFrame.getNoteTable();
 
         // Check the note's title.
         String noteTitle = noteFrame.getSearchText().getText();
-        if (isBlank(noteTitle) || noteFrame.isInEditMode()) {
+        if (isBlank(noteTitle) || noteFrame.isInEditMode()
+                || NoteQuery.isQuery(noteTitle)) {
             // Make a new note with a default title.
             noteTitle = noteTable.getNoteTableModel().addNewNote();
         } else if (noteFrame.getNoteMngr().doesNoteExist(noteTitle)) {
@@ -67,6 +74,7 @@ class NewNoteAction extends AbstractActionObserver {
 
     @Override
     public void update(Observable o, Object arg) {
-        // Do nothing for now; there's no need for this action to handle updates.
+        // New titles can't be checked for uniqueness until the stack is loaded.
+        setEnabled(!noteFrame.isStackLoading());
     }
 }
@@ -14,6 +14,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextArea;
 import javax.swing.SwingConstants;
+import javax.swing.event.DocumentEvent;
 
 import org.apache.log4j.Logger;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
@@ -21,10 +22,14 @@ import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
 import org.fife.ui.rtextarea.RTextScrollPane;
 
 import dmh.kuebiko.model.Note;
+import dmh.kuebiko.util.StartupTrace;
 import dmh.swing.huxley.HuxleyUiManager;
+import dmh.util.Callback;
 
 /**
- * UI panel for displaying and editing notes.
+ * UI panel for displaying and editing notes. The editor (a syntax text area,
+ * with its tool bar and icons) is only built when it is first needed, so
+ * that it doesn't hold up the first paint of the frame.
  *
  * @author davehuffman
  */
@@ -56,7 +61,10 @@ class NotePanel extends JPanel {
     private enum CardId { NO_NOTE_MESSAGE, NOTE_TEXT }
     
     private final CardLayout cardLayout = new CardLayout();
-    private final HuxleyUiManager huxleyUiManager = new HuxleyUiManager(rSyntaxTextAreaFactory());
+    /** The editor; null until it is first needed. */
+    private HuxleyUiManager huxleyUiManager = null;
+    private Callback<Boolean> onTextChangeCallback = null;
+    private Callback<DocumentEvent> onTextEditCallback = null;
     
     /** The currently selected note. */
     private Note note;
@@ -76,8 +84,6 @@ class NotePanel extends JPanel {
         JLabel noSelectionLabel = new JLabel("No note selected"); // TODO i18n.
         noSelectionLabel.setHorizontalAlignment(SwingConstants.CENTER);
         add(noSelectionLabel, CardId.NO_NOTE_MESSAGE.toString());
-        
-        add(huxleyUiManager.getUiPanel(), CardId.NOTE_TEXT.toString());
     }
     
     /**
@@ -91,7 +97,8 @@ class NotePanel extends JPanel {
                     public void focusGained(FocusEvent e) {
                         // When the panel gains focus, transfer focus to the
                         // note text area if it is visible.
-                        if (huxleyUiManager.getUiPanel().isVisible()) {
+                        if (huxleyUiManager != null
+                                && huxleyUiManager.getUiPanel().isVisible()) {
                             huxleyUiManager.getUiPanel().requestFocusInWindow();
                         }
                     }
@@ -116,7 +123,9 @@ class NotePanel extends JPanel {
      */
     private void syncNote(Note syncNote) {
         log.debug(String.format("syncNote([%s]).", syncNote));
-        syncNote.setText(huxleyUiManager.getText());
+        // The note may have been saved (and made hollow) since it was
+        // displayed, or be saved by a background save while this runs.
+        syncNote.replaceText(huxleyUiManager.getText());
     }
 
     /**
@@ -136,13 +145,55 @@ class NotePanel extends JPanel {
             cardLayout.show(this, CardId.NO_NOTE_MESSAGE.toString());
             return;
         }
-        huxleyUiManager.resetText(note.getText());
+        getHuxleyUiManager().resetText(note.getText());
         cardLayout.show(this, CardId.NOTE_TEXT.toString());
     }
     
+    /**
+     * @return The editor, which is built if it hasn't been already.
+     */
     HuxleyUiManager getHuxleyUiManager() {
+        if (huxleyUiManager == null) {
+            StartupTrace.get().begin("editor build");
+            huxleyUiManager = new HuxleyUiManager(rSyntaxTextAreaFactory());
+            huxleyUiManager.setOnTextChangeCallback(onTextChangeCallback);
+            huxleyUiManager.setOnTextEditCallback(onTextEditCallback);
+            add(huxleyUiManager.getUiPanel(), CardId.NOTE_TEXT.toString());
+            StartupTrace.get().end("editor build");
+        }
         return huxleyUiManager;
     }
+
+    /**
+     * @param onTextChangeCallback Called when the text of the displayed note
+     *                             is first changed.
+     */
+    void setOnTextChangeCallback(Callback<Boolean> onTextChangeCallback) {
+        this.onTextChangeCallback = onTextChangeCallback;
+        if (huxleyUiManager != null) {
+            huxleyUiManager.setOnTextChangeCallback(onTextChangeCallback);
+        }
+    }
+
+    /**
+     * @param onTextEditCallback Called with the edit every time the text of
+     *                           the displayed note is edited.
+     */
+    void setOnTextEditCallback(Callback<DocumentEvent> onTextEditCallback) {
+        this.onTextEditCallback = onTextEditCallback;
+        if (huxleyUiManager != null) {
+            huxleyUiManager.setOnTextEditCallback(onTextEditCallback);
+        }
+    }
+
+    /**
+     * Mark the displayed note's text as unchanged (e.g. after it is saved).
+     */
+    void resetTextChanged() {
+        if (huxleyUiManager != null) {
+            huxleyUiManager.resetTextChanged();
+        }
+    }
     
     /**
      * @return The note currently displayed in the panel, or null if no note is
@@ -0,0 +1,412 @@
+/**
+ * Kuebiko - NoteRowSorter.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.view;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Row sorter for the note table. Unlike {@link javax.swing.table.TableRowSorter},
+ * which reads every cell of the sort column through the model and compares
+ * the values with a collator each time the table changes, this sorter filters
+ * rows with a set of matching model indices, and keeps the sorted order of
+ * the rows along with each row's sort key (e.g. a collation key for titles).
+ *
+ * <p>The order is only computed from scratch when the sort column or the
+ * whole model changes, and the model's indexes are used to avoid sorting where
+ * possible. Inserted, deleted and updated rows are repaired in place with a
+ * binary search (or, for a batch of appended rows, a merge), and changing
+ * the filter or sort direction doesn't re-sort at all.</p>
+ *
+ * @author davehuffman
+ */
+class NoteRowSorter extends RowSorter<NoteTableModel> {
+    /**
+     * Filter for the rows of the table, expressed as the set of model indices
+     * of the rows to include.
+     */
+    abstract static class MatchFilter {
+        /**
+         * @return The model indices of the rows to include. Must not be modified.
+         */
+        abstract BitSet getMatches();
+    }
+
+    /**
+     * Filter for a fixed set of rows, computed ahead of time.
+     */
+    static class FixedMatchFilter extends MatchFilter {
+        private final BitSet matches;
+
+        FixedMatchFilter(BitSet matches) {
+            this.matches = matches;
+        }
+
+        @Override
+        BitSet getMatches() {
+            return matches;
+        }
+    }
+
+    private final NoteTableModel model;
+    private List<SortKey> sortKeys = Collections.emptyList();
+    private MatchFilter filter = null;
+
+    /** The column the order and keys are for; -1 if unsorted. */
+    private int sortColumn = -1;
+    /** The model indices of every row, in ascending order by the sort column;
+     *  null if unsorted or invalid. */
+    private int[] order = null;
+    /** The sort key of each row, by model index. */
+    private final List<Comparable<?>> keys = Lists.newArrayList();
+
+    /** Maps view indices to model indices; null if the view is unsorted and
+     *  unfiltered. */
+    private int[] viewToModel = null;
+    /** Maps model indices to view indices (-1 if filtered out); null if the
+     *  view is unsorted and unfiltered. */
+    private int[] modelToView = null;
+
+    NoteRowSorter(NoteTableModel model) {
+        this.model = model;
+    }
+
+    @Override
+    public NoteTableModel getModel() {
+        return model;
+    }
+
+    /**
+     * Replace the row filter.
+     * @param filter The new filter, or null to display every row.
+     */
+    void setFilter(MatchFilter filter) {
+        this.filter = filter;
+        reindex();
+    }
+
+    @Override
+    public void toggleSortOrder(int column) {
+        if (!model.isSortable(column)) {
+            return;
+        }
+        SortOrder order = SortOrder.ASCENDING;
+        if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column
+                && sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING) {
+            order = SortOrder.DESCENDING;
+        }
+        setSortKeys(Collections.singletonList(new SortKey(column, order)));
+    }
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        final List<SortKey> newKeys = (keys == null)?
+                Collections.<SortKey>emptyList() : ImmutableList.<SortKey>copyOf(keys);
+        if (newKeys.equals(sortKeys)) {
+            return;
+        }
+        sortKeys = newKeys;
+        if (sortKeys.isEmpty() || sortKeys.get(0).getColumn() != sortColumn) {
+            invalidateOrder();
+        }
+        fireSortOrderChanged();
+        reindex();
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        if (viewToModel == null) {
+            if (index < 0 || index >= getModelRowCount()) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return index;
+        }
+        return viewToModel[index];
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        if (modelToView == null) {
+            if (index < 0 || index >= getModelRowCount()) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return index;
+        }
+        return modelToView[index];
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return (viewToModel == null)? getModelRowCount() : viewToModel.length;
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public void modelStructureChanged() {
+        invalidateOrder();
+        reindex();
+    }
+
+    @Override
+    public void allRowsChanged() {
+        invalidateOrder();
+        reindex();
+    }
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        if (order != null) {
+            if (firstRow == keys.size() && endRow == getModelRowCount() - 1) {
+                // Rows are appended to the model; merge them in.
+                for (int row = firstRow; row <= endRow; row++) {
+                    keys.add(model.getSortKey(row, sortColumn));
+                }
+                mergeIntoOrder(firstRow, endRow);
+            } else {
+                invalidateOrder();
+            }
+        }
+        reindex();
+    }
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        final int count = endRow - firstRow + 1;
+        if (order != null) {
+            if (keys.size() - count == getModelRowCount()) {
+                // Drop the rows, and shift down the rows after them.
+                final int[] newOrder = new int[order.length - count];
+                int n = 0;
+                for (int row: order) {
+                    if (row < firstRow) {
+                        newOrder[n++] = row;
+                    } else if (row > endRow) {
+                        newOrder[n++] = row - count;
+                    }
+                }
+                order = newOrder;
+                keys.subList(firstRow, endRow + 1).clear();
+            } else {
+                invalidateOrder();
+            }
+        }
+        reindex();
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        rowsUpdated(firstRow, endRow, sortColumn);
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+        // Like TableRowSorter, don't re-filter on updates; only move rows
+        // whose sort keys have changed (e.g. a renamed note).
+        if (order == null || column != sortColumn) {
+            return;
+        }
+        boolean moved = false;
+        for (int row = firstRow; row <= endRow; row++) {
+            final Comparable<?> key = model.getSortKey(row, sortColumn);
+            if (compare(key, keys.get(row)) != 0) {
+                removeFromOrder(row);
+                keys.set(row, key);
+                insertIntoOrder(row);
+                moved = true;
+            }
+        }
+        if (moved) {
+            reindex();
+        }
+    }
+
+    private void invalidateOrder() {
+        order = null;
+        keys.clear();
+        sortColumn = -1;
+    }
+
+    /**
+     * Compute the order of the rows by the primary sort column from scratch,
+     * if it isn't already known.
+     */
+    private void validateOrder() {
+        if (order != null || sortKeys.isEmpty()) {
+            return;
+        }
+        sortColumn = sortKeys.get(0).getColumn();
+        final int rowCount = getModelRowCount();
+        for (int row = 0; row < rowCount; row++) {
+            keys.add(model.getSortKey(row, sortColumn));
+        }
+
+        order = model.getIndexedOrder(sortColumn);
+        if (order == null) {
+            final Integer[] rows = new Integer[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                rows[row] = row;
+            }
+            Arrays.sort(rows, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return compareRows(o1, o2);
+                }
+            });
+            order = new int[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                order[i] = rows[i];
+            }
+        }
+    }
+
+    /**
+     * Binary search the order for a row's position.
+     * @return The position of the row if found; otherwise, (-(insertion point) - 1).
+     */
+    private int search(int row) {
+        int low = 0;
+        int high = order.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareRows(order[mid], row);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insertIntoOrder(int row) {
+        final int pos = -(search(row) + 1);
+        final int[] newOrder = new int[order.length + 1];
+        System.arraycopy(order, 0, newOrder, 0, pos);
+        newOrder[pos] = row;
+        System.arraycopy(order, pos, newOrder, pos + 1, order.length - pos);
+        order = newOrder;
+    }
+
+    /**
+     * Merge a range of new rows into the order. A single row is slotted in
+     * with a binary search; larger ranges (e.g. a batch of loaded notes) are
+     * sorted on their own, and merged in one pass.
+     */
+    private void mergeIntoOrder(int firstRow, int endRow) {
+        if (firstRow == endRow) {
+            insertIntoOrder(firstRow);
+            return;
+        }
+        final Integer[] newRows = new Integer[endRow - firstRow + 1];
+        for (int i = 0; i < newRows.length; i++) {
+            newRows[i] = firstRow + i;
+        }
+        Arrays.sort(newRows, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return compareRows(o1, o2);
+            }
+        });
+
+        final int[] newOrder = new int[order.length + newRows.length];
+        int i = 0;
+        int j = 0;
+        for (int n = 0; n < newOrder.length; n++) {
+            if (j == newRows.length
+                    || (i < order.length && compareRows(order[i], newRows[j]) < 0)) {
+                newOrder[n] = order[i++];
+            } else {
+                newOrder[n] = newRows[j++];
+            }
+        }
+        order = newOrder;
+    }
+
+    private void removeFromOrder(int row) {
+        final int pos = search(row);
+        final int[] newOrder = new int[order.length - 1];
+        System.arraycopy(order, 0, newOrder, 0, pos);
+        System.arraycopy(order, pos + 1, newOrder, pos, order.length - pos - 1);
+        order = newOrder;
+    }
+
+    private int compareRows(int row1, int row2) {
+        final int result = compare(keys.get(row1), keys.get(row2));
+        if (result != 0) {
+            return result;
+        }
+        return (row1 < row2)? -1 : ((row1 == row2)? 0 : 1);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compare(Comparable key1, Comparable key2) {
+        return key1.compareTo(key2);
+    }
+
+    /**
+     * Rebuild the row mappings, and notify listeners.
+     */
+    private void reindex() {
+        final int[] oldViewToModel = (viewToModel == null)? null : viewToModel.clone();
+        rebuild();
+        fireRowSorterChanged(oldViewToModel);
+    }
+
+    private void rebuild() {
+        final int rowCount = getModelRowCount();
+        final BitSet matches = (filter == null)? null : filter.getMatches();
+        final SortKey sortKey = sortKeys.isEmpty()? null : sortKeys.get(0);
+        validateOrder();
+        if (matches == null && order == null) {
+            viewToModel = null;
+            modelToView = null;
+            return;
+        }
+
+        final boolean descending = (sortKey != null)
+                && sortKey.getSortOrder() == SortOrder.DESCENDING;
+        final int[] rows = new int[rowCount];
+        int count = 0;
+        for (int i = 0; i < rowCount; i++) {
+            final int row;
+            if (order == null) {
+                row = i;
+            } else {
+                row = order[descending? rowCount - 1 - i : i];
+            }
+            if (matches == null || matches.get(row)) {
+                rows[count++] = row;
+            }
+        }
+
+        viewToModel = Arrays.copyOf(rows, count);
+        modelToView = new int[rowCount];
+        Arrays.fill(modelToView, -1);
+        for (int i = 0; i < count; i++) {
+            modelToView[viewToModel[i]] = i;
+        }
+    }
+}
@@ -8,26 +8,36 @@ package dmh.kuebiko.view;
 
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
-import java.util.Observable;
-import java.util.Observer;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.AbstractAction;
 import javax.swing.Box;
-import javax.swing.ImageIcon;
+import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTextField;
@@ -35,21 +45,38 @@ import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Document;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.SystemUtils;
-import org.jdesktop.swingx.autocomplete.AutoCompleteDecorator;
 
+import dmh.kuebiko.Main;
+import dmh.kuebiko.controller.DataStoreException;
+import dmh.kuebiko.controller.NoteEvent;
+import dmh.kuebiko.controller.NoteListener;
 import dmh.kuebiko.controller.NoteManager;
+import dmh.kuebiko.controller.RecoveryJournal;
+import dmh.kuebiko.controller.TaskScheduler;
+import dmh.kuebiko.controller.TaskScheduler.CancellationToken;
+import dmh.kuebiko.controller.TaskScheduler.Lane;
+import dmh.kuebiko.controller.TaskScheduler.Task;
+import dmh.kuebiko.controller.TextScanSearch;
 import dmh.kuebiko.model.Note;
 import dmh.kuebiko.util.ActionManager;
 import dmh.kuebiko.util.ActionObserverUtil;
+import dmh.kuebiko.util.StartupTrace;
 import dmh.swing.CustomFocusTraversalPolicy;
 import dmh.swing.GenericObservable;
+import dmh.swing.huxley.HuxleyImageManager;
 import dmh.swing.huxley.action.InsertDynamicTextAction;
 import dmh.swing.huxley.constant.TextAction;
 import dmh.util.Callback;
@@ -75,6 +102,9 @@ public class NoteStackFrame extends JFrame {
     private JSplitPane splitPane;
     private JScrollPane noteTableScroll;
     private final JLabel stateImageLabel = new JLabel();
+    private JProgressBar scanProgressBar;
+    private JButton cancelScanButton;
+    private TextScanWorker scanWorker = null;
     private Component horizontalStrut;
     private JMenuBar menuBar;
     private JMenuItem newNoteMenuItem;
@@ -93,8 +123,18 @@ public class NoteStackFrame extends JFrame {
     private JMenuItem pasteMenuItem;
     private JMenuItem deleteNoteMenuItem;
     private JMenuItem renameNoteMenuItem;
+    private JMenuItem searchTextMenuItem;
+    private JMenuItem quickSwitchMenuItem;
+    private QuickSwitcher quickSwitcher = null;
+    private final AtomicBoolean frecencySavePending = new AtomicBoolean(false);
     private JMenu textMenu;
-    private JMenuItem insertDateMenuItem;
+    /** Built once the frame has been painted; null until then. */
+    private JMenuItem insertDateMenuItem = null;
+    private boolean painted = false;
+    /** Fires once the user stops typing, to autosave the note; null if autosave is off. */
+    private Timer autosaveTimer = null;
+    /** True if the note being edited has changes that haven't been autosaved. */
+    private boolean editPending = false;
 
     JTextField searchText;
     NoteTable noteTable;
@@ -107,13 +147,47 @@ public class NoteStackFrame extends JFrame {
         this.noteMngr = noteMngr;
 
         // Setup the various actions for the frame.
-        noteMngr.addObserver(new Observer() {
+        noteMngr.getEventBus().addListener(new NoteListener() {
             @Override
-            public void update(Observable o, Object arg) {
-                boolean stackChanged = (Boolean) arg;
-                toggleUnsavedChangeIndicator(stackChanged);
-                if (!stackChanged) {
-                    notePanel.getHuxleyUiManager().resetTextChanged();
+            public void notesChanged(List<NoteEvent> events) {
+                // Loading notes doesn't change them; otherwise, the last
+                // change decides whether there are unsaved changes.
+                NoteEvent.Type lastChange = null;
+                boolean loaded = false;
+                for (NoteEvent event: events) {
+                    if (event.getType() == NoteEvent.Type.LOADED) {
+                        loaded = true;
+                    } else {
+                        lastChange = event.getType();
+                    }
+                }
+
+                if (lastChange != null) {
+                    if (lastChange == NoteEvent.Type.SAVED) {
+                        onStackSaved();
+                    }
+                    // An autosave only cleans one note, so check them all.
+                    final boolean unsavedChanges =
+                            editPending || NoteStackFrame.this.noteMngr.hasUnsavedChanges();
+                    toggleUnsavedChangeIndicator(unsavedChanges);
+                    if (!unsavedChanges) {
+                        // Everything is saved; there's nothing left to recover.
+                        NoteStackFrame.this.noteMngr.getRecoveryJournal().clear();
+                    }
+                }
+                if (loaded) {
+                    // Re-apply the search, so that matching notes that were
+                    // just loaded are shown.
+                    if (isInSearchMode() && !isTextScanRunning()
+                            && !StringUtils.isEmpty(searchText.getText())) {
+                        noteTable.filter(searchText.getText());
+                    }
+                    updateLoadingIndicator();
+                    observable.setChangedAndNotify();
+                    if (!isStackLoading()) {
+                        StartupTrace.get().end("scan");
+                        recoverUnsavedEdits();
+                    }
                 }
             }
         });
@@ -123,7 +197,10 @@ public class NoteStackFrame extends JFrame {
                 new OpenNoteAction(this),
                 new DeleteNoteAction(this),
                 new RenameNoteAction(this),
-                new SaveStackAction(this));
+                new SaveStackAction(this),
+                new SearchTextAction(this),
+                new QuickSwitchAction(this),
+                new TagNotesAction(this));
 
         // Build the menus.
         menuBar = new JMenuBar();
@@ -144,6 +221,9 @@ public class NoteStackFrame extends JFrame {
         renameNoteMenuItem = new JMenuItem(actionMngr.getAction(RenameNoteAction.class));
         fileMenu.add(renameNoteMenuItem);
 
+        JMenuItem tagNotesMenuItem = new JMenuItem(actionMngr.getAction(TagNotesAction.class));
+        fileMenu.add(tagNotesMenuItem);
+
         fileMenu.addSeparator();
 
         newStackMenuItem = new JMenuItem(actionMngr.getAction(NewStackAction.class));
@@ -210,7 +290,29 @@ public class NoteStackFrame extends JFrame {
                 Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
         editMenu.add(pasteMenuItem);
 
+        editMenu.addSeparator();
+
+        searchTextMenuItem = new JMenuItem(actionMngr.getAction(SearchTextAction.class));
+        editMenu.add(searchTextMenuItem);
+
+        quickSwitchMenuItem = new JMenuItem(actionMngr.getAction(QuickSwitchAction.class));
+        editMenu.add(quickSwitchMenuItem);
+
         textMenu = new JMenu("Text");
+        textMenu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                buildDeferredComponents();
+            }
+            @Override
+            public void menuDeselected(MenuEvent e) {
+                // Do nothing.
+            }
+            @Override
+            public void menuCanceled(MenuEvent e) {
+                // Do nothing.
+            }
+        });
         menuBar.add(textMenu);
 
         JMenu windowMenu = new JMenu("Window");
@@ -220,6 +322,15 @@ public class NoteStackFrame extends JFrame {
         additionalSetup();
     }
 
+    /**
+     * Start decoding the frame's images in the background, so that building
+     * and painting the frame doesn't wait on them.
+     */
+    public static void preloadImages() {
+        KuebikoImageManager.get().preloadAll();
+        HuxleyImageManager.get().preloadAll();
+    }
+
     private NoteTable newNoteTable() {
         return new NoteTable(new NoteTableModel(noteMngr));
     }
@@ -233,9 +344,10 @@ public class NoteStackFrame extends JFrame {
         setBounds(100, 100, 450, 300);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         GridBagLayout gridBagLayout = new GridBagLayout();
-        gridBagLayout.columnWidths = new int[] { 0, 0, 0, 0 };
+        gridBagLayout.columnWidths = new int[] { 0, 0, 0, 0, 0, 0 };
         gridBagLayout.rowHeights = new int[] { 0, 0, 0, 0, 0, 0 };
-        gridBagLayout.columnWeights = new double[] { 0.0, 0.0, 1.0, Double.MIN_VALUE };
+        gridBagLayout.columnWeights = new double[] { 0.0, 0.0, 1.0, 0.0, 0.0,
+                Double.MIN_VALUE };
         gridBagLayout.rowWeights = new double[] { 0.0, 1.0, 1.0, 1.0, 1.0,
                 Double.MIN_VALUE };
         getContentPane().setLayout(gridBagLayout);
@@ -273,11 +385,29 @@ public class NoteStackFrame extends JFrame {
             searchText.putClientProperty("JTextField.variant", "search");
         }
 
+        scanProgressBar = new JProgressBar(0, 100);
+        scanProgressBar.setPreferredSize(new Dimension(60, 12));
+        scanProgressBar.setVisible(false);
+        GridBagConstraints gbc_scanProgressBar = new GridBagConstraints();
+        gbc_scanProgressBar.insets = new Insets(0, 3, 0, 0);
+        gbc_scanProgressBar.gridx = 3;
+        gbc_scanProgressBar.gridy = 0;
+        getContentPane().add(scanProgressBar, gbc_scanProgressBar);
+
+        cancelScanButton = new JButton("Cancel");
+        cancelScanButton.setFocusable(false);
+        cancelScanButton.setVisible(false);
+        GridBagConstraints gbc_cancelScanButton = new GridBagConstraints();
+        gbc_cancelScanButton.insets = new Insets(0, 0, 0, 0);
+        gbc_cancelScanButton.gridx = 4;
+        gbc_cancelScanButton.gridy = 0;
+        getContentPane().add(cancelScanButton, gbc_cancelScanButton);
+
         splitPane = new JSplitPane();
         splitPane.setBorder(null);
         splitPane.setOrientation(JSplitPane.VERTICAL_SPLIT);
         GridBagConstraints gbc_splitPane = new GridBagConstraints();
-        gbc_splitPane.gridwidth = 3;
+        gbc_splitPane.gridwidth = 5;
         gbc_splitPane.gridheight = 4;
         gbc_splitPane.insets = new Insets(0, 0, 0, 0);
         gbc_splitPane.fill = GridBagConstraints.BOTH;
@@ -286,22 +416,43 @@ public class NoteStackFrame extends JFrame {
         getContentPane().add(splitPane, gbc_splitPane);
 
         notePanel = new NotePanel();
-        notePanel.getHuxleyUiManager().setOnTextChangeCallback(
+        notePanel.setOnTextChangeCallback(
                 new Callback<Boolean>() {
                     @Override
                     public void callback(Boolean input) {
                         toggleUnsavedChangeIndicator(input);
                     }
                 });
+        notePanel.setOnTextEditCallback(
+                new Callback<DocumentEvent>() {
+                    @Override
+                    public void callback(DocumentEvent input) {
+                        editPending = true;
+                        if (autosaveTimer != null) {
+                            autosaveTimer.restart();
+                        }
+                        journalEdit(input);
+                    }
+                });
         splitPane.setRightComponent(notePanel);
 
         noteTableScroll = new JScrollPane();
         noteTableScroll.setMinimumSize(new Dimension(23, 100));
         splitPane.setLeftComponent(noteTableScroll);
         noteTable = newNoteTable();
-        noteTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        noteTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         noteTableScroll.setViewportView(noteTable);
+    }
 
+    /**
+     * Build the parts of the frame that aren't needed for the first paint:
+     * the note editor, and the text menu that acts on it. Called once the
+     * frame has been painted, or sooner if the text menu is opened.
+     */
+    private void buildDeferredComponents() {
+        if (insertDateMenuItem != null) {
+            return;
+        }
         ActionObserverUtil.registerEnMass(actionMngr, observable,
                 notePanel.getHuxleyUiManager().getTextAction(TextAction.INSERT_DATE));
 
@@ -311,6 +462,21 @@ public class NoteStackFrame extends JFrame {
         textMenu.add(insertDateMenuItem);
     }
 
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!painted) {
+            painted = true;
+            StartupTrace.get().end("first paint");
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    buildDeferredComponents();
+                }
+            });
+        }
+    }
+
     private String buildTitle() {
         return "Kuebiko";
     }
@@ -322,11 +488,22 @@ public class NoteStackFrame extends JFrame {
     private void additionalSetup() {
         mode = Mode.SEARCH;
 
+        final int autosaveDelay = Integer.parseInt(Main.getSetting(Main.Setting.AUTOSAVE_DELAY));
+        if (autosaveDelay > 0) {
+            autosaveTimer = new Timer(autosaveDelay, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    autosave();
+                }
+            });
+            autosaveTimer.setRepeats(false);
+        }
+
         setFocusTraversalPolicy(
                 new CustomFocusTraversalPolicy(searchText, notePanel));
 
         // Search Text Field.
-        AutoCompleteDecorator.decorate(searchText, noteMngr.getNoteTitles(), false);
+        TitleAutoCompleteAdaptor.decorate(searchText, noteMngr.getTitleIndex());
         searchText.getInputMap().put(KeyStroke.getKeyStroke("ESCAPE"), "clear");
         searchText.getDocument().addDocumentListener(
             new DocumentListener() {
@@ -364,6 +541,13 @@ public class NoteStackFrame extends JFrame {
         });
         searchText.addActionListener(actionMngr.getAction(NewNoteAction.class));
 
+        cancelScanButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelTextScan();
+            }
+        });
+
         // Note Table.
         noteTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
             @Override
@@ -371,6 +555,7 @@ public class NoteStackFrame extends JFrame {
                 if (event.getValueIsAdjusting()) {
                     return;
                 }
+                flushAutosave();
                 final Note selectedNote = noteTable.getSelectedNote();
 
                 if (selectedNote == null) {
@@ -379,23 +564,214 @@ public class NoteStackFrame extends JFrame {
                     setModeToEdit();
                     notePanel.setNote(selectedNote);
                     searchText.setText(selectedNote.getTitle());
+                    noteMngr.getFrecencyTracker().recordVisit(selectedNote.getTitle());
+                    scheduleFrecencySave();
+                }
+            }
+        });
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                // Don't let the application exit in the middle of writing a note.
+                flushAutosave();
+                try {
+                    noteMngr.close();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
                 }
+                noteMngr.getFrecencyTracker().save();
+                // Only throw away the journal once the notes are safely closed.
+                noteMngr.getRecoveryJournal().close();
+            }
+        });
+    }
+
+    /**
+     * Load the stack's notes in the background. The frame can be used while
+     * the notes are loading, except for changes that need the whole stack
+     * (e.g. creating and renaming notes, and saving). If the notes can't be
+     * read, the stack is left empty and the error is reported to the user.
+     */
+    public void loadStack() {
+        StartupTrace.get().begin("scan");
+        noteTable.getNoteTableModel().loadInBackground(new Callback<DataStoreException>() {
+            @Override
+            public void callback(DataStoreException failure) {
+                updateLoadingIndicator();
+                observable.setChangedAndNotify();
+                // Report the failure through the application's exception
+                // handler, as a failed load at start up was.
+                throw failure;
+            }
+        });
+        updateLoadingIndicator();
+        observable.setChangedAndNotify();
+    }
+
+    /**
+     * Record an edit to the note being edited in the recovery journal. The
+     * first edit to a note is recorded with the note's whole text.
+     * @param event The edit.
+     */
+    private void journalEdit(DocumentEvent event) {
+        final Note note = notePanel.getNote();
+        if (note == null || event.getType() == DocumentEvent.EventType.CHANGE) {
+            return;
+        }
+        final RecoveryJournal journal = noteMngr.getRecoveryJournal();
+        final Document document = event.getDocument();
+        try {
+            if (!journal.isTracking(note.getTitle())) {
+                journal.recordBase(note.getTitle(), document.getText(0, document.getLength()));
+            } else if (event.getType() == DocumentEvent.EventType.INSERT) {
+                journal.recordInsert(event.getOffset(),
+                        document.getText(event.getOffset(), event.getLength()));
+            } else {
+                journal.recordRemove(event.getOffset(), event.getLength());
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException("Edit outside of the document.", e);
+        }
+    }
+
+    /**
+     * Restore any edits that a previous run of the application didn't get
+     * to save, and let the user know about them.
+     */
+    private void recoverUnsavedEdits() {
+        final List<Note> recoveredNotes = noteTable.getNoteTableModel().recoverFromJournal();
+        if (!recoveredNotes.isEmpty()) {
+            JOptionPane.showMessageDialog(this, String.format(
+                    "Recovered unsaved changes to %d note(s). Save the stack to keep them.",
+                    recoveredNotes.size()));
+        }
+    }
+
+    /**
+     * Save the stack in the background. The user may keep editing while it
+     * is saved; those edits are left for the next save.
+     */
+    void saveStack() {
+        if (autosaveTimer != null) {
+            autosaveTimer.stop();
+        }
+        notePanel.syncNote();
+        notePanel.resetTextChanged();
+        editPending = false;
+        noteTable.getNoteTableModel().saveInBackground(new Callback<Boolean>() {
+            @Override
+            public void callback(Boolean saved) {
+                observable.setChangedAndNotify();
+            }
+        });
+        observable.setChangedAndNotify();
+    }
+
+    /**
+     * Handler for when the stack has been saved. A new note is replaced by
+     * another object when it is first saved, so if one is being edited, the
+     * editor switches to its replacement, keeping any edits made during the
+     * save.
+     */
+    private void onStackSaved() {
+        final Note shownNote = notePanel.getNote();
+        final Note selectedNote = getSelectedNote();
+        if (shownNote == null || selectedNote == null || shownNote == selectedNote
+                || !shownNote.isNew()) {
+            return;
+        }
+        notePanel.syncNote();
+        if (!StringUtils.equals(shownNote.getText(), selectedNote.getText())) {
+            selectedNote.setText(shownNote.getText());
+        }
+        notePanel.setNote(selectedNote);
+    }
+
+    /**
+     * @return True while the stack is being saved.
+     */
+    boolean isStackSaving() {
+        return noteMngr.isSaving();
+    }
+
+    /**
+     * @return True if the stack's notes are still being loaded.
+     */
+    boolean isStackLoading() {
+        return noteMngr.isLoading();
+    }
+
+    /**
+     * Show the progress bar while the stack is loading, unless it is showing
+     * the progress of a text search.
+     */
+    private void updateLoadingIndicator() {
+        if (isTextScanRunning()) {
+            return;
+        }
+        final boolean loading = isStackLoading();
+        scanProgressBar.setIndeterminate(loading);
+        scanProgressBar.setToolTipText(loading?
+                String.format("Loading notes (%d so far).", noteMngr.getNoteCount()) : null);
+        scanProgressBar.setVisible(loading);
+    }
+
+    /**
+     * Save the note being edited, if the user has changed it since it was last
+     * saved. Only the one note is written, in the background; new notes are
+     * left for the next save of the whole stack.
+     */
+    private void autosave() {
+        final Note note = notePanel.getNote();
+        if (!editPending || note == null || note.isNew()) {
+            return;
+        }
+        notePanel.syncNote();
+        // The next edit will light up the unsaved change indicator again.
+        notePanel.resetTextChanged();
+        editPending = false;
+        noteMngr.autosaveNote(note);
+    }
+
+    /**
+     * Autosave right away if an autosave is waiting for the user to stop
+     * typing (e.g. before switching to another note).
+     */
+    private void flushAutosave() {
+        if (autosaveTimer != null && autosaveTimer.isRunning()) {
+            autosaveTimer.stop();
+            autosave();
+        }
+    }
+
+    /**
+     * Save the usage data next time the user is idle, rather than waiting
+     * for the window to close.
+     */
+    private void scheduleFrecencySave() {
+        if (!frecencySavePending.compareAndSet(false, true)) {
+            return;
+        }
+        TaskScheduler.getInstance().submit(Lane.IDLE, new Task() {
+            @Override
+            public void run(CancellationToken token) {
+                frecencySavePending.set(false);
+                noteMngr.getFrecencyTracker().save();
             }
         });
     }
 
     private void setModeToSearch() {
         mode = Mode.SEARCH;
-        stateImageLabel.setIcon(new ImageIcon(
-        		KuebikoImageManager.get().getImage("search")));
+        stateImageLabel.setIcon(KuebikoImageManager.get().getIcon("search"));
         noteTable.clearSelection();
         observable.setChangedAndNotify();
     }
 
     private void setModeToEdit() {
         mode = Mode.EDIT;
-        stateImageLabel.setIcon(new ImageIcon(
-        		KuebikoImageManager.get().getImage("edit")));
+        stateImageLabel.setIcon(KuebikoImageManager.get().getIcon("edit"));
         observable.setChangedAndNotify();
     }
 
@@ -420,21 +796,149 @@ public class NoteStackFrame extends JFrame {
     	return noteTable.getSelectedNote();
     }
 
-    void deleteSelectedNote() {
+    void deleteSelectedNotes() {
         if (!isNoteSelected()) {
             throw new IllegalStateException("No note currently selected.");
         }
 
-        noteTable.deleteSelectedNote();
+        noteTable.deleteSelectedNotes();
         searchText.setText("");
     }
 
+    /**
+     * Prompt for a new title, and rename the selected note.
+     */
+    void renameSelectedNote() {
+        final Note note = getSelectedNote();
+        if (note == null) {
+            throw new IllegalStateException("No note currently selected.");
+        }
+
+        final String title = StringUtils.trim((String) JOptionPane.showInputDialog(this,
+                "New title:", "Rename Note", JOptionPane.PLAIN_MESSAGE, null, null,
+                note.getTitle()));
+        if (StringUtils.isBlank(title) || title.equals(note.getTitle())) {
+            return;
+        }
+        if (noteMngr.doesNoteExist(title)) {
+            JOptionPane.showMessageDialog(this,
+                    String.format("A note titled [%s] already exists.", title));
+            return;
+        }
+        noteMngr.renameNote(note, title);
+        if (note == notePanel.getNote()) {
+            searchText.setText(title);
+        }
+    }
+
+    /**
+     * Prompt for tags, and add them to every selected note.
+     */
+    void tagSelectedNotes() {
+        if (!isNoteSelected()) {
+            throw new IllegalStateException("No note currently selected.");
+        }
+
+        final String tags = JOptionPane.showInputDialog(this,
+                String.format("Tags to add to %d note(s):", noteTable.getSelectedRowCount()));
+        if (!StringUtils.isBlank(tags)) {
+            noteTable.tagSelectedNotes(Arrays.asList(tags));
+        }
+    }
+
+    /**
+     * Start a search of the text of every note in the stack, replacing the
+     * current table filter with the results as they are found.
+     * @param query The text to search for.
+     */
+    void startTextScan(String query) {
+        cancelTextScan();
+
+        final TextScanWorker worker;
+        try {
+            worker = new TextScanWorker(noteMngr, noteTable,
+                    TextScanSearch.compileQuery(query));
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage());
+            return;
+        }
+        setModeToSearch();
+        notePanel.setNote(null);
+        noteTable.filter(new BitSet());
+
+        scanProgressBar.setIndeterminate(false);
+        scanProgressBar.setToolTipText(null);
+        scanProgressBar.setValue(0);
+        scanProgressBar.setVisible(true);
+        cancelScanButton.setVisible(true);
+        worker.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent event) {
+                if ("progress".equals(event.getPropertyName())) {
+                    scanProgressBar.setValue((Integer) event.getNewValue());
+                } else if (worker.isDone() && worker == scanWorker) {
+                    onTextScanDone();
+                }
+            }
+        });
+        scanWorker = worker;
+        worker.execute();
+    }
+
+    /**
+     * Cancel the current text search, if there is one.
+     */
+    void cancelTextScan() {
+        if (scanWorker != null) {
+            scanWorker.cancelScan();
+            onTextScanDone();
+        }
+    }
+
+    private void onTextScanDone() {
+        scanWorker = null;
+        scanProgressBar.setVisible(false);
+        cancelScanButton.setVisible(false);
+        updateLoadingIndicator();
+    }
+
+    boolean isTextScanRunning() {
+        return scanWorker != null;
+    }
+
+    /**
+     * Display the quick switcher, for jumping to a note by title.
+     */
+    void openQuickSwitcher() {
+        if (quickSwitcher == null) {
+            quickSwitcher = new QuickSwitcher(this, noteMngr);
+        }
+        quickSwitcher.open();
+    }
+
+    /**
+     * Select and display a note.
+     * @param title The title of the note to open.
+     */
+    void openNote(final String title) {
+        cancelTextScan();
+        setModeToSearch();
+        searchText.setText(title);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                noteTable.selectNote(title);
+            }
+        });
+    }
+
     /**
      * Handler for when the contents of the search text field changes.
      */
     private void onSearchTextChanged() {
         // Only update the UI if the user actively searching.
         if (mode == Mode.SEARCH) {
+            cancelTextScan();
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
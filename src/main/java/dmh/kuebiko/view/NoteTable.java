@@ -9,26 +9,25 @@ package dmh.kuebiko.view;
 import static org.apache.commons.lang.StringUtils.isEmpty;
 
 import java.awt.Component;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import javax.swing.DefaultCellEditor;
 import javax.swing.JTable;
 import javax.swing.JTextField;
-import javax.swing.RowFilter;
-import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableCellEditor;
 import javax.swing.table.TableCellRenderer;
-import javax.swing.table.TableRowSorter;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
 
+import dmh.kuebiko.controller.NoteQuery;
+import dmh.kuebiko.controller.TagIndex;
 import dmh.kuebiko.model.Note;
 import dmh.kuebiko.view.NoteTableModel.Column;
 
@@ -40,36 +39,9 @@ import dmh.kuebiko.view.NoteTableModel.Column;
 public class NoteTable extends JTable {
     private static final long serialVersionUID = 1L;
 
-    private static class DateTimeCellRenderer extends DefaultTableCellRenderer {
-        private static final long serialVersionUID = 1L;
-
-        private static final DateTimeCellRenderer INSTANCE = new DateTimeCellRenderer();
-
-        @Override
-        protected void setValue(Object value) {
-            SimpleDateFormat formatter = new SimpleDateFormat("yyyy/MM/dd HH:mm");
-            super.setValue((value == null)? "" : formatter.format(value));
-        }
-    }
-
-    // Tags were never fully implemented.
-    @SuppressWarnings("unused")
-	private static class TagCellRenderer extends DefaultTableCellRenderer {
-        private static final long serialVersionUID = 1L;
-
-        private static final TagCellRenderer INSTANCE = new TagCellRenderer();
-        private static final Joiner JOINER = Joiner.on(", ");
-
-        @Override
-        protected void setValue(Object value) {
-            List<?> tagList = (List<?>) value;
-            super.setValue(JOINER.join(tagList));
-        }
-    }
+    private static final Logger log = Logger.getLogger(NoteTable.class);
 
-    // Tags were never fully implemented.
-    @SuppressWarnings("unused")
-	private static class TagCellEditor extends DefaultCellEditor {
+    private static class TagCellEditor extends DefaultCellEditor {
         private static final long serialVersionUID = 1L;
 
         private static final TagCellEditor  INSTANCE = new TagCellEditor();
@@ -94,49 +66,131 @@ public class NoteTable extends JTable {
         }
     }
 
+    /**
+     * Row filter that includes the rows whose titles contain a query string,
+     * ignoring case. The matches are looked up once from the search layer, and
+     * refreshed only when the stack changes.
+     */
+    private class TitleRowFilter extends NoteRowSorter.MatchFilter {
+        private final String query;
+        private BitSet matches = null;
+        private int changeCount;
+
+        TitleRowFilter(String query) {
+            this.query = query;
+        }
+
+        @Override
+        BitSet getMatches() {
+            if (matches == null || changeCount != noteTableModel.getChangeCount()) {
+                changeCount = noteTableModel.getChangeCount();
+                matches = noteTableModel.searchTitles(query);
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * Row filter that includes the rows matching a structured query. The
+     * query is re-run only when the stack or its tags change.
+     */
+    private class QueryRowFilter extends NoteRowSorter.MatchFilter {
+        private final NoteQuery query;
+        private BitSet matches = null;
+        private int changeCount;
+        private TagIndex tagIndex = null;
+
+        QueryRowFilter(NoteQuery query) {
+            this.query = query;
+        }
+
+        @Override
+        BitSet getMatches() {
+            if (matches == null || changeCount != noteTableModel.getChangeCount()
+                    || tagIndex != noteTableModel.getTagIndex()) {
+                changeCount = noteTableModel.getChangeCount();
+                tagIndex = noteTableModel.getTagIndex();
+                matches = noteTableModel.query(query);
+            }
+            return matches;
+        }
+    }
+
     private final NoteTableModel noteTableModel;
-    private final TableRowSorter<NoteTableModel> sorter;
+    private final NoteRowSorter sorter;
 
     NoteTable(NoteTableModel noteTableModel) {
         this.noteTableModel = noteTableModel;
         setModel(noteTableModel);
 
-        sorter = new TableRowSorter<NoteTableModel>(this.noteTableModel);
+        sorter = new NoteRowSorter(this.noteTableModel);
         setRowSorter(sorter);
     }
 
+    /**
+     * Prepare a renderer the same way as JTable, except that the renderer is
+     * passed the model's cached display text rather than the cell's value, so
+     * that painting doesn't read, format or allocate anything per cell.
+     */
     @Override
-    public TableCellRenderer getCellRenderer(int row, int column) {
-        if (column == Column.DATE_MODIFIED.ordinal()) {
-            return DateTimeCellRenderer.INSTANCE;
+    public Component prepareRenderer(TableCellRenderer renderer, int row, int column) {
+        final String text = noteTableModel.getDisplayText(
+                convertRowIndexToModel(row), convertColumnIndexToModel(column));
+
+        boolean isSelected = false;
+        boolean hasFocus = false;
+        if (!isPaintingForPrint()) {
+            isSelected = isCellSelected(row, column);
+            final boolean rowIsLead = (selectionModel.getLeadSelectionIndex() == row);
+            final boolean colIsLead =
+                    (columnModel.getSelectionModel().getLeadSelectionIndex() == column);
+            hasFocus = rowIsLead && colIsLead && isFocusOwner();
         }
-        return super.getCellRenderer(row, column);
+        return renderer.getTableCellRendererComponent(
+                this, text, isSelected, hasFocus, row, column);
     }
 
     @Override
     public TableCellEditor getCellEditor(int row, int column) {
+        if (column == Column.TAGS.ordinal()) {
+            return TagCellEditor.INSTANCE;
+        }
         return super.getCellEditor(row, column);
     }
 
     /**
-     * Apply a filter to the table's, hiding all rows that don't match.
+     * Apply a filter to the table's, hiding all rows whose titles don't
+     * contain the filter string (ignoring case). If the filter string is a
+     * structured query (e.g. <code>#work modified:&gt;2013-01-01</code>), rows
+     * are filtered by the query instead; see {@link NoteQuery}.
      * @param filterString The string to use as a filter.
      */
     void filter(String filterString) {
         // Short-circuit if we're clearing the filter.
         if (StringUtils.isBlank(filterString)) {
-            sorter.setRowFilter(null);
+            sorter.setFilter(null);
             return;
         }
 
-        final RowFilter<NoteTableModel, Integer> rowFilter;
-        try {
-            rowFilter = RowFilter.regexFilter(String.format(".*?%s.*",
-            		Pattern.quote(filterString)), Column.TITLE.ordinal());
-        } catch (PatternSyntaxException e) {
-            throw new IllegalArgumentException("Invalid filter string", e);
+        if (NoteQuery.isQuery(filterString)) {
+            try {
+                sorter.setFilter(new QueryRowFilter(NoteQuery.parse(filterString)));
+                return;
+            } catch (IllegalArgumentException e) {
+                // Most likely a query that's still being typed; fall back to
+                // a plain title filter until it is valid.
+                log.debug(String.format("Invalid query [%s].", filterString), e);
+            }
         }
-        sorter.setRowFilter(rowFilter);
+        sorter.setFilter(new TitleRowFilter(filterString));
+    }
+
+    /**
+     * Apply a precomputed filter to the table, hiding all rows that don't match.
+     * @param matches The model indices of the rows to display.
+     */
+    void filter(BitSet matches) {
+        sorter.setFilter(new NoteRowSorter.FixedMatchFilter(matches));
     }
 
     /**
@@ -159,9 +213,21 @@ public class NoteTable extends JTable {
         }
     }
 
-    void deleteSelectedNote() {
-        noteTableModel.deleteNote(getSelectedNote());
+    /**
+     * Delete every selected note, as a single batch.
+     */
+    void deleteSelectedNotes() {
+        final List<Note> selectedNotes = getSelectedNotes();
         clearSelection();
+        noteTableModel.deleteNotes(selectedNotes);
+    }
+
+    /**
+     * Add tags to every selected note, as a single batch.
+     * @param tags The tags to add.
+     */
+    void tagSelectedNotes(List<String> tags) {
+        noteTableModel.addNoteTags(getSelectedNotes(), tags);
     }
 
     /**
@@ -173,6 +239,18 @@ public class NoteTable extends JTable {
         return (modelSelectedRow < 0)? null : noteTableModel.getNoteAtRow(modelSelectedRow);
     }
 
+    /**
+     * @return Every selected note, in display order.
+     */
+    List<Note> getSelectedNotes() {
+        final int[] viewRows = getSelectedRows();
+        final List<Note> selectedNotes = Lists.newArrayListWithCapacity(viewRows.length);
+        for (int viewRow: viewRows) {
+            selectedNotes.add(noteTableModel.getNoteAtRow(convertRowIndexToModel(viewRow)));
+        }
+        return selectedNotes;
+    }
+
     public NoteTableModel getNoteTableModel() {
         return noteTableModel;
     }
@@ -6,14 +6,36 @@
 
 package dmh.kuebiko.view;
 
+import java.text.Collator;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.swing.event.TableModelEvent;
 import javax.swing.table.AbstractTableModel;
 
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import dmh.kuebiko.controller.DataStoreException;
+import dmh.kuebiko.controller.NoteEvent;
+import dmh.kuebiko.controller.NoteListener;
 import dmh.kuebiko.controller.NoteManager;
+import dmh.kuebiko.controller.NoteQuery;
+import dmh.kuebiko.controller.TagIndex;
+import dmh.kuebiko.controller.TimestampIndex;
 import dmh.kuebiko.model.Note;
+import dmh.util.Callback;
 
 /**
  * Model for the UI note table.
@@ -25,7 +47,7 @@ public class NoteTableModel extends AbstractTableModel {
 
     /** Enumeration of all columns supported by this table model. */
     public static enum Column {
-    	// Note: the Tags and Date Created columns were never fully implemented.
+    	// Note: the Date Created column was never fully implemented.
 
         TITLE("Title"),
         DATE_MODIFIED("Date Modified"),
@@ -42,13 +64,100 @@ public class NoteTableModel extends AbstractTableModel {
             return label;
         }
     }
+    /** Cached, as {@link Column#values()} copies its array on every call. */
+    private static final Column[] COLUMNS = Column.values();
     private static final Set<Column> displayColumns = EnumSet.of(
-    		Column.TITLE, Column.DATE_MODIFIED);
+    		Column.TITLE, Column.DATE_MODIFIED, Column.TAGS);
+
+    static final String DATE_FORMAT = "yyyy/MM/dd HH:mm";
+    private static final Joiner TAG_JOINER = Joiner.on(", ");
+    /** Beyond this many changed rows, a single event for the whole table is
+     *  fired; re-sorting the table once is cheaper than moving each row. */
+    static final int MAX_ROWS_UPDATED = 64;
 
     private final NoteManager noteMngr;
+    private final Collator collator = Collator.getInstance();
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+
+    /** Snapshot of the display text of each row, by model index and column.
+     *  Rows are rendered on first use, and never modified afterwards; a null
+     *  row has yet to be rendered, or is out of date. */
+    private final List<String[]> displayRows = Lists.newArrayList();
+
+    /** The notes whose rows the model has refreshed itself, with their
+     *  modification counts at the time, pending the bus's UPDATED event. */
+    private final Map<Note, Integer> refreshedNotes = Maps.newIdentityHashMap();
 
     public NoteTableModel(NoteManager noteMngr) {
         this.noteMngr = noteMngr;
+
+        // The model fires its own table events for the changes made through
+        // it (e.g. tagging); renames, saves (which change the modified date)
+        // and autosaves are made elsewhere. Each event refreshes its rows at
+        // once.
+        noteMngr.getEventBus().addListener(new NoteListener() {
+            @Override
+            public void notesChanged(List<NoteEvent> events) {
+                for (NoteEvent event: events) {
+                    switch (event.getType()) {
+                    case UPDATED:
+                        fireRowsUpdated(findRows(getUnrefreshedNotes(event.getNotes())));
+                        break;
+                    case RENAMED:
+                    case SAVED:
+                        fireRowsUpdated(findRows(event.getNotes()));
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Record that the model has refreshed some notes' rows itself, so that
+     * the bus's event for the change needn't refresh them again.
+     * @param notes The notes.
+     */
+    private void onRowsRefreshed(Collection<Note> notes) {
+        for (Note note: notes) {
+            refreshedNotes.put(note, note.getModCount());
+        }
+    }
+
+    /**
+     * @param notes Updated notes.
+     * @return The notes that haven't changed since the model refreshed their
+     *         rows itself, if it did.
+     */
+    private List<Note> getUnrefreshedNotes(List<Note> notes) {
+        if (refreshedNotes.isEmpty()) {
+            return notes;
+        }
+        final List<Note> unrefreshed = Lists.newArrayListWithCapacity(notes.size());
+        for (Note note: notes) {
+            final Integer modCount = refreshedNotes.remove(note);
+            if (modCount == null || modCount != note.getModCount()) {
+                unrefreshed.add(note);
+            }
+        }
+        return unrefreshed;
+    }
+
+    /**
+     * Fire a single table event for some updated rows.
+     * @param rows The model indices of the rows.
+     */
+    private void fireRowsUpdated(BitSet rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (rows.cardinality() > MAX_ROWS_UPDATED) {
+            fireTableDataChanged();
+        } else {
+            fireTableRowsUpdated(rows.nextSetBit(0), rows.length() - 1);
+        }
     }
 
     private List<Note> getNotes() {
@@ -82,9 +191,198 @@ public class NoteTableModel extends AbstractTableModel {
         fireTableRowsInserted(newNoteRow, newNoteRow);
     }
 
+    /**
+     * Load the stack's notes in the background, inserting their rows a batch
+     * at a time as they arrive.
+     * @param onLoadFailed Called if the notes could not be read, with the failure.
+     */
+    void loadInBackground(Callback<DataStoreException> onLoadFailed) {
+        noteMngr.loadInBackground(new Callback<List<Note>>() {
+            @Override
+            public void callback(List<Note> batch) {
+                if (!batch.isEmpty()) {
+                    final int lastRow = noteMngr.getNoteCount() - 1;
+                    fireTableRowsInserted(lastRow - batch.size() + 1, lastRow);
+                }
+            }
+        }, onLoadFailed);
+    }
+
+    /**
+     * Restore the edits left in the stack's recovery journal, inserting rows
+     * for recovered notes that are no longer in the stack.
+     * @return The recovered notes.
+     */
+    List<Note> recoverFromJournal() {
+        final int oldCount = noteMngr.getNoteCount();
+        final List<Note> recoveredNotes = noteMngr.recoverFromJournal();
+        if (noteMngr.getNoteCount() > oldCount) {
+            fireTableRowsInserted(oldCount, noteMngr.getNoteCount() - 1);
+        }
+        return recoveredNotes;
+    }
+
+    /**
+     * Save any changes made to the notes in the stack in the background.
+     * Saving updates the notes' dates; the saved notes' rows are refreshed
+     * when the save is published.
+     * @param onSaved Called once the save is over, with true if every change
+     *                was saved.
+     */
+    void saveInBackground(Callback<Boolean> onSaved) {
+        noteMngr.saveInBackground(onSaved);
+    }
+
     void deleteNote(Note note) {
-        noteMngr.deleteNote(note);
-        fireTableDataChanged();
+        deleteNotes(Collections.singletonList(note));
+    }
+
+    /**
+     * Delete several notes from the stack at once. A single table event is
+     * fired for the whole batch.
+     * @param notes The notes to delete.
+     */
+    void deleteNotes(Collection<Note> notes) {
+        final BitSet rows = findRows(notes);
+        noteMngr.deleteNotes(notes);
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        final int firstRow = rows.nextSetBit(0);
+        final int lastRow = rows.length() - 1;
+        if (rows.cardinality() == lastRow - firstRow + 1) {
+            fireTableRowsDeleted(firstRow, lastRow);
+        } else {
+            fireTableDataChanged();
+        }
+    }
+
+    /**
+     * Add tags to several notes at once. A single table event is fired for
+     * the whole batch.
+     * @param notes The notes to tag.
+     * @param tags The tags to add.
+     */
+    void addNoteTags(Collection<Note> notes, Collection<String> tags) {
+        final BitSet rows = findRows(notes);
+        noteMngr.addNoteTags(notes, tags);
+        onRowsRefreshed(notes);
+        fireRowsUpdated(rows);
+    }
+
+    /**
+     * @return The model indices of some notes.
+     */
+    private BitSet findRows(Collection<Note> notes) {
+        final Set<Note> wanted = Sets.newIdentityHashSet();
+        wanted.addAll(notes);
+        final List<Note> allNotes = getNotes();
+        final BitSet rows = new BitSet(allNotes.size());
+        for (int row = 0; row < allNotes.size() && !wanted.isEmpty(); row++) {
+            if (wanted.remove(allNotes.get(row))) {
+                rows.set(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Find all rows with a title containing the passed query string, ignoring
+     * case.
+     * @param query The string to search for.
+     * @return The model indices of all matching rows. Must not be modified.
+     */
+    BitSet searchTitles(String query) {
+        return noteMngr.getSearcher().searchTitles(query, true);
+    }
+
+    /**
+     * Find all rows matching a query.
+     * @param query The query.
+     * @return The model indices of all matching rows.
+     */
+    BitSet query(NoteQuery query) {
+        return query.execute(noteMngr);
+    }
+
+    /**
+     * @return The current tag index of the underlying stack. A different
+     *         index is returned whenever tags change.
+     */
+    TagIndex getTagIndex() {
+        return noteMngr.getTagIndex();
+    }
+
+    /**
+     * @return The change count of the underlying stack.
+     * @see NoteManager#getChangeCount()
+     */
+    int getChangeCount() {
+        return noteMngr.getChangeCount();
+    }
+
+    /**
+     * @param col A column index.
+     * @return True if the table may be sorted by the column.
+     */
+    boolean isSortable(int col) {
+        return col == Column.TITLE.ordinal() || col == Column.DATE_MODIFIED.ordinal()
+                || col == Column.DATE_CREATED.ordinal();
+    }
+
+    /**
+     * Compute the sort key of a cell. Keys of the same column are mutually
+     * comparable; rows with equal keys are ordered by model index.
+     * @param row The cell's row index.
+     * @param col The index of a sortable column.
+     * @return The cell's sort key.
+     */
+    Comparable<?> getSortKey(int row, int col) {
+        final Note note = getNoteAtRow(row);
+        if (col == Column.TITLE.ordinal()) {
+            return collator.getCollationKey(StringUtils.defaultString(note.getTitle()));
+        }
+        if (col == Column.DATE_MODIFIED.ordinal() || col == Column.DATE_CREATED.ordinal()) {
+            final Date date = (col == Column.DATE_MODIFIED.ordinal())?
+                    note.getModifiedDate() : note.getCreateDate();
+            // Undated rows sort first.
+            return (date == null)? Long.MIN_VALUE : date.getTime();
+        }
+        throw new IllegalArgumentException(
+                String.format("Column [%d] is not sortable.", col));
+    }
+
+    /**
+     * Look up the ascending order of the rows by a column in the stack's
+     * indexes, where one exists, so that it needn't be sorted. The order is
+     * consistent with {@link #getSortKey(int, int)}.
+     * @param col The index of a sortable column.
+     * @return The model indices of every row, in ascending order; or null if
+     *         the column isn't indexed.
+     */
+    int[] getIndexedOrder(int col) {
+        if (col != Column.DATE_MODIFIED.ordinal() && col != Column.DATE_CREATED.ordinal()) {
+            return null;
+        }
+
+        final int rowCount = getRowCount();
+        final TimestampIndex index = (col == Column.DATE_MODIFIED.ordinal())?
+                noteMngr.getModifiedIndex() : noteMngr.getCreatedIndex();
+        final int[] dated = index.ordered();
+        final BitSet isDated = new BitSet(rowCount);
+        for (int row: dated) {
+            isDated.set(row);
+        }
+
+        // Undated rows sort first.
+        final int[] rows = new int[rowCount];
+        int count = 0;
+        for (int row = isDated.nextClearBit(0); row < rowCount; row = isDated.nextClearBit(row + 1)) {
+            rows[count++] = row;
+        }
+        System.arraycopy(dated, 0, rows, count, dated.length);
+        return rows;
     }
 
     @Override
@@ -94,7 +392,7 @@ public class NoteTableModel extends AbstractTableModel {
 
     @Override
     public String getColumnName(int col) {
-        return Column.values()[col].getLabel();
+        return COLUMNS[col].getLabel();
     }
 
     @Override
@@ -113,7 +411,7 @@ public class NoteTableModel extends AbstractTableModel {
         }
 
         Note note = getNoteAtRow(row);
-        switch (Column.values()[col]) {
+        switch (COLUMNS[col]) {
         case TITLE:
             return note.getTitle();
         case TAGS:
@@ -138,11 +436,89 @@ public class NoteTableModel extends AbstractTableModel {
         return getValueAt(row, column.ordinal());
     }
 
+    /**
+     * Retrieve the text to display in a particular cell. Unlike the cell's
+     * value, the text is formatted once and then cached, until the row changes.
+     * @param row The cell's row index.
+     * @param col The cell's column index.
+     * @return The text to display in the cell.
+     */
+    String getDisplayText(int row, int col) {
+        if (displayRows.size() != getRowCount()) {
+            // Out of step with the stack; start over.
+            displayRows.clear();
+            displayRows.addAll(Collections.<String[]>nCopies(getRowCount(), null));
+        }
+
+        String[] display = displayRows.get(row);
+        if (display == null) {
+            display = renderRow(getNoteAtRow(row));
+            displayRows.set(row, display);
+        }
+        return display[col];
+    }
+
+    private String[] renderRow(Note note) {
+        final String[] display = new String[COLUMNS.length];
+        display[Column.TITLE.ordinal()] = StringUtils.defaultString(note.getTitle());
+        display[Column.DATE_MODIFIED.ordinal()] = formatDate(note.getModifiedDate());
+        display[Column.TAGS.ordinal()] = TAG_JOINER.join(note.getTags());
+        display[Column.DATE_CREATED.ordinal()] = formatDate(note.getCreateDate());
+        return display;
+    }
+
+    private String formatDate(Date date) {
+        return (date == null)? "" : dateFormat.format(date);
+    }
+
+    @Override
+    public void fireTableChanged(TableModelEvent e) {
+        updateDisplayRows(e);
+        super.fireTableChanged(e);
+    }
+
+    /**
+     * Bring the display text snapshot in line with a change to the model.
+     */
+    private void updateDisplayRows(TableModelEvent e) {
+        final int firstRow = e.getFirstRow();
+        final int lastRow = e.getLastRow();
+        if (firstRow == TableModelEvent.HEADER_ROW || lastRow == Integer.MAX_VALUE) {
+            displayRows.clear();
+            return;
+        }
+
+        switch (e.getType()) {
+        case TableModelEvent.INSERT:
+            if (firstRow <= displayRows.size()) {
+                displayRows.addAll(firstRow,
+                        Collections.<String[]>nCopies(lastRow - firstRow + 1, null));
+            } else {
+                displayRows.clear();
+            }
+            break;
+        case TableModelEvent.DELETE:
+            if (lastRow < displayRows.size()) {
+                displayRows.subList(firstRow, lastRow + 1).clear();
+            } else {
+                displayRows.clear();
+            }
+            break;
+        default:
+            for (int row = firstRow; row <= lastRow && row < displayRows.size(); row++) {
+                displayRows.set(row, null);
+            }
+        }
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
         if (columnIndex == Column.TAGS.ordinal()) {
-            getNoteAtRow(rowIndex).setTags((List<String>) aValue);
+            final Note note = getNoteAtRow(rowIndex);
+            noteMngr.setNoteTags(note, (List<String>) aValue);
+            onRowsRefreshed(Collections.singletonList(note));
+            fireTableCellUpdated(rowIndex, columnIndex);
         } else {
             throw new IllegalArgumentException(String.format(
                     "Cell (row=[%s],col=[%s]) is not editable.",
@@ -152,10 +528,6 @@ public class NoteTableModel extends AbstractTableModel {
 
     @Override
     public boolean isCellEditable(int rowIndex, int columnIndex) {
-    	// Eventually the plan was to allow users to edit note tags from the
-    	// note table itself.
-    	// return columnIndex == Column.TAGS.ordinal();
-
-        return false;
+        return columnIndex == Column.TAGS.ordinal();
     }
 }
@@ -0,0 +1,47 @@
+/**
+ * Kuebiko - QuickSwitchAction.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.view;
+
+import static javax.swing.KeyStroke.getKeyStroke;
+
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.Observable;
+
+import dmh.swing.AbstractActionObserver;
+
+/**
+ * Swing action for jumping to a note by (fuzzy) title.
+ *
+ * @author davehuffman
+ */
+class QuickSwitchAction extends AbstractActionObserver {
+    private static final long serialVersionUID = 1L;
+
+    private final NoteStackFrame noteFrame;
+
+    QuickSwitchAction(NoteStackFrame noteFrame) {
+        super("Jump to Note...");
+        this.noteFrame = noteFrame;
+
+        putValue(SHORT_DESCRIPTION, "Jump to a note by title.");
+        putValue(LONG_DESCRIPTION, getValue(SHORT_DESCRIPTION));
+        putValue(ACCELERATOR_KEY, getKeyStroke(KeyEvent.VK_J,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        putValue(MNEMONIC_KEY, KeyEvent.VK_J);
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        noteFrame.openQuickSwitcher();
+    }
+
+    @Override
+    public void update(Observable o, Object arg) {
+        // Do nothing for now; there's no need for this action to handle updates.
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Kuebiko - QuickSwitcher.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.view;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.DefaultListModel;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import com.google.common.collect.ImmutableList;
+
+import dmh.kuebiko.controller.NoteManager;
+import dmh.kuebiko.controller.QuickSwitchSearch;
+import dmh.kuebiko.controller.TaskScheduler;
+import dmh.kuebiko.controller.TaskScheduler.CancellationToken;
+import dmh.kuebiko.controller.TaskScheduler.Lane;
+import dmh.kuebiko.controller.TaskScheduler.Task;
+
+/**
+ * Keyboard driven overlay for jumping to a note by title. Titles are fuzzy
+ * matched as the user types, and ranked by how often and how recently each
+ * note has been visited. Matching is done on a worker thread.
+ *
+ * @author davehuffman
+ */
+class QuickSwitcher extends JDialog {
+    private static final long serialVersionUID = 1L;
+
+    /** The maximum number of matches displayed. */
+    static final int RESULT_LIMIT = 20;
+
+    private final NoteStackFrame noteFrame;
+    private final NoteManager noteMngr;
+
+    private final JTextField queryText = new JTextField();
+    private final DefaultListModel resultModel = new DefaultListModel();
+    private final JList resultList = new JList(resultModel);
+
+    private CancellationToken searchToken = null;
+
+    /** Snapshot of the stack's titles, and the change count it was taken at. */
+    private List<String> titleSnapshot = null;
+    private int snapshotChangeCount;
+
+    QuickSwitcher(NoteStackFrame noteFrame, NoteManager noteMngr) {
+        super(noteFrame);
+        this.noteFrame = noteFrame;
+        this.noteMngr = noteMngr;
+
+        initialize();
+        additionalSetup();
+    }
+
+    private void initialize() {
+        setUndecorated(true);
+        setSize(new Dimension(400, 300));
+
+        final JPanel contentPanel = new JPanel(new BorderLayout());
+        contentPanel.add(queryText, BorderLayout.NORTH);
+        resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        resultList.setFocusable(false);
+        contentPanel.add(new JScrollPane(resultList), BorderLayout.CENTER);
+        setContentPane(contentPanel);
+    }
+
+    private void additionalSetup() {
+        queryText.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                search();
+            }
+        });
+
+        bindKey("ESCAPE", new AbstractAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                close();
+            }
+        });
+        bindKey("ENTER", new AbstractAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                openSelectedNote();
+            }
+        });
+        bindKey("UP", new AbstractAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                moveSelection(-1);
+            }
+        });
+        bindKey("DOWN", new AbstractAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                moveSelection(1);
+            }
+        });
+
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    openSelectedNote();
+                }
+            }
+        });
+
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowDeactivated(WindowEvent e) {
+                close();
+            }
+        });
+    }
+
+    private void bindKey(String keyStroke, AbstractAction action) {
+        queryText.getInputMap(JComponent.WHEN_FOCUSED).put(
+                KeyStroke.getKeyStroke(keyStroke), keyStroke);
+        queryText.getActionMap().put(keyStroke, action);
+    }
+
+    /**
+     * Display the switcher over the note frame.
+     */
+    void open() {
+        queryText.setText(null);
+        search();
+        setLocation(noteFrame.getX() + (noteFrame.getWidth() - getWidth()) / 2,
+                noteFrame.getY() + noteFrame.getHeight() / 6);
+        setVisible(true);
+        queryText.requestFocusInWindow();
+    }
+
+    private void close() {
+        cancelSearch();
+        setVisible(false);
+    }
+
+    private void openSelectedNote() {
+        final String selected = (String) resultList.getSelectedValue();
+        close();
+        if (selected != null) {
+            noteFrame.openNote(selected);
+        }
+    }
+
+    private void moveSelection(int delta) {
+        final int size = resultModel.getSize();
+        if (size == 0) {
+            return;
+        }
+        final int index = Math.max(0, Math.min(size - 1, resultList.getSelectedIndex() + delta));
+        resultList.setSelectedIndex(index);
+        resultList.ensureIndexIsVisible(index);
+    }
+
+    /**
+     * @return An immutable snapshot of the titles in the stack.
+     */
+    private List<String> getTitleSnapshot() {
+        if (titleSnapshot == null || snapshotChangeCount != noteMngr.getChangeCount()) {
+            titleSnapshot = ImmutableList.copyOf(noteMngr.getNoteTitles());
+            snapshotChangeCount = noteMngr.getChangeCount();
+        }
+        return titleSnapshot;
+    }
+
+    private void cancelSearch() {
+        if (searchToken != null) {
+            searchToken.cancel();
+            searchToken = null;
+        }
+    }
+
+    /**
+     * Start a search for the current query, superseding any running search.
+     */
+    private void search() {
+        cancelSearch();
+
+        final String query = queryText.getText();
+        final QuickSwitchSearch search = new QuickSwitchSearch(getTitleSnapshot(),
+                noteMngr.getFrecencyTracker().snapshot());
+        searchToken = TaskScheduler.getInstance().submit(Lane.INTERACTIVE, new Task() {
+            @Override
+            public void run(final CancellationToken token) {
+                final List<String> titles = search.search(query, RESULT_LIMIT);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Tokens are only cancelled on this thread, so a
+                        // superseded search can't slip through.
+                        if (!token.isCancelled()) {
+                            showResults(titles);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void showResults(List<String> titles) {
+        resultModel.clear();
+        for (String title: titles) {
+            resultModel.addElement(title);
+        }
+        if (!titles.isEmpty()) {
+            resultList.setSelectedIndex(0);
+        }
+    }
+}
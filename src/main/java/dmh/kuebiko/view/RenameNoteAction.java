@@ -12,14 +12,14 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.util.Observable;
 
-import dmh.swing.UnimplementedAction;
+import dmh.swing.AbstractActionObserver;
 
 /**
  * Swing action for renaming the current note.
  *
  * @author davehuffman
  */
-public class RenameNoteAction extends UnimplementedAction {
+public class RenameNoteAction extends AbstractActionObserver {
     private static final long serialVersionUID = 1L;
 
     private final NoteStackFrame noteFrame;
@@ -37,11 +37,12 @@ public class RenameNoteAction extends UnimplementedAction {
 
     @Override
     public void actionPerformed(ActionEvent event) {
-        super.actionPerformed(event);
+        noteFrame.renameSelectedNote();
     }
 
     @Override
     public void update(Observable o, Object arg) {
-        setEnabled(noteFrame.isNoteSelected());
+        // New titles can't be checked for uniqueness against a partial stack.
+        setEnabled(noteFrame.isNoteSelected() && !noteFrame.isStackLoading());
     }
 }
@@ -12,7 +12,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.util.Observable;
 
-import dmh.kuebiko.model.Note;
 import dmh.swing.UnimplementedAction;
 
 /**
@@ -38,21 +37,14 @@ public class SaveStackAction extends UnimplementedAction {
 
     @Override
     public void actionPerformed(ActionEvent e) {
-        // Synchronize the current note before saving.
-        noteFrame.getNotePanel().syncNote();
-        noteFrame.getNoteMngr().saveAll();
-
-        // If there's a lazy note selected on the UI, force it's data to be
-        // refreshed. This will prevent the app from getting into an invalid
-        // state where the displayed note has not been loaded.
-        Note selectedNote = noteFrame.getSelectedNote();
-        if (selectedNote != null && selectedNote.isLazy()) {
-			selectedNote.getText();
+        if (!isEnabled()) {
+            return;
         }
+        noteFrame.saveStack();
     }
 
     @Override
     public void update(Observable o, Object arg) {
-        // Do noting.
+        setEnabled(!noteFrame.isStackLoading() && !noteFrame.isStackSaving());
     }
 }
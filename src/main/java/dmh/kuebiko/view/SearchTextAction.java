@@ -0,0 +1,55 @@
+/**
+ * Kuebiko - SearchTextAction.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.view;
+
+import static javax.swing.KeyStroke.getKeyStroke;
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.util.Observable;
+
+import dmh.swing.AbstractActionObserver;
+
+/**
+ * Swing action for searching the text of every note in the current stack for
+ * the contents of the search field.
+ *
+ * @author davehuffman
+ */
+class SearchTextAction extends AbstractActionObserver {
+    private static final long serialVersionUID = 1L;
+
+    private final NoteStackFrame noteFrame;
+
+    SearchTextAction(NoteStackFrame noteFrame) {
+        super("Search Note Text");
+        this.noteFrame = noteFrame;
+
+        putValue(SHORT_DESCRIPTION, "Search the text of every note in the stack.");
+        putValue(LONG_DESCRIPTION, getValue(SHORT_DESCRIPTION));
+        putValue(ACCELERATOR_KEY, getKeyStroke(KeyEvent.VK_F,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | InputEvent.SHIFT_DOWN_MASK));
+        putValue(MNEMONIC_KEY, KeyEvent.VK_F);
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        final String query = noteFrame.getSearchText().getText();
+        if (isBlank(query)) {
+            noteFrame.getSearchText().requestFocus();
+            return;
+        }
+        noteFrame.startTextScan(query);
+    }
+
+    @Override
+    public void update(Observable o, Object arg) {
+        // Do nothing for now; there's no need for this action to handle updates.
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Kuebiko - TagNotesAction.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.view;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.Observable;
+
+import dmh.swing.AbstractActionObserver;
+
+/**
+ * Swing action for adding tags to every selected note at once.
+ *
+ * @author davehuffman
+ */
+class TagNotesAction extends AbstractActionObserver {
+    private static final long serialVersionUID = 1L;
+
+    private final NoteStackFrame noteFrame;
+
+    TagNotesAction(NoteStackFrame noteFrame) {
+        super("Tag Notes...");
+        this.noteFrame = noteFrame;
+
+        putValue(SHORT_DESCRIPTION, "Add tags to the selected notes.");
+        putValue(LONG_DESCRIPTION, getValue(SHORT_DESCRIPTION));
+        putValue(MNEMONIC_KEY, KeyEvent.VK_T);
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        noteFrame.tagSelectedNotes();
+    }
+
+    @Override
+    public void update(Observable o, Object arg) {
+        setEnabled(noteFrame.isNoteSelected());
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Kuebiko - TextScanWorker.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.view;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.swing.SwingWorker;
+
+import dmh.kuebiko.controller.NoteManager;
+import dmh.kuebiko.controller.TextScanSearch;
+import dmh.kuebiko.controller.TextScanSearch.HitListener;
+
+/**
+ * Swing worker that runs a {@link TextScanSearch} off of the event dispatch
+ * thread, streaming hits into the note table as they are found.
+ *
+ * @author davehuffman
+ */
+class TextScanWorker extends SwingWorker<BitSet, BitSet> {
+    private final NoteManager noteMngr;
+    private final NoteTable noteTable;
+    private final TextScanSearch search;
+    private final int changeCount;
+
+    /** All hits displayed so far. */
+    private final BitSet hits = new BitSet();
+
+    TextScanWorker(NoteManager noteMngr, NoteTable noteTable, Pattern pattern) {
+        this.noteMngr = noteMngr;
+        this.noteTable = noteTable;
+        this.search = new TextScanSearch(noteMngr.getNotes(), pattern);
+        this.changeCount = noteMngr.getChangeCount();
+    }
+
+    @Override
+    protected BitSet doInBackground() throws Exception {
+        return search.run(new HitListener() {
+            @Override
+            public void onHits(BitSet chunkHits, int scannedCount, int noteCount) {
+                if (!chunkHits.isEmpty()) {
+                    publish(chunkHits);
+                }
+                setProgress(noteCount == 0? 100 : (scannedCount * 100) / noteCount);
+            }
+        });
+    }
+
+    @Override
+    protected void process(List<BitSet> chunks) {
+        if (isCancelled()) {
+            return;
+        }
+        if (changeCount != noteMngr.getChangeCount()) {
+            // The hits refer to notes by index, so they're useless once the
+            // stack has changed.
+            cancelScan();
+            return;
+        }
+        for (BitSet chunkHits: chunks) {
+            hits.or(chunkHits);
+        }
+        noteTable.filter(hits);
+    }
+
+    @Override
+    protected void done() {
+        if (!isCancelled() && changeCount == noteMngr.getChangeCount()) {
+            noteTable.filter(hits);
+        }
+    }
+
+    /**
+     * Stop the scan as soon as possible.
+     */
+    void cancelScan() {
+        search.cancel();
+        cancel(false);
+    }
+}
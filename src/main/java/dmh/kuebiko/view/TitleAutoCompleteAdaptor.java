@@ -0,0 +1,95 @@
+/**
+ * Kuebiko - TitleAutoCompleteAdaptor.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.view;
+
+import java.util.List;
+
+import javax.swing.text.JTextComponent;
+
+import org.jdesktop.swingx.autocomplete.AbstractAutoCompleteAdaptor;
+import org.jdesktop.swingx.autocomplete.AutoCompleteDecorator;
+import org.jdesktop.swingx.autocomplete.AutoCompleteDocument;
+import org.jdesktop.swingx.autocomplete.ObjectToStringConverter;
+
+import dmh.kuebiko.controller.TitleIndex;
+
+/**
+ * Auto-complete adaptor backed by a {@link TitleIndex}. Rather than exposing
+ * every title to the auto-complete document, which would check them all on
+ * each keystroke, the adaptor only exposes the titles that start with the
+ * current contents of the text component (ignoring case). Every title the
+ * document could possibly match is in that range.
+ *
+ * @author davehuffman
+ */
+class TitleAutoCompleteAdaptor extends AbstractAutoCompleteAdaptor {
+    /**
+     * Enable auto-completion of note titles on a text component.
+     * @param textComponent The text component to decorate.
+     * @param titleIndex The index of the titles to complete.
+     */
+    static void decorate(JTextComponent textComponent, TitleIndex titleIndex) {
+        final TitleAutoCompleteAdaptor adaptor =
+                new TitleAutoCompleteAdaptor(textComponent, titleIndex);
+        final AutoCompleteDocument document = new AutoCompleteDocument(adaptor, false,
+                ObjectToStringConverter.DEFAULT_IMPLEMENTATION,
+                textComponent.getDocument());
+        AutoCompleteDecorator.decorate(textComponent, document, adaptor);
+    }
+
+    private final JTextComponent textComponent;
+    private final TitleIndex titleIndex;
+    private Object selectedItem = null;
+
+    /** The text the candidates were last looked up for. */
+    private String candidatePrefix = null;
+    private List<String> candidates = null;
+    private int candidateModCount = -1;
+
+    private TitleAutoCompleteAdaptor(JTextComponent textComponent, TitleIndex titleIndex) {
+        this.textComponent = textComponent;
+        this.titleIndex = titleIndex;
+    }
+
+    /**
+     * @return The titles that could match the current text.
+     */
+    private List<String> getCandidates() {
+        final String prefix = textComponent.getText();
+        if (candidates == null || !prefix.equals(candidatePrefix)
+                || candidateModCount != titleIndex.getModCount()) {
+            candidatePrefix = prefix;
+            candidateModCount = titleIndex.getModCount();
+            candidates = titleIndex.prefixRange(prefix);
+        }
+        return candidates;
+    }
+
+    @Override
+    public Object getSelectedItem() {
+        return selectedItem;
+    }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        selectedItem = item;
+    }
+
+    @Override
+    public int getItemCount() {
+        return getCandidates().size();
+    }
+
+    @Override
+    public Object getItem(int index) {
+        return getCandidates().get(index);
+    }
+
+    @Override
+    public JTextComponent getTextComponent() {
+        return textComponent;
+    }
+}
@@ -6,6 +6,7 @@
 package dmh.swing;
 
 import java.util.Observable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.SwingUtilities;
 
@@ -13,19 +14,30 @@ import javax.swing.SwingUtilities;
  * An {@link java.util.Observable} class to allow other classes to implement
  * observable behavior via composition, rather than inheritance.
  *
+ * <p>Observers are notified on the event dispatch thread. Notifications made
+ * before the observers next run are coalesced into a single notification,
+ * with the most recent argument.</p>
+ *
  * @author davehuffman
  */
 public class GenericObservable extends Observable {
+    private final AtomicBoolean notifyPending = new AtomicBoolean(false);
+    private volatile Object pendingArg = null;
+
     public void setChangedAndNotify() {
         setChangedAndNotify(null);
     }
 
     public void setChangedAndNotify(final Object arg) {
+        pendingArg = arg;
         setChanged();
-        SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-                notifyObservers(arg);
-            }});
+        if (notifyPending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    notifyPending.set(false);
+                    notifyObservers(pendingArg);
+                }});
+        }
     }
 }
@@ -49,6 +49,7 @@ public class HuxleyUiManager {
     private final DocumentListener textChangeListener;
     private boolean textChanged = false;
     private Callback<Boolean> onTextChangeCallback = null;
+    private Callback<DocumentEvent> onTextEditCallback = null;
 
     /**
      * Construct a Huxley UI manager with a basic Swing text area component.
@@ -113,17 +114,17 @@ public class HuxleyUiManager {
         textChangeListener = new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent e) {
-                markTextAsChanged();
+                markTextAsChanged(e);
             }
 
             @Override
             public void removeUpdate(DocumentEvent e) {
-                markTextAsChanged();
+                markTextAsChanged(e);
             }
 
             @Override
             public void changedUpdate(DocumentEvent e) {
-                markTextAsChanged();
+                markTextAsChanged(e);
             }
         };
         textArea.getDocument().addDocumentListener(textChangeListener);
@@ -171,15 +172,26 @@ public class HuxleyUiManager {
         return textChanged;
     }
 
-    private void markTextAsChanged() {
+    private void markTextAsChanged(DocumentEvent e) {
         if (!textChanged && onTextChangeCallback != null) {
             // Only call the callback the first time the text is changed.
             textChanged = true;
             onTextChangeCallback.callback(textChanged);
         }
+        if (onTextEditCallback != null) {
+            onTextEditCallback.callback(e);
+        }
     }
 
     public void setOnTextChangeCallback(Callback<Boolean> onTextChangeCallback) {
         this.onTextChangeCallback = onTextChangeCallback;
     }
+
+    /**
+     * @param onTextEditCallback Called with the edit every time the text is
+     *                           edited, unlike the text change callback.
+     */
+    public void setOnTextEditCallback(Callback<DocumentEvent> onTextEditCallback) {
+        this.onTextEditCallback = onTextEditCallback;
+    }
 }
@@ -8,7 +8,6 @@ package dmh.swing.huxley.action;
 import java.awt.event.ActionEvent;
 import java.util.Observable;
 
-import javax.swing.ImageIcon;
 import javax.swing.text.Document;
 import javax.swing.text.JTextComponent;
 
@@ -28,8 +27,7 @@ public abstract class AbstractPlainTextAction extends AbstractActionObserver {
     protected final JTextComponent textComponent;
 
     public AbstractPlainTextAction(TextAction actionId, JTextComponent textComponent) {
-        super(actionId.actionName,
-                new ImageIcon(HuxleyImageManager.get().getImage(actionId.actionName)));
+        super(actionId.actionName, HuxleyImageManager.get().getIcon(actionId.actionName));
         this.actionId = actionId;
         this.textComponent = textComponent;
     }
@@ -6,25 +6,58 @@
 package dmh.util;
 
 import java.awt.Image;
+import java.io.File;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Manager for application images. By default, base classes will read images
  * from a subpackage called "images", with further images representing image
  * size; for example: "images.small.super_cool_icon.png".
  *
+ * <p>The cache is thread-safe: each image is decoded once, by whichever
+ * thread asks for it first, and threads asking for an image while it is
+ * being decoded wait for it. Every image in the package can be preloaded in
+ * parallel, so that decoding stays off of the startup path. Images are handed
+ * out as shared icons, so clients need not wrap them in new icons.</p>
+ *
  * @author davehuffman
  */
 public abstract class ImageManager {
     public enum ImageSize { SMALL /*, BIG*/ } // Big images are not yet implemented.
 
+    private static final String IMAGE_EXTENSION = ".png";
+
+    /** Shared pool for preloading images. */
+    private static final ExecutorService preloader = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            new ThreadFactoryBuilder()
+                    .setNameFormat("image-preloader-%d")
+                    .setDaemon(true)
+                    .build());
+
     private final String imagePackage;
-    private final Map<ImageSize, Map<String, Image>> imageCache;
-    private ImageSize defaultSize;
+    private final Map<ImageSize, ConcurrentMap<String, FutureTask<ImageIcon>>> iconCache;
+    private volatile ImageSize defaultSize;
 
     /**
      * Default constructor.
@@ -39,10 +72,9 @@ public abstract class ImageManager {
      */
     protected ImageManager(String imagePackage) {
     	this.imagePackage = imagePackage;
-        imageCache = Maps.newHashMap();
+        iconCache = Maps.newEnumMap(ImageSize.class);
         for (ImageSize size: ImageSize.values()) {
-            Map<String, Image> sizeMap = Maps.newHashMap();
-            imageCache.put(size, sizeMap);
+            iconCache.put(size, Maps.<String, FutureTask<ImageIcon>>newConcurrentMap());
         }
 
         defaultSize = ImageSize.SMALL;
@@ -54,24 +86,73 @@ public abstract class ImageManager {
      * @return The requested image.
      */
     public Image getImage(String appImage) {
-        return getImage(defaultSize, appImage);
+        return getIcon(appImage).getImage();
     }
 
     /**
-     * Retrieve an image from the buffer.
+     * Retrieve an image from the buffer, as an icon. The icon is shared, and
+     * must not be modified.
+     * @param appImage Identifier for the desired image.
+     * @return The requested icon.
+     */
+    public ImageIcon getIcon(String appImage) {
+        return getIcon(defaultSize, appImage);
+    }
+
+    /**
+     * Retrieve an image from the buffer, as an icon.
      * @param size The size of the desired image.
      * @param appImage The image to load.
-     * @return The requested image.
+     * @return The requested icon.
      */
-    private Image getImage(ImageSize size, String appImage) {
-        Image image = imageCache.get(size).get(appImage);
-        if (image == null) {
-            // If this is the first time the client has requested this image,
+    private ImageIcon getIcon(final ImageSize size, final String appImage) {
+        final ConcurrentMap<String, FutureTask<ImageIcon>> sizeCache = iconCache.get(size);
+        FutureTask<ImageIcon> icon = sizeCache.get(appImage);
+        if (icon == null) {
+            // If this is the first time a client has requested this image,
             // we'll need to load it.
-            image = loadImage(size, appImage);
-            imageCache.get(size).put(appImage, image);
+            final FutureTask<ImageIcon> newIcon = new FutureTask<ImageIcon>(
+                    new Callable<ImageIcon>() {
+                        @Override
+                        public ImageIcon call() {
+                            return new ImageIcon(loadImage(size, appImage));
+                        }
+                    });
+            icon = sizeCache.putIfAbsent(appImage, newIcon);
+            if (icon == null) {
+                icon = newIcon;
+                icon.run();
+            }
+        }
+
+        try {
+            return icon.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(String.format(
+                    "Interrupted loading image [%s].", appImage), e);
+        } catch (ExecutionException e) {
+            // Forget the failure, so that the next request tries again.
+            sizeCache.remove(appImage, icon);
+            throw (e.getCause() instanceof RuntimeException)?
+                    (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Start decoding every image of the default size in the image package,
+     * in parallel, on background threads. Returns immediately.
+     */
+    public void preloadAll() {
+        final ImageSize size = defaultSize;
+        for (final String appImage: listImages(size)) {
+            preloader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    getIcon(size, appImage);
+                }
+            });
         }
-        return image;
     }
 
     /**
@@ -81,9 +162,8 @@ public abstract class ImageManager {
      * @return The loaded image.
      */
     private Image loadImage(ImageSize size, String appImage) {
-        final String path = String.format("%s/%s/%s.png",
-                imagePackage, size.toString().toLowerCase(),
-                appImage.toString().toLowerCase().replaceAll("_", "-"));
+        final String path = String.format("%s/%s%s", getSizePath(size),
+                appImage.toString().toLowerCase().replaceAll("_", "-"), IMAGE_EXTENSION);
         try {
             return ImageIO.read(getClass().getResource(path));
         } catch (Exception e) {
@@ -94,6 +174,62 @@ public abstract class ImageManager {
         }
     }
 
+    private String getSizePath(ImageSize size) {
+        return String.format("%s/%s", imagePackage, size.toString().toLowerCase());
+    }
+
+    /**
+     * @return The identifiers of every image of the default size in the
+     *         image package.
+     */
+    public List<String> listImages() {
+        return listImages(defaultSize);
+    }
+
+    /**
+     * List the images of a particular size in the image package, whether it
+     * is a directory or part of a JAR file.
+     * @param size The size of the images.
+     * @return The identifiers of the images.
+     */
+    private List<String> listImages(ImageSize size) {
+        final URL dirUrl = getClass().getResource(getSizePath(size) + "/");
+        if (dirUrl == null) {
+            return Collections.emptyList();
+        }
+
+        final List<String> fileNames = Lists.newArrayList();
+        try {
+            if ("jar".equals(dirUrl.getProtocol())) {
+                final JarURLConnection connection = (JarURLConnection) dirUrl.openConnection();
+                final String prefix = connection.getEntryName();
+                final JarFile jarFile = connection.getJarFile();
+                for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                    final String name = entries.nextElement().getName();
+                    if (name.startsWith(prefix) && name.indexOf('/', prefix.length()) == -1) {
+                        fileNames.add(name.substring(prefix.length()));
+                    }
+                }
+            } else {
+                final String[] names = new File(dirUrl.toURI()).list();
+                if (names != null) {
+                    Collections.addAll(fileNames, names);
+                }
+            }
+        } catch (Exception e) {
+            // Preloading is an optimization; images will still load on demand.
+            return Collections.emptyList();
+        }
+
+        final List<String> appImages = Lists.newArrayListWithCapacity(fileNames.size());
+        for (String fileName: fileNames) {
+            if (fileName.endsWith(IMAGE_EXTENSION)) {
+                appImages.add(fileName.substring(0, fileName.length() - IMAGE_EXTENSION.length()));
+            }
+        }
+        return appImages;
+    }
+
     public void setDefaultSize(ImageSize defaultSize) {
         this.defaultSize = defaultSize;
     }
@@ -0,0 +1,111 @@
+/**
+ * Kuebiko - NoteEventBusTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import dmh.kuebiko.controller.NoteEvent.Type;
+import dmh.kuebiko.model.Note;
+import dmh.kuebiko.test.TestHelper;
+
+/**
+ * TestNG test class for the NoteEventBus class.
+ * @see dmh.kuebiko.controller.NoteEventBus
+ *
+ * @author davehuffman
+ */
+public class NoteEventBusTest {
+    /** Listener that records every batch it receives. */
+    private static class RecordingListener implements NoteListener {
+        final List<List<NoteEvent>> batches = Lists.newArrayList();
+
+        @Override
+        public void notesChanged(List<NoteEvent> events) {
+            batches.add(events);
+        }
+    }
+
+    /** Executor that holds tasks until told to run them. */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = Lists.newArrayList();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            final List<Runnable> toRun = Lists.newArrayList(tasks);
+            tasks.clear();
+            for (Runnable task: toRun) {
+                task.run();
+            }
+        }
+    }
+
+    @Test
+    public void coalesceTest() {
+        final Note a = TestHelper.newDummyNote("a", "");
+        final Note b = TestHelper.newDummyNote("b", "");
+        final Queue<NoteEvent> queue = Lists.newLinkedList();
+        queue.add(new NoteEvent(Type.UPDATED, a));
+        queue.add(new NoteEvent(Type.UPDATED, b));
+        queue.add(new NoteEvent(Type.UPDATED, a));
+        queue.add(new NoteEvent(Type.DELETED, a));
+        queue.add(new NoteEvent(Type.UPDATED, b));
+
+        final List<NoteEvent> events = NoteEventBus.coalesce(queue);
+        assertEquals(events.size(), 3);
+        assertEquals(events.get(0).getType(), Type.UPDATED);
+        assertEquals(events.get(0).getNotes().size(), 2, "Duplicate notes should be merged.");
+        assertEquals(events.get(1).getType(), Type.DELETED);
+        assertEquals(events.get(2).getType(), Type.UPDATED);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void batchDeliveryTest() {
+        final ManualExecutor executor = new ManualExecutor();
+        final NoteEventBus bus = new NoteEventBus(executor);
+        final RecordingListener listener = new RecordingListener();
+        bus.addListener(listener);
+
+        for (int i = 0; i < 10; i++) {
+            bus.post(new NoteEvent(Type.ADDED, TestHelper.newDummyNote("n" + i, "")));
+        }
+        assertEquals(executor.tasks.size(), 1, "Only one delivery should be scheduled.");
+        executor.runAll();
+        assertEquals(listener.batches.size(), 1);
+        assertEquals(listener.batches.get(0).size(), 1);
+        assertEquals(listener.batches.get(0).get(0).getNotes().size(), 10);
+
+        // Later events are delivered in a new batch.
+        bus.post(new NoteEvent(Type.SAVED, Lists.<Note>newArrayList()));
+        executor.runAll();
+        assertEquals(listener.batches.size(), 2);
+    }
+
+    @Test
+    public void removeListenerTest() {
+        final NoteEventBus bus = new NoteEventBus(MoreExecutors.sameThreadExecutor());
+        final RecordingListener listener = new RecordingListener();
+        bus.addListener(listener);
+        bus.post(new NoteEvent(Type.SAVED, Lists.<Note>newArrayList()));
+        bus.removeListener(listener);
+        bus.post(new NoteEvent(Type.SAVED, Lists.<Note>newArrayList()));
+        assertEquals(listener.batches.size(), 1);
+    }
+}
@@ -10,7 +10,15 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import java.awt.EventQueue;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 import org.testng.annotations.Test;
@@ -18,8 +26,13 @@ import org.testng.annotations.Test;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
+import dmh.kuebiko.model.InMemoryNoteDao;
 import dmh.kuebiko.model.Note;
+import dmh.kuebiko.model.NoteDao;
+import dmh.kuebiko.model.PersistenceException;
 import dmh.kuebiko.test.TestHelper;
+import dmh.kuebiko.util.NoteTitleFunction;
+import dmh.util.Callback;
 
 /**
  * TestNG test class for the NoteManager controller class.
@@ -185,6 +198,258 @@ public class NoteManagerTest {
                 "The stack should be empty after saving.");
     }
     
+    @Test
+    public void deleteNotesTest() {
+        final NoteManager noteMngr = TestHelper.newNoteManager(
+                TestHelper.newDummyNote("a", ""), TestHelper.newDummyNote("b", ""),
+                TestHelper.newDummyNote("c", ""), TestHelper.newDummyNote("d", ""));
+        final int changeCount = noteMngr.getChangeCount();
+
+        final List<Note> notes = noteMngr.getNotes();
+        noteMngr.deleteNotes(Lists.newArrayList(notes.get(0), notes.get(2)));
+
+        assertEquals(noteMngr.getNoteTitles(), Lists.newArrayList("b", "d"));
+        assertEquals(noteMngr.getChangeCount(), changeCount + 1,
+                "A batch delete should be a single change.");
+        assertFalse(noteMngr.getTitleIndex().contains("a"));
+
+        doSaveAll(noteMngr);
+        assertEquals(noteMngr.getNoteTitles(), Lists.newArrayList("b", "d"));
+    }
+
+    @Test
+    public void addNoteTagsTest() {
+        final NoteManager noteMngr = TestHelper.newNoteManager(
+                TestHelper.newDummyNote("a", ""), TestHelper.newDummyNote("b", ""),
+                TestHelper.newDummyNote("c", ""));
+        final List<Note> notes = noteMngr.getNotes();
+        notes.get(0).getText();
+        noteMngr.setNoteTags(notes.get(0), Lists.newArrayList("old", "new"));
+
+        noteMngr.addNoteTags(Lists.newArrayList(notes.get(0), notes.get(1)),
+                Lists.newArrayList("new #batch"));
+
+        assertEquals(notes.get(0).getTags(), Lists.newArrayList("old", "new", "batch"));
+        assertEquals(notes.get(1).getTags(), Lists.newArrayList("new", "batch"));
+        assertTrue(notes.get(2).getTags().isEmpty());
+        assertEquals(noteMngr.getTagIndex().getNoteCount("batch"), 2);
+
+        doSaveAll(noteMngr);
+        assertEquals(noteMngr.getNotes().get(1).getTags(), Lists.newArrayList("new", "batch"));
+    }
+
+    @Test
+    public void renameNoteTest() throws Exception {
+        final NoteManager noteMngr = TestHelper.newNoteManager(
+                TestHelper.newDummyNote("foo", ""), TestHelper.newDummyNote("bar", ""));
+        final Note note = noteMngr.getNotes().get(0);
+        final int changeCount = noteMngr.getChangeCount();
+
+        final List<Note> renamedNotes = Lists.newArrayList();
+        final CountDownLatch renamed = new CountDownLatch(1);
+        noteMngr.getEventBus().addListener(new NoteListener() {
+            @Override
+            public void notesChanged(List<NoteEvent> events) {
+                for (NoteEvent event: events) {
+                    if (event.getType() == NoteEvent.Type.RENAMED) {
+                        renamedNotes.addAll(event.getNotes());
+                        renamed.countDown();
+                    }
+                }
+            }
+        });
+        noteMngr.getFrecencyTracker().recordVisit("foo");
+        noteMngr.renameNote(note, "baz");
+        assertTrue(noteMngr.getFrecencyTracker().getScore("baz") > 0,
+                "Renamed note should keep its visit history.");
+        assertEquals(noteMngr.getFrecencyTracker().getScore("foo"), 0d);
+        assertTrue(renamed.await(5, TimeUnit.SECONDS), "Rename should be published.");
+        assertEquals(getOnlyElement(renamedNotes), note);
+        assertEquals(note.getTitle(), "baz");
+        assertTrue(noteMngr.getTitleIndex().contains("baz"));
+        assertFalse(noteMngr.getTitleIndex().contains("foo"));
+        assertEquals(noteMngr.getChangeCount(), changeCount + 1);
+        assertEquals(noteMngr.getSearcher().searchTitles("baz").cardinality(), 1);
+
+        doSaveAll(noteMngr);
+        assertEquals(Sets.newHashSet(noteMngr.getNoteTitles()), Sets.newHashSet("bar", "baz"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void renameNoteDuplicateTitleTest() {
+        final NoteManager noteMngr = TestHelper.newNoteManager(
+                TestHelper.newDummyNote("foo", ""), TestHelper.newDummyNote("bar", ""));
+        noteMngr.renameNote(noteMngr.getNotes().get(0), "bar");
+    }
+
+    @Test
+    public void loadInBackgroundTest() throws Exception {
+        final NoteDao noteDao = TestHelper.newDummyNoteDao();
+        // The stack is loaded in title order.
+        final List<String> titles = Lists.newArrayList(Lists.transform(noteDao.readNotes(),
+                NoteTitleFunction.getInstance()));
+        Collections.sort(titles, String.CASE_INSENSITIVE_ORDER);
+        final NoteManager noteMngr = new NoteManager(noteDao, false);
+        assertTrue(noteMngr.isEmpty());
+        assertFalse(noteMngr.isLoading());
+
+        final List<Integer> batchSizes = Lists.newArrayList();
+        final CountDownLatch done = new CountDownLatch(1);
+        EventQueue.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                noteMngr.loadInBackground(2, new Callback<List<Note>>() {
+                    @Override
+                    public void callback(List<Note> batch) {
+                        batchSizes.add(batch.size());
+                        if (!noteMngr.isLoading()) {
+                            done.countDown();
+                        }
+                    }
+                }, new Callback<DataStoreException>() {
+                    @Override
+                    public void callback(DataStoreException failure) {
+                        throw failure;
+                    }
+                });
+                assertTrue(noteMngr.isLoading());
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(noteMngr.getNoteTitles(), titles);
+        assertEquals(batchSizes.size(), (titles.size() + 1) / 2);
+        for (String title: titles) {
+            assertTrue(noteMngr.doesNoteExist(title));
+        }
+        assertFalse(noteMngr.hasUnsavedChanges());
+    }
+
+    @Test
+    public void loadInBackgroundFailureTest() throws Exception {
+        final NoteDao noteDao = (NoteDao) Proxy.newProxyInstance(NoteDao.class.getClassLoader(),
+                new Class<?>[] { NoteDao.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    throws PersistenceException {
+                        if (method.getName().equals("readNotes")) {
+                            throw new PersistenceException("Could not read the stack.");
+                        }
+                        return null;
+                    }
+                });
+        final NoteManager noteMngr = new NoteManager(noteDao, false);
+
+        final List<DataStoreException> failures = Lists.newArrayList();
+        final AtomicBoolean loaded = new AtomicBoolean(false);
+        final CountDownLatch done = new CountDownLatch(1);
+        EventQueue.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                noteMngr.loadInBackground(2, new Callback<List<Note>>() {
+                    @Override
+                    public void callback(List<Note> batch) {
+                        loaded.set(true);
+                    }
+                }, new Callback<DataStoreException>() {
+                    @Override
+                    public void callback(DataStoreException failure) {
+                        failures.add(failure);
+                        done.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(failures.size(), 1);
+        assertTrue(failures.get(0).getCause() instanceof PersistenceException);
+        assertFalse(loaded.get(), "No batch should be published.");
+        assertFalse(noteMngr.isLoading());
+        assertTrue(noteMngr.isEmpty());
+    }
+
+    @Test
+    public void autosaveNoteTest() throws Exception {
+        final NoteDao noteDao = TestHelper.newDummyNoteDao();
+        final NoteManager noteMngr = new NoteManager(noteDao);
+        final Note note = noteMngr.getNoteAt(0);
+        final String newText = "something different";
+        note.setText(newText);
+        assertTrue(noteMngr.hasUnsavedChanges());
+
+        final CountDownLatch updated = new CountDownLatch(1);
+        noteMngr.getEventBus().addListener(new NoteListener() {
+            @Override
+            public void notesChanged(List<NoteEvent> events) {
+                for (NoteEvent event: events) {
+                    if (event.getType() == NoteEvent.Type.UPDATED) {
+                        updated.countDown();
+                    }
+                }
+            }
+        });
+        noteMngr.autosaveNote(note);
+        assertTrue(updated.await(5, TimeUnit.SECONDS));
+        noteMngr.awaitSaves();
+
+        assertFalse(note.isDirty());
+        assertFalse(noteMngr.hasUnsavedChanges());
+        assertEquals(noteMngr.getNoteCount(), noteDao.readNotes().size());
+        for (Note savedNote: noteDao.readNotes()) {
+            if (savedNote.getTitle().equals(note.getTitle())) {
+                assertEquals(savedNote.getText(), newText, "Autosaved note should have the new text.");
+            }
+        }
+    }
+
+    @Test
+    public void saveInBackgroundTest() throws Exception {
+        // Simulate the user typing while a note is being written.
+        final NoteDao noteDao = new InMemoryNoteDao() {
+            @Override
+            public Note persistActionUpdate(Note updatedNote) {
+                updatedNote.setText("typed during save");
+                return super.persistActionUpdate(updatedNote);
+            }
+        };
+        noteDao.addNote(TestHelper.newDummyNote("foo", "bar"));
+        final NoteManager noteMngr = new NoteManager(noteDao);
+        final Note editedNote = noteMngr.getNoteAt(0);
+        editedNote.setText("saved text");
+
+        final AtomicBoolean succeeded = new AtomicBoolean(false);
+        final CountDownLatch done = new CountDownLatch(1);
+        EventQueue.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                noteMngr.addNewNote("new note");
+                noteMngr.saveInBackground(new Callback<Boolean>() {
+                    @Override
+                    public void callback(Boolean saved) {
+                        succeeded.set(saved);
+                        done.countDown();
+                    }
+                });
+                assertTrue(noteMngr.isSaving());
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(succeeded.get());
+        assertFalse(noteMngr.isSaving());
+
+        // The edit made during the save is still waiting to be saved.
+        assertTrue(editedNote.isDirty());
+        assertEquals(editedNote.getText(), "typed during save");
+        assertTrue(noteMngr.hasUnsavedChanges());
+
+        // The new note was replaced by the saved one.
+        final Note newNote = noteMngr.getNoteAt(noteMngr.getNoteCount() - 1);
+        assertEquals(newNote.getTitle(), "new note");
+        assertFalse(newNote.isNew());
+        assertTrue(newNote.isClean());
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class)
     public void deleteNonexistantNoteTest() {
         final NoteManager noteMngr = TestHelper.newNoteManager(
@@ -0,0 +1,86 @@
+/**
+ * Kuebiko - NoteQueryTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+import dmh.kuebiko.test.TestHelper;
+
+/**
+ * TestNG test class for the NoteQuery class.
+ * @see dmh.kuebiko.controller.NoteQuery
+ *
+ * @author davehuffman
+ */
+public class NoteQueryTest {
+    /**
+     * Run a query, and return the titles of the matching notes.
+     */
+    private static List<String> run(NoteManager noteMngr, String query) {
+        final BitSet matches = NoteQuery.parse(query).execute(noteMngr);
+        final List<String> titles = Lists.newArrayList();
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            titles.add(noteMngr.getNoteAt(i).getTitle());
+        }
+        return titles;
+    }
+
+    @Test
+    public void isQueryTest() {
+        assertFalse(NoteQuery.isQuery("Darth Vader"), "Plain text is a title search.");
+        assertFalse(NoteQuery.isQuery("Obi-Wan - Kenobi"), "Hyphens alone are not negation.");
+        assertTrue(NoteQuery.isQuery("#rebel"));
+        assertFalse(NoteQuery.isQuery("-Vader"), "Negation needs a known term.");
+        assertFalse(NoteQuery.isQuery("# of droids"), "A tag prefix needs a tag.");
+        assertTrue(NoteQuery.isQuery("-#empire"));
+        assertTrue(NoteQuery.isQuery("Vader -tag:jedi"));
+        assertTrue(NoteQuery.isQuery("\"Darth Vader\""));
+        assertTrue(NoteQuery.isQuery("star modified:>2013-01-01"));
+    }
+
+    @Test
+    public void executeTest() {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        noteMngr.setNoteTags(noteMngr.getNoteAt(0), Arrays.asList("rebel", "jedi"));
+        noteMngr.setNoteTags(noteMngr.getNoteAt(1), Arrays.asList("rebel"));
+        noteMngr.setNoteTags(noteMngr.getNoteAt(3), Arrays.asList("rebel"));
+
+        assertEquals(run(noteMngr, "#rebel -tag:jedi"),
+                Arrays.asList("Han Solo", "Princess Leia"));
+        assertEquals(run(noteMngr, "tag:rebel \"prince\""), Arrays.asList("Princess Leia"),
+                "Phrases should match titles, ignoring case.");
+        assertEquals(run(noteMngr, "title:a -#rebel -c3po -yoda"),
+                Arrays.asList("Jabba the Hutt", "Darth Vader", "Chewbacca"));
+        assertEquals(run(noteMngr, "-#sith").size(), noteMngr.getNoteCount(),
+                "Negating an unknown tag should match everything.");
+    }
+
+    @Test
+    public void dateTest() {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        final int count = noteMngr.getNoteCount();
+
+        // The dummy notes were all just saved.
+        assertEquals(run(noteMngr, "modified:>=2013-01-01").size(), count);
+        assertEquals(run(noteMngr, "modified:<2013-01-01").size(), 0);
+        assertEquals(run(noteMngr, "-modified:<2013-01-01 yoda"), Arrays.asList("Yoda"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidDateTest() {
+        NoteQuery.parse("modified:>2013-13-45");
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Kuebiko - NoteSearcherTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.BitSet;
+
+import org.testng.annotations.Test;
+
+import dmh.kuebiko.test.TestHelper;
+
+/**
+ * TestNG test class for the NoteSearcher class.
+ * @see dmh.kuebiko.controller.NoteSearcher
+ *
+ * @author davehuffman
+ */
+public class NoteSearcherTest {
+    @Test
+    public void searchTitlesTest() {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        final NoteSearcher searcher = noteMngr.getSearcher();
+
+        final BitSet result = searcher.searchTitles("a");
+        for (int i = 0; i < noteMngr.getNoteCount(); i++) {
+            assertEquals(result.get(i), noteMngr.getNoteAt(i).getTitle().contains("a"),
+                    "Result should contain exactly the matching notes.");
+        }
+    }
+
+    @Test
+    public void refinementTest() {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        final NoteSearcher searcher = noteMngr.getSearcher();
+
+        final BitSet broad = searcher.searchTitles("a");
+        final BitSet narrow = searcher.searchTitles("Da");
+        assertEquals(narrow.cardinality(), 1, "Only one note should match.");
+        assertTrue(noteMngr.getNoteAt(narrow.nextSetBit(0)).getTitle().equals("Darth Vader"),
+                "The matching note should be the expected note.");
+
+        final BitSet intersection = (BitSet) narrow.clone();
+        intersection.and(broad);
+        assertEquals(intersection, narrow, "Refined result should be a subset.");
+
+        assertSame(searcher.searchTitles("a"), broad,
+                "A repeated query should be served from the cache.");
+    }
+
+    @Test
+    public void ignoreCaseTest() {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        final NoteSearcher searcher = noteMngr.getSearcher();
+
+        assertTrue(searcher.searchTitles("darth").isEmpty(),
+                "Case sensitive search should respect case.");
+        final BitSet result = searcher.searchTitles("dARTH", true);
+        assertEquals(result.cardinality(), 1, "Only one note should match.");
+        assertEquals(noteMngr.getNoteAt(result.nextSetBit(0)).getTitle(), "Darth Vader",
+                "The matching note should be the expected note.");
+        assertSame(searcher.searchTitles("Darth", true), result,
+                "Queries differing only in case should share a cache entry.");
+    }
+
+    @Test
+    public void invalidationTest() {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        final NoteSearcher searcher = noteMngr.getSearcher();
+
+        final BitSet before = searcher.searchTitles("Boba");
+        assertTrue(before.isEmpty(), "Nothing should match yet.");
+
+        noteMngr.addNewNote("Boba Fett");
+        final BitSet after = searcher.searchTitles("Boba");
+        assertNotSame(after, before, "Cache should be invalidated by changes.");
+        assertFalse(after.isEmpty(), "The new note should match.");
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Kuebiko - QuickSwitchSearchTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * TestNG test class for the QuickSwitchSearch class, and the fuzzy matching
+ * and frecency tracking it depends on.
+ * @see dmh.kuebiko.controller.QuickSwitchSearch
+ *
+ * @author davehuffman
+ */
+public class QuickSwitchSearchTest {
+    private static final List<String> TITLES = Arrays.asList(
+            "Darth Vader", "Luke Skywalker", "Leia Organa", "Lando Calrissian",
+            "Death Star Plans");
+
+    @Test
+    public void fuzzyMatchTest() {
+        final FuzzyMatcher matcher = new FuzzyMatcher("dv");
+        assertTrue(matcher.score("Darth Vader") != FuzzyMatcher.NO_MATCH,
+                "Subsequence should match, ignoring case.");
+        assertEquals(matcher.score("Luke Skywalker"), FuzzyMatcher.NO_MATCH,
+                "Non-subsequence should not match.");
+        assertTrue(matcher.score("Darth Vader") > matcher.score("Death Star Plans V"),
+                "Word start matches should score higher.");
+    }
+
+    @Test
+    public void searchTest() {
+        final QuickSwitchSearch search = new QuickSwitchSearch(TITLES,
+                Collections.<String, Double>emptyMap());
+
+        final List<String> results = search.search("lsk", 10);
+        assertEquals(results, Arrays.asList("Luke Skywalker"),
+                "Only the matching title should be returned.");
+        assertEquals(search.search("", 2).size(), 2, "Results should be limited.");
+    }
+
+    @Test
+    public void frecencyRankTest() {
+        final FrecencyTracker tracker = new FrecencyTracker(null);
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            tracker.recordVisit("Lando Calrissian", now);
+        }
+        tracker.recordVisit("Leia Organa", now - (long) (4 * FrecencyTracker.HALF_LIFE));
+
+        final Map<String, Double> snapshot = tracker.snapshot();
+        assertTrue(snapshot.get("Leia Organa") < snapshot.get("Lando Calrissian"),
+                "Old visits should decay.");
+
+        final List<String> results = new QuickSwitchSearch(TITLES, snapshot).search("l", 10);
+        assertEquals(results.get(0), "Lando Calrissian",
+                "The most visited note should rank first.");
+    }
+}
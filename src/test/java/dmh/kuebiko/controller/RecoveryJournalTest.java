@@ -0,0 +1,81 @@
+/**
+ * Kuebiko - RecoveryJournalTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+/**
+ * TestNG test class for the RecoveryJournal class.
+ * @see dmh.kuebiko.controller.RecoveryJournal
+ *
+ * @author davehuffman
+ */
+public class RecoveryJournalTest {
+    private static File newJournalFile() {
+        final File dir = Files.createTempDir();
+        dir.deleteOnExit();
+        final File file = new File(dir, RecoveryJournal.FILE_NAME);
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void recoverTest() throws Exception {
+        final File file = newJournalFile();
+        final RecoveryJournal journal = new RecoveryJournal(file);
+        assertFalse(journal.isTracking("foo"));
+
+        journal.recordBase("foo", "hello");
+        assertTrue(journal.isTracking("foo"));
+        journal.recordInsert(5, " world");
+        journal.recordRemove(0, 1);
+        journal.recordBase("bar", "x");
+        journal.recordInsert(0, "y");
+        journal.flushAndWait();
+
+        final Map<String, String> expected = ImmutableMap.of("foo", "ello world", "bar", "yx");
+        assertEquals(new RecoveryJournal(file).recover(), expected);
+
+        // An entry cut short by a crash is ignored.
+        final FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] { 2, 0, 0 });
+        out.close();
+        assertEquals(new RecoveryJournal(file).recover(), expected);
+    }
+
+    @Test
+    public void clearTest() throws Exception {
+        final File file = newJournalFile();
+        final RecoveryJournal journal = new RecoveryJournal(file);
+        journal.recordBase("foo", "hello");
+        journal.flushAndWait();
+        assertEquals(journal.recover().size(), 1);
+
+        journal.clear();
+        assertFalse(journal.isTracking("foo"));
+        journal.flushAndWait();
+        assertTrue(journal.recover().isEmpty());
+
+        // Recovered notes are rewritten, so that they can be recovered again.
+        journal.rewrite(ImmutableMap.of("bar", "baz"));
+        journal.flushAndWait();
+        assertEquals(journal.recover(), ImmutableMap.of("bar", "baz"));
+
+        journal.close();
+        assertFalse(file.exists());
+    }
+}
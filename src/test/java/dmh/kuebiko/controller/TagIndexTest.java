@@ -0,0 +1,77 @@
+/**
+ * Kuebiko - TagIndexTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.testng.annotations.Test;
+
+import dmh.kuebiko.test.TestHelper;
+
+/**
+ * TestNG test class for the TagIndex class.
+ * @see dmh.kuebiko.controller.TagIndex
+ *
+ * @author davehuffman
+ */
+public class TagIndexTest {
+    /**
+     * @return A note manager for the dummy notes, where the first four notes
+     *         are tagged "rebel" and every other note is tagged "pilot".
+     */
+    private static NoteManager newTaggedNoteManager() {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        for (int i = 0; i < noteMngr.getNoteCount(); i++) {
+            noteMngr.setNoteTags(noteMngr.getNoteAt(i), Arrays.asList(
+                    (i < 4)? "rebel" : "", (i % 2 == 0)? "pilot" : ""));
+        }
+        return noteMngr;
+    }
+
+    private static BitSet bits(int... indices) {
+        final BitSet bits = new BitSet();
+        for (int index: indices) {
+            bits.set(index);
+        }
+        return bits;
+    }
+
+    @Test
+    public void normalizeTest() {
+        assertEquals(TagIndex.normalize(Arrays.asList(" #a  b", "a", null, "c")),
+                Arrays.asList("a", "b", "c"),
+                "Tags should be split, stripped and de-duplicated.");
+    }
+
+    @Test
+    public void findTest() {
+        final TagIndex tagIndex = newTaggedNoteManager().getTagIndex();
+
+        assertEquals(tagIndex.getNoteCount("rebel"), 4);
+        assertEquals(tagIndex.find("pilot"), bits(0, 2, 4, 6));
+        assertEquals(tagIndex.findAny(Arrays.asList("rebel", "pilot")),
+                bits(0, 1, 2, 3, 4, 6), "Any tag should match.");
+        assertTrue(tagIndex.find("jedi").isEmpty(), "Unknown tags match nothing.");
+    }
+
+    @Test
+    public void invalidationTest() {
+        final NoteManager noteMngr = newTaggedNoteManager();
+        final TagIndex before = noteMngr.getTagIndex();
+        assertSame(noteMngr.getTagIndex(), before, "Index should be reused.");
+
+        noteMngr.setNoteTags(noteMngr.getNoteAt(7), Arrays.asList("rebel"));
+        final TagIndex after = noteMngr.getTagIndex();
+        assertNotSame(after, before, "Index should be rebuilt after tags change.");
+        assertEquals(after.getNoteCount("rebel"), 5);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Kuebiko - TaskSchedulerTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+import dmh.kuebiko.controller.TaskScheduler.CancellationToken;
+import dmh.kuebiko.controller.TaskScheduler.Lane;
+import dmh.kuebiko.controller.TaskScheduler.Task;
+
+/**
+ * TestNG test class for the TaskScheduler class.
+ * @see dmh.kuebiko.controller.TaskScheduler
+ *
+ * @author davehuffman
+ */
+public class TaskSchedulerTest {
+    private static final long TIMEOUT = 5000;
+
+    /** Task that blocks until released. */
+    private static class BlockingTask implements Task {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void run(CancellationToken token) throws Exception {
+            started.countDown();
+            release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Task that records the order it ran in. */
+    private static class RecordingTask implements Task {
+        final List<String> log;
+        final String name;
+        final CountDownLatch done;
+
+        RecordingTask(List<String> log, String name, CountDownLatch done) {
+            this.log = log;
+            this.name = name;
+            this.done = done;
+        }
+
+        @Override
+        public void run(CancellationToken token) {
+            synchronized (log) {
+                log.add(name);
+            }
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void priorityTest() throws Exception {
+        final TaskScheduler scheduler = new TaskScheduler(0);
+        final BlockingTask blocker = new BlockingTask();
+        scheduler.submit(Lane.SAVE, blocker);
+        assertTrue(blocker.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // The save lane is full, so the next save waits, and holds back the
+        // lower priority lanes.
+        final List<String> log = Lists.newArrayList();
+        final CountDownLatch done = new CountDownLatch(2);
+        scheduler.submit(Lane.SAVE, new RecordingTask(log, "save", done));
+        scheduler.submit(Lane.BACKGROUND, new RecordingTask(log, "background", done));
+        assertEquals(scheduler.getQueuedCount(Lane.SAVE), 1);
+        assertEquals(scheduler.getQueuedCount(Lane.BACKGROUND), 1,
+                "Background tasks should wait for the save backlog.");
+
+        blocker.release.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(log.size(), 2);
+    }
+
+    @Test
+    public void concurrencyLimitTest() throws Exception {
+        final TaskScheduler scheduler = new TaskScheduler(0);
+        final BlockingTask first = new BlockingTask();
+        final BlockingTask second = new BlockingTask();
+        final BlockingTask third = new BlockingTask();
+        scheduler.submit(Lane.INTERACTIVE, first);
+        scheduler.submit(Lane.INTERACTIVE, second);
+        scheduler.submit(Lane.INTERACTIVE, third);
+        assertTrue(first.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(second.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(scheduler.getQueuedCount(Lane.INTERACTIVE), 1,
+                "Only two interactive tasks should run at once.");
+
+        first.release.countDown();
+        assertTrue(third.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        second.release.countDown();
+        third.release.countDown();
+    }
+
+    @Test
+    public void cancelTest() throws Exception {
+        final TaskScheduler scheduler = new TaskScheduler(0);
+        final BlockingTask blocker = new BlockingTask();
+        scheduler.submit(Lane.BACKGROUND, blocker);
+        assertTrue(blocker.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final CancellationToken token = scheduler.submit(Lane.BACKGROUND, new Task() {
+            @Override
+            public void run(CancellationToken token) {
+                ran.set(true);
+            }
+        });
+        token.cancel();
+        blocker.release.countDown();
+
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.submit(Lane.BACKGROUND, new RecordingTask(
+                Lists.<String>newArrayList(), "after", done));
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertFalse(ran.get(), "A cancelled task should never start.");
+    }
+
+    @Test
+    public void idleTest() throws Exception {
+        final TaskScheduler scheduler = new TaskScheduler(300);
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.recordActivity();
+        scheduler.submit(Lane.IDLE, new Task() {
+            @Override
+            public void run(CancellationToken token) {
+                runs.incrementAndGet();
+                done.countDown();
+            }
+        });
+        assertFalse(scheduler.isIdle());
+        assertEquals(scheduler.getQueuedCount(Lane.IDLE), 1,
+                "Idle tasks should wait while the user is active.");
+
+        // Once the user goes idle, the task runs.
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(scheduler.isIdle());
+        assertEquals(runs.get(), 1);
+    }
+}
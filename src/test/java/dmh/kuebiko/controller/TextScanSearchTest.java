@@ -0,0 +1,65 @@
+/**
+ * Kuebiko - TextScanSearchTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+import dmh.kuebiko.controller.TextScanSearch.HitListener;
+import dmh.kuebiko.model.Note;
+import dmh.kuebiko.test.TestHelper;
+
+/**
+ * TestNG test class for the TextScanSearch class.
+ * @see dmh.kuebiko.controller.TextScanSearch
+ *
+ * @author davehuffman
+ */
+public class TextScanSearchTest {
+    @Test
+    public void scanTest() throws Exception {
+        final int noteCount = TextScanSearch.CHUNK_SIZE * 5 + 3;
+        final List<Note> notes = Lists.newArrayList();
+        for (int i = 0; i < noteCount; i++) {
+            notes.add(TestHelper.newDummyNote(String.format("note %d", i),
+                    (i % 7 == 0)? "The Needle" : "hay"));
+        }
+
+        final AtomicInteger reportedHits = new AtomicInteger();
+        final BitSet hits = new TextScanSearch(notes,
+                TextScanSearch.compileQuery("needle")).run(new HitListener() {
+                    @Override
+                    public void onHits(BitSet chunkHits, int scannedCount, int total) {
+                        reportedHits.addAndGet(chunkHits.cardinality());
+                        assertTrue(scannedCount <= total, "Progress should be bounded.");
+                    }
+                });
+
+        for (int i = 0; i < noteCount; i++) {
+            assertEquals(hits.get(i), i % 7 == 0, "Note should match iff it has the needle.");
+        }
+        assertEquals(reportedHits.get(), hits.cardinality(),
+                "Every hit should be reported to the listener.");
+    }
+
+    @Test
+    public void regexQueryTest() {
+        assertTrue(TextScanSearch.compileQuery("/ne+dle/").matcher("a NEEDLE").find(),
+                "Slash-wrapped queries should be regular expressions.");
+        assertTrue(TextScanSearch.compileQuery("a.b").matcher("xa.b").find(),
+                "Other queries should be matched literally.");
+        assertTrue(!TextScanSearch.compileQuery("a.b").matcher("axb").find(),
+                "Other queries should be matched literally.");
+    }
+}
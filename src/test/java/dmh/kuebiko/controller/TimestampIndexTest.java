@@ -0,0 +1,84 @@
+/**
+ * Kuebiko - TimestampIndexTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import dmh.kuebiko.model.Note;
+import dmh.kuebiko.test.TestHelper;
+
+/**
+ * TestNG test class for the TimestampIndex class.
+ * @see dmh.kuebiko.controller.TimestampIndex
+ *
+ * @author davehuffman
+ */
+public class TimestampIndexTest {
+    @Test
+    public void rangeTest() {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        final List<Note> notes = noteMngr.getNotes();
+        final TimestampIndex index = noteMngr.getModifiedIndex();
+        assertEquals(index.size(), notes.size(), "Every saved note should be indexed.");
+
+        // Check a range query against a brute force scan.
+        final long from = notes.get(2).getModifiedDate().getTime();
+        final long to = notes.get(5).getModifiedDate().getTime() + 1;
+        final BitSet expected = new BitSet();
+        for (int i = 0; i < notes.size(); i++) {
+            final long time = notes.get(i).getModifiedDate().getTime();
+            if (time >= from && time < to) {
+                expected.set(i);
+            }
+        }
+        assertEquals(index.range(from, to), expected);
+        assertEquals(index.count(from, to), expected.cardinality());
+        assertTrue(index.range(to, from).isEmpty(), "Empty ranges should match nothing.");
+    }
+
+    @Test
+    public void recentTest() throws InterruptedException {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        final Note yoda = noteMngr.getNoteAt(5);
+        assertEquals(yoda.getTitle(), "Yoda");
+
+        yoda.getText();
+        yoda.setText("Do or do not.");
+        final Date oldModifiedDate = yoda.getModifiedDate();
+        Thread.sleep(10); // Ensure the new modified date is distinct.
+        noteMngr.saveAll();
+        assertTrue(oldModifiedDate.getTime() < yoda.getModifiedDate().getTime());
+
+        final List<Note> recent = noteMngr.getRecentlyModifiedNotes(3);
+        assertEquals(recent.size(), 3);
+        assertEquals(recent.get(0).getTitle(), "Yoda",
+                "The last saved note should be the most recent.");
+        assertEquals(noteMngr.getModifiedIndex().range(
+                yoda.getModifiedDate().getTime(), Long.MAX_VALUE).nextSetBit(0), 5);
+    }
+
+    @Test
+    public void addTest() {
+        final NoteManager noteMngr = new NoteManager(TestHelper.newDummyNoteDao());
+        final TimestampIndex index = noteMngr.getCreatedIndex();
+        final int size = index.size();
+
+        noteMngr.addNewNote("Boba Fett");
+        assertEquals(noteMngr.getCreatedIndex().size(), size + 1,
+                "The new note should be indexed by its create date.");
+        final BitSet latest = noteMngr.getCreatedIndex().range(
+                noteMngr.getNoteAt(noteMngr.getNoteCount() - 1).getCreateDate().getTime(),
+                Long.MAX_VALUE);
+        assertTrue(latest.get(noteMngr.getNoteCount() - 1));
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Kuebiko - TitleIndexTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+/**
+ * TestNG test class for the TitleIndex class.
+ * @see dmh.kuebiko.controller.TitleIndex
+ *
+ * @author davehuffman
+ */
+public class TitleIndexTest {
+    private static TitleIndex newIndex(String... titles) {
+        final TitleIndex index = new TitleIndex();
+        index.reset(Arrays.asList(titles));
+        return index;
+    }
+
+    @Test
+    public void containsTest() {
+        final TitleIndex index = newIndex("Yoda", "Han Solo", "Chewbacca");
+
+        assertTrue(index.contains("Yoda"), "Index should contain indexed title.");
+        assertFalse(index.contains("yoda"), "Existence checks should respect case.");
+        assertFalse(index.contains("Boba Fett"), "Index should not contain other titles.");
+
+        index.add("Boba Fett");
+        assertTrue(index.contains("Boba Fett"), "Index should contain added title.");
+
+        assertTrue(index.remove("Yoda"), "Removing an indexed title should succeed.");
+        assertFalse(index.contains("Yoda"), "Index should not contain removed title.");
+        assertEquals(index.size(), 3, "Index should have expected size.");
+    }
+
+    @Test
+    public void addAllTest() {
+        final TitleIndex index = newIndex("Darth Vader", "Han Solo");
+        index.addAll(Arrays.asList("dark side", null, "Yoda", "Admiral Ackbar",
+                NoteManager.DEFAULT_NOTE_TITLE + " 3"));
+        index.addAll(Arrays.asList("Zuckuss", "Han Solo"));
+
+        assertEquals(index.size(), 8, "Index should have expected size.");
+        assertEquals(index.prefixRange(""), Arrays.asList("Admiral Ackbar", "dark side",
+                "Darth Vader", "Han Solo", "Han Solo", NoteManager.DEFAULT_NOTE_TITLE + " 3",
+                "Yoda", "Zuckuss"), "Added titles should be merged in order.");
+        assertTrue(index.contains("Yoda"), "Index should contain added title.");
+        assertEquals(index.nextFreeSuffix(NoteManager.DEFAULT_NOTE_TITLE), 4,
+                "Added suffixes should be tracked.");
+    }
+
+    @Test
+    public void prefixRangeTest() {
+        final TitleIndex index = newIndex("Darth Vader", "dark side", "Han Solo",
+                "Darth Maul", "Death Star");
+
+        assertEquals(index.prefixRange("dar"),
+                Arrays.asList("dark side", "Darth Maul", "Darth Vader"),
+                "Prefix range should ignore case and be sorted.");
+        assertEquals(index.prefixRange("x").size(), 0, "Nothing should match.");
+        assertTrue(index.containsPrefix("Darth"), "Case sensitive prefix should exist.");
+        assertFalse(index.containsPrefix("darth"), "Case sensitive prefix should not exist.");
+    }
+
+    @Test
+    public void nextFreeSuffixTest() {
+        final String base = NoteManager.DEFAULT_NOTE_TITLE;
+        final TitleIndex index = newIndex(base);
+        assertEquals(index.nextFreeSuffix(base), 2, "Base title counts as 1.");
+
+        index.add(base + " 9");
+        index.add(base + " 10");
+        index.add(base + " 10");
+        assertEquals(index.nextFreeSuffix(base), 11, "Suffixes compare numerically.");
+
+        index.remove(base + " 10");
+        assertEquals(index.nextFreeSuffix(base), 11, "Duplicate suffix should remain.");
+        index.remove(base + " 10");
+        assertEquals(index.nextFreeSuffix(base), 10, "Removed suffix should be free.");
+    }
+}
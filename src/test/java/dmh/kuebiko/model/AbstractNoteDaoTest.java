@@ -11,12 +11,17 @@ import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
 import org.testng.TestException;
 import org.testng.annotations.Test;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -336,6 +341,32 @@ public abstract class AbstractNoteDaoTest {
         }
     }
 
+    /**
+     * Test the note DAO's behavior when updating a note whose changes were
+     * undone.
+     */
+    @Test
+    public void unchangedUpdateNoteTest() throws Exception {
+        final NoteDao noteDao = saveDummyNotes(1);
+        final Note note = Iterables.getOnlyElement(noteDao.readNotes());
+        final String origText = note.getText();
+        final Date origModifiedDate = note.getModifiedDate();
+
+        note.setText(origText + " Dolor sit amet.");
+        note.setText(origText);
+        assertTrue(note.isDirty(), "Note should be dirty.");
+        noteDao.updateNote(note);
+        assertFalse(note.isDirty(), "Note should no longer be dirty.");
+        assertEquals(note.getModifiedDate(), origModifiedDate,
+                "Note should not have been rewritten.");
+
+        // Changing only the tags still writes the note.
+        note.setTags(Arrays.asList("sit"));
+        noteDao.updateNote(note);
+        assertEquals(Iterables.getOnlyElement(noteDao.readNotes()).getTags(),
+                Arrays.asList("sit"), "Note should have new tags.");
+    }
+
     /**
      * Test the note DAO's behavior when no notes exist.
      */
@@ -354,4 +385,64 @@ public abstract class AbstractNoteDaoTest {
 
         checkIntegrity(noteDao, noteCount);
     }
+
+    /**
+     * Test reading notes a page at a time, with a filter and an order.
+     */
+    @Test
+    public void readNotesPagedTest() throws ValidationException, PersistenceException {
+        final int noteCount = 25;
+        final NoteDao noteDao = saveDummyNotes(noteCount);
+        final Predicate<Note> filter = new Predicate<Note>() {
+            @Override
+            public boolean apply(Note note) {
+                return note.getTitle().contains("1");
+            }
+        };
+
+        // The expected result, the slow way.
+        final List<Note> expected = Lists.newArrayList(
+                Collections2.filter(noteDao.readNotes(), filter));
+        Collections.sort(expected, NoteOrder.TITLE.comparator());
+        assertEquals(noteDao.countNotes(filter), expected.size());
+        assertEquals(noteDao.countNotes(null), noteCount);
+
+        final List<Note> paged = Lists.newArrayList();
+        NoteCursor cursor = null;
+        int pageCount = 0;
+        do {
+            final NotePage page = noteDao.readNotes(filter, NoteOrder.TITLE, cursor, 5);
+            assertTrue(page.getNotes().size() <= 5, "Pages should respect the limit.");
+            paged.addAll(page.getNotes());
+            cursor = page.getNext();
+            pageCount++;
+        } while (cursor != null);
+
+        assertEquals(paged, expected, "Pages should cover every match, in order.");
+        assertEquals(pageCount, (expected.size() + 4) / 5, "No empty trailing page.");
+    }
+
+    /**
+     * Test reading every note a page at a time, with the data store changing
+     * between pages.
+     */
+    @Test
+    public void readAllNotesPagedTest() throws ValidationException, PersistenceException {
+        final NoteDao noteDao = saveDummyNotes(12);
+        final List<Note> expected = Lists.newArrayList(noteDao.readNotes());
+        Collections.sort(expected, NoteOrder.TITLE.comparator());
+
+        final NotePage firstPage = noteDao.readNotes(null, NoteOrder.TITLE, null, 5);
+        assertEquals(firstPage.getNotes(), expected.subList(0, 5));
+        noteDao.deleteNote(expected.remove(expected.size() - 1));
+
+        final List<Note> paged = Lists.newArrayList(firstPage.getNotes());
+        NoteCursor cursor = firstPage.getNext();
+        while (cursor != null) {
+            final NotePage page = noteDao.readNotes(null, NoteOrder.TITLE, cursor, 5);
+            paged.addAll(page.getNotes());
+            cursor = page.getNext();
+        }
+        assertEquals(paged, expected, "Pages should cover every remaining note, in order.");
+    }
 }
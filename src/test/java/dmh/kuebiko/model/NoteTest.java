@@ -6,7 +6,9 @@ import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertTrue;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.testng.annotations.Test;
 
@@ -40,6 +42,31 @@ public class NoteTest {
         assertFalse(note.isDirty(), "Note should not be dirty after reset.");
     }
 
+    @Test
+    public void replaceTextTest() {
+        final AtomicInteger loadCount = new AtomicInteger();
+        final Note note = new Note(42, "Note", new Date(), new Date(),
+                Collections.<String>emptyList(), new NoteTextLazyLoader() {
+                    @Override
+                    public String loadText(Note note) {
+                        loadCount.incrementAndGet();
+                        return "foobar";
+                    }
+                });
+        assertEquals(note.getState(), State.HOLLOW, "Note should start hollow.");
+
+        note.replaceText("baz");
+        assertEquals(note.getState(), State.DIRTY, "Note should be dirty.");
+        assertEquals(note.getText(), "baz", "Note should have the new text.");
+        assertEquals(loadCount.get(), 1, "Hollow note should be loaded.");
+
+        // A saved note keeps its text, so it isn't read back to be replaced.
+        note.reset();
+        note.replaceText("qux");
+        assertEquals(note.getText(), "qux", "Reset note should have the new text.");
+        assertEquals(loadCount.get(), 1, "Reset note should not be loaded again.");
+    }
+
     @Test 
     void copyTest() {
         final Note origNote = newDummyNote();
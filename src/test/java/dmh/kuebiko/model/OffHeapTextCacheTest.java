@@ -0,0 +1,91 @@
+/**
+ * Kuebiko - OffHeapTextCacheTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Date;
+
+import org.apache.commons.lang.StringUtils;
+import org.testng.annotations.Test;
+
+/**
+ * TestNG test class for the OffHeapTextCache class.
+ * @see dmh.kuebiko.model.OffHeapTextCache
+ *
+ * @author davehuffman
+ */
+public class OffHeapTextCacheTest {
+    /** Loader that counts its loads, and returns text made from the note's title. */
+    private static class CountingLoader implements NoteTextLazyLoader {
+        private int loadCount = 0;
+
+        @Override
+        public String loadText(Note note) {
+            loadCount++;
+            return "Text of " + note.getTitle() + " é中";
+        }
+    }
+
+    private static Note newHollowNote(int id, String title, NoteTextLazyLoader loader) {
+        return new Note(id, title, null, new Date(), Collections.<String>emptyList(), loader);
+    }
+
+    @Test
+    public void loadTextTest() throws Exception {
+        final CountingLoader loader = new CountingLoader();
+        final OffHeapTextCache cache = new OffHeapTextCache(loader, 1);
+        final Note note = newHollowNote(1, "foo", cache);
+
+        assertEquals(note.getText(), "Text of foo é中");
+        assertEquals(loader.loadCount, 1);
+        assertEquals(cache.getMissCount(), 1);
+
+        // Once saved, the note lets go of its text, and reloads it from the cache.
+        note.setText("Multi-block " + StringUtils.repeat("x", OffHeapTextCache.BLOCK_SIZE * 3));
+        cache.put(note.getId(), note.getText());
+        note.reset();
+        assertEquals(note.getText(),
+                "Multi-block " + StringUtils.repeat("x", OffHeapTextCache.BLOCK_SIZE * 3));
+        assertEquals(loader.loadCount, 1);
+        assertEquals(cache.getHitCount(), 1);
+
+        cache.invalidate(note.getId());
+        assertNull(cache.get(note.getId()));
+    }
+
+    @Test
+    public void evictionTest() throws Exception {
+        final CountingLoader loader = new CountingLoader();
+        final OffHeapTextCache cache = new OffHeapTextCache(loader, 1);
+        final String blockText = StringUtils.repeat("y", OffHeapTextCache.BLOCK_SIZE);
+        final int capacity = OffHeapTextCache.SLAB_SIZE / OffHeapTextCache.BLOCK_SIZE;
+
+        // Fill the cache, then touch the first note so that it is kept.
+        for (int id = 1; id <= capacity; id++) {
+            cache.put(id, blockText);
+        }
+        assertEquals(cache.get(1), blockText);
+        cache.put(capacity + 1, blockText + "z");
+
+        assertEquals(cache.get(1), blockText);
+        assertNull(cache.get(2));
+        assertNull(cache.get(3));
+        assertEquals(cache.get(capacity + 1), blockText + "z");
+
+        // Text too large for the cache is not cached.
+        cache.put(capacity + 2, StringUtils.repeat("w", OffHeapTextCache.SLAB_SIZE + 1));
+        assertNull(cache.get(capacity + 2));
+        assertEquals(cache.get(1), blockText);
+
+        cache.clear();
+        assertNull(cache.get(1));
+        cache.put(1, "");
+        assertEquals(cache.get(1), "");
+    }
+}
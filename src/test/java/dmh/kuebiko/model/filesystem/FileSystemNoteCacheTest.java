@@ -0,0 +1,111 @@
+/**
+ * Kuebiko - FileSystemNoteCacheTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model.filesystem;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+import dmh.kuebiko.model.Note;
+
+/**
+ * TestNG test class for the FileSystemNoteCache class.
+ * @see dmh.kuebiko.model.filesystem.FileSystemNoteCache
+ *
+ * @author davehuffman
+ */
+public class FileSystemNoteCacheTest {
+    /** Records what the cache asked for, as the title of a plain note. */
+    private static final FileSystemNoteCache.NoteFactory NOTE_FACTORY =
+            new FileSystemNoteCache.NoteFactory() {
+                @Override
+                public Note newNote(int id, String title, Date modifiedDate, List<String> tags) {
+                    final Note note = new Note();
+                    note.setTitle(String.format("%d:%s:%s:%s", id, title,
+                            (modifiedDate == null)? null : modifiedDate.getTime(), tags));
+                    return note;
+                }
+            };
+
+    @Test
+    public void putAndRemoveTest() {
+        final File noteDir = new File("notes");
+        // Start too small, so that the columns have to grow.
+        final FileSystemNoteCache cache = new FileSystemNoteCache(noteDir, 1, NOTE_FACTORY);
+        cache.put(1, "foo", new Date(10), Arrays.asList("a", "b"));
+        cache.put(2, "bar", null, Collections.<String>emptyList());
+        cache.put(5, "baz", new Date(30), Arrays.asList("b"));
+
+        assertEquals(cache.getNotes().size(), 3);
+        assertEquals(cache.getFile(2), new File(noteDir, "bar.html"));
+        assertNull(cache.getFile(3));
+        assertEquals(cache.findId("baz"), 5);
+        assertEquals(cache.findId("qux"), 0);
+        assertEquals(cache.getNote(5).getTitle(), "5:baz:30:[b]");
+        assertEquals(cache.getNote(2).getTitle(), "2:bar:null:[]");
+        assertEquals(cache.getTagsByTitle(), ImmutableMap.of(
+                "foo", Arrays.asList("a", "b"), "baz", Arrays.asList("b")));
+
+        // Replacing a note doesn't change the count.
+        cache.put(1, "foo2", new Date(20), Collections.<String>emptyList());
+        assertEquals(cache.getNotes().size(), 3);
+        assertTrue(cache.getTags(1).isEmpty());
+        assertEquals(cache.findId("foo2"), 1);
+        assertEquals(cache.findId("foo"), 0);
+
+        cache.remove(2);
+        cache.remove(2);
+        assertFalse(cache.contains(2));
+        assertEquals(cache.findId("bar"), 0);
+        assertEquals(cache.getNotes().size(), 2);
+        assertEquals(Iterables.getLast(cache.getNotes()).getTitle(), "5:baz:30:[b]");
+        final Map<String, List<String>> tags = cache.getTagsByTitle();
+        assertEquals(tags, ImmutableMap.of("baz", Arrays.asList("b")));
+    }
+
+    @Test
+    public void findIdTest() {
+        final FileSystemNoteCache cache = new FileSystemNoteCache(
+                new File("notes"), 1, NOTE_FACTORY);
+        final List<String> none = Collections.emptyList();
+        // "Aa" and "BB" share a hash code, so they share a probe run.
+        cache.put(1, "Aa", null, none);
+        cache.put(2, "BB", null, none);
+        for (int id = 3; id <= 100; id++) {
+            cache.put(id, "note" + id, null, none);
+        }
+        assertEquals(cache.findId("Aa"), 1);
+        assertEquals(cache.findId("BB"), 2);
+
+        // Removing the first of a probe run must keep the rest reachable.
+        cache.remove(1);
+        assertEquals(cache.findId("Aa"), 0);
+        assertEquals(cache.findId("BB"), 2);
+        for (int id = 3; id <= 100; id += 2) {
+            cache.remove(id);
+        }
+        for (int id = 4; id <= 100; id += 2) {
+            cache.put(id, "renamed" + id, null, none);
+        }
+        for (int id = 3; id <= 100; id++) {
+            assertEquals(cache.findId("note" + id), 0);
+            assertEquals(cache.findId("renamed" + id), (id % 2 == 0)? id : 0);
+        }
+    }
+}
@@ -8,11 +8,14 @@ package dmh.kuebiko.model.filesystem;
 
 import static dmh.kuebiko.test.TestHelper.newDummyNote;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -123,8 +126,9 @@ public class FileSystemNoteDaoTest extends AbstractNoteDaoTest {
         // Create a single note.
         dao.addNote(newDummyNote(dummyTitle , dummyText));
 
-        // Check the contents of the storage directory for the new note.
-        final File[] dataFiles = tempDir.listFiles();
+        // Check the contents of the storage directory for the new note. The
+        // metadata directory (holding the change log) doesn't count.
+        final File[] dataFiles = NoteFileUtil.listNoteFilesInDir(tempDir);
         assertEquals(dataFiles.length, 1, "One note should exist.");
         assertEquals(dataFiles[0].getName(),
                 String.format("%s.%s", dummyTitle, NoteFileUtil.FILE_EXTENSION),
@@ -139,7 +143,8 @@ public class FileSystemNoteDaoTest extends AbstractNoteDaoTest {
         dao.deleteNote(note);
 
         // Check the contents of the storage directory for emptiness.
-        assertEquals(tempDir.listFiles().length, 0, "No notes should exist.");
+        assertEquals(NoteFileUtil.listNoteFilesInDir(tempDir).length, 0,
+                "No notes should exist.");
     }
 
     @Test
@@ -199,4 +204,94 @@ public class FileSystemNoteDaoTest extends AbstractNoteDaoTest {
         // Do one last check.
         checkIntegrity(newNoteDao(), redShirts.size());
     }
+
+    @Test
+    public void tagPersistenceTest() throws Exception {
+        final NoteDao dao = newNoteDao();
+        final Note newNote = newDummyNote("Millennium Falcon", "Kessel Run");
+        newNote.setTags(Arrays.asList("ship", "smuggler"));
+        dao.addNote(newNote);
+        dao.addNote(newDummyNote("Slave I", "Bounty hunter"));
+
+        // Tags should survive a round trip, and be available on hollow notes.
+        Note note = newFileSystemNoteDao().findNote("Millennium Falcon");
+        assertEquals(note.getTags(), Arrays.asList("ship", "smuggler"),
+                "Note should have its saved tags.");
+
+        // Rename the tagged note; its tags should follow it.
+        final NoteDao updateDao = newNoteDao();
+        note = ((FileSystemNoteDao) updateDao).findNote("Millennium Falcon");
+        note.getText(); // Load the text; hollow notes can't be changed.
+        note.setTitle("Falcon");
+        updateDao.updateNote(note);
+        assertEquals(newFileSystemNoteDao().findNote("Falcon").getTags(),
+                Arrays.asList("ship", "smuggler"), "Tags should follow a renamed note.");
+
+        // Clearing the last tags should remove the tag file.
+        final NoteDao clearDao = newNoteDao();
+        note = ((FileSystemNoteDao) clearDao).findNote("Falcon");
+        note.setTags(Collections.<String>emptyList());
+        clearDao.updateNote(note);
+        assertTrue(newFileSystemNoteDao().findNote("Falcon").getTags().isEmpty(),
+                "Tags should be cleared.");
+        assertFalse(new File(new File(tempDir, NoteFileUtil.METADATA_DIR_NAME),
+                NoteFileUtil.TAG_FILE_NAME).exists(), "Tag file should be removed.");
+    }
+
+    @Test
+    public void batchTagPersistenceTest() throws Exception {
+        final NoteDao dao = newNoteDao();
+        final File tagFile = new File(new File(tempDir, NoteFileUtil.METADATA_DIR_NAME),
+                NoteFileUtil.TAG_FILE_NAME);
+
+        dao.beginBatch();
+        for (String title: Arrays.asList("X-wing", "Y-wing", "A-wing")) {
+            final Note note = newDummyNote(title, "Rebel fighter");
+            note.setTags(Arrays.asList("rebel", "fighter"));
+            dao.addNote(note);
+        }
+        assertFalse(tagFile.exists(), "Tag file should not be written mid-batch.");
+
+        dao.commitBatch();
+        assertTrue(tagFile.exists(), "Tag file should be written once the batch commits.");
+        assertEquals(newFileSystemNoteDao().findNote("Y-wing").getTags(),
+                Arrays.asList("rebel", "fighter"), "Note should have its saved tags.");
+    }
+
+    /**
+     * Test reading notes that were saved in a batch, before the batch is
+     * committed (e.g. the user interface reloading a note saved in the
+     * background).
+     */
+    @Test
+    public void readMidBatchTest() throws Exception {
+        final NoteDao dao = newNoteDao();
+        dao.addNote(newDummyNote("Hoth", "old text"));
+        dao.addNote(newDummyNote("Endor", "old text"));
+
+        dao.beginBatch();
+        final Note edited = ((FileSystemNoteDao) dao).findNote("Hoth");
+        edited.getText();
+        edited.setText("new text");
+        dao.updateNote(edited);
+        final Note renamed = ((FileSystemNoteDao) dao).findNote("Endor");
+        renamed.getText();
+        renamed.setTitle("Forest Moon");
+        renamed.setText("renamed text");
+        dao.updateNote(renamed);
+
+        // The notes are hollow again, so these reload them mid-batch.
+        assertEquals(edited.getText(), "new text", "Edited note should not revert.");
+        assertEquals(renamed.getText(), "renamed text", "Renamed note should be readable.");
+        assertEquals(((FileSystemNoteDao) dao).scanText(edited).toString(), "new text");
+
+        dao.commitBatch();
+        assertEquals(edited.getText(), "new text");
+        final FileSystemNoteDao readDao = newFileSystemNoteDao();
+        assertEquals(readDao.findNote("Hoth").getText(), "new text",
+                "Saved text should be on disk.");
+        assertEquals(readDao.findNote("Forest Moon").getText(), "renamed text",
+                "Renamed note should be on disk.");
+        assertEquals(readDao.findNote("Endor"), null, "Old file should be gone.");
+    }
 }
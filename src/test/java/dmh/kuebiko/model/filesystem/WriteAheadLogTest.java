@@ -0,0 +1,100 @@
+/**
+ * Kuebiko - WriteAheadLogTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.model.filesystem;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * TestNG test class for the WriteAheadLog class.
+ * @see dmh.kuebiko.model.filesystem.WriteAheadLog
+ *
+ * @author davehuffman
+ */
+public class WriteAheadLogTest {
+    private static byte[] bytes(String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+
+    private static String read(File file) throws IOException {
+        return Files.toString(file, Charsets.UTF_8);
+    }
+
+    @Test
+    public void commitTest() throws Exception {
+        for (Durability durability: Durability.values()) {
+            final File dir = Files.createTempDir();
+            try {
+                final File logFile = new File(dir, ".kuebiko/" + WriteAheadLog.FILE_NAME);
+                final WriteAheadLog changeLog = new WriteAheadLog(dir, logFile, durability);
+                changeLog.stagePut("a.html", bytes("alpha"));
+                changeLog.stagePut(".kuebiko/b.txt", bytes("beta"));
+                assertFalse(new File(dir, "a.html").exists());
+
+                changeLog.commit();
+                assertEquals(read(new File(dir, "a.html")), "alpha");
+                assertEquals(read(new File(dir, ".kuebiko/b.txt")), "beta");
+                // Only synchronous commits empty the log straight away.
+                assertEquals(logFile.exists(), durability != Durability.SYNC_EACH);
+
+                changeLog.stageDelete("a.html");
+                changeLog.stageDelete("missing.html");
+                changeLog.commit();
+                assertFalse(new File(dir, "a.html").exists());
+
+                changeLog.checkpoint();
+                assertFalse(logFile.exists());
+            } finally {
+                FileUtils.deleteDirectory(dir);
+            }
+        }
+    }
+
+    @Test
+    public void recoverTest() throws Exception {
+        final File dir = Files.createTempDir();
+        try {
+            final File logFile = new File(dir, ".kuebiko/" + WriteAheadLog.FILE_NAME);
+            final WriteAheadLog changeLog = new WriteAheadLog(dir, logFile, Durability.GROUP);
+            changeLog.stagePut("a.html", bytes("alpha"));
+            changeLog.stagePut("b.html", bytes("beta"));
+            changeLog.commit();
+            changeLog.stagePut("a.html", bytes("gamma"));
+            changeLog.stageDelete("b.html");
+            changeLog.commit();
+
+            // Lose the applied changes, as if the machine had crashed, and cut
+            // a group short after the committed ones.
+            FileUtils.deleteQuietly(new File(dir, "a.html"));
+            FileUtils.writeStringToFile(new File(dir, "b.html"), "stale");
+            final FileOutputStream out = new FileOutputStream(logFile, true);
+            out.write(new byte[] { 0x4b, 0x57, 0x41, 0x4c, 0, 0 });
+            out.close();
+
+            new WriteAheadLog(dir, logFile, Durability.GROUP).recover();
+            assertEquals(read(new File(dir, "a.html")), "gamma");
+            assertFalse(new File(dir, "b.html").exists());
+            assertFalse(logFile.exists());
+
+            // Recovering without a log changes nothing.
+            new WriteAheadLog(dir, logFile, Durability.GROUP).recover();
+            assertTrue(new File(dir, "a.html").exists());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
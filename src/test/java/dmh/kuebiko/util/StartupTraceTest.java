@@ -0,0 +1,60 @@
+/**
+ * Kuebiko - StartupTraceTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+package dmh.kuebiko.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import dmh.kuebiko.util.StartupTrace.Phase;
+
+/**
+ * TestNG test class for the StartupTrace class.
+ * @see dmh.kuebiko.util.StartupTrace
+ *
+ * @author davehuffman
+ */
+public class StartupTraceTest {
+    @Test
+    public void phasesTest() {
+        final StartupTrace trace = new StartupTrace(System.currentTimeMillis());
+        trace.begin("settings");
+        trace.begin("frame build");
+        trace.end("settings");
+
+        final List<Phase> phases = trace.getPhases();
+        assertEquals(phases.size(), 2);
+        assertEquals(phases.get(0).getName(), "settings");
+        assertTrue(phases.get(0).isEnded());
+        assertTrue(phases.get(0).getDuration() >= 0);
+        assertEquals(phases.get(1).getName(), "frame build");
+        assertFalse(phases.get(1).isEnded());
+        assertEquals(phases.get(1).getDuration(), -1);
+    }
+
+    @Test
+    public void repeatedPhaseTest() {
+        final StartupTrace trace = new StartupTrace(System.currentTimeMillis() - 1000);
+        trace.begin("editor build");
+        trace.end("editor build");
+        final long end = trace.getPhases().get(0).getEnd();
+        assertTrue(end >= 1000);
+
+        // Only the first run of a phase is recorded.
+        trace.begin("editor build");
+        trace.end("editor build");
+        assertEquals(trace.getPhases().size(), 1);
+        assertEquals(trace.getPhases().get(0).getEnd(), end);
+
+        // Ending a phase that never began is ignored.
+        trace.end("first paint");
+        assertEquals(trace.getPhases().size(), 1);
+    }
+}
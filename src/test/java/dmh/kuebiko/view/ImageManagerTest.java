@@ -5,6 +5,7 @@
  */
 package dmh.kuebiko.view;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertSame;
 
@@ -15,14 +16,18 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
+import javax.swing.ImageIcon;
+
 import org.apache.commons.io.FilenameUtils;
 import org.testng.annotations.Test;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import dmh.swing.huxley.HuxleyImageManager;
+import dmh.util.ImageManager;
 import dmh.util.ImageManager.ImageSize;
 
 /**
@@ -54,6 +59,23 @@ public class ImageManagerTest {
         }
     }
 
+    @Test
+    public void preloadTest() throws Exception {
+        final ImageManager imageManager = KuebikoImageManager.get();
+        imageManager.setDefaultSize(ImageSize.SMALL);
+        final Collection<String> imageIds = getImageIds(ImageSize.SMALL);
+        assertEquals(Sets.newHashSet(imageManager.listImages()), Sets.newHashSet(imageIds));
+
+        imageManager.preloadAll();
+        for (String imageId: imageIds) {
+            final ImageIcon icon = imageManager.getIcon(imageId);
+            assertSame(imageManager.getIcon(imageId), icon,
+                    "Icons should be shared.");
+            assertSame(imageManager.getImage(imageId), icon.getImage(),
+                    "Images should come from the shared icons.");
+        }
+    }
+
     /**
      * Retrieve a list of all known image ID strings of a particular size.
      * @param size The size of the requested images.
@@ -0,0 +1,144 @@
+/**
+ * Kuebiko - NoteRowSorterTest.java
+ * Copyright 2013 Dave Huffman (dave dot huffman at me dot com).
+ * Open source under the BSD 3-Clause License.
+ */
+
+package dmh.kuebiko.view;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.BitSet;
+
+import javax.swing.SortOrder;
+
+import org.testng.annotations.Test;
+
+import dmh.kuebiko.model.Note;
+import dmh.kuebiko.test.TestHelper;
+import dmh.kuebiko.view.NoteTableModel.Column;
+
+/**
+ * TestNG test class for the NoteRowSorter class.
+ * @see dmh.kuebiko.view.NoteRowSorter
+ *
+ * @author davehuffman
+ */
+public class NoteRowSorterTest {
+    private static NoteTableModel newModel(String... titles) {
+        final Note[] notes = new Note[titles.length];
+        for (int i = 0; i < titles.length; i++) {
+            notes[i] = TestHelper.newDummyNote(titles[i], "");
+        }
+        return TestHelper.newNoteTableModel(notes);
+    }
+
+    private static String[] viewTitles(NoteRowSorter sorter) {
+        final String[] titles = new String[sorter.getViewRowCount()];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = (String) sorter.getModel().getValueAt(
+                    sorter.convertRowIndexToModel(i), Column.TITLE);
+        }
+        return titles;
+    }
+
+    @Test
+    public void unsortedTest() {
+        final NoteRowSorter sorter = new NoteRowSorter(newModel("b", "a", "c"));
+        assertEquals(sorter.getViewRowCount(), 3);
+        assertEquals(viewTitles(sorter), new String[] { "b", "a", "c" });
+        assertEquals(sorter.convertRowIndexToView(2), 2);
+    }
+
+    @Test
+    public void sortTitleTest() {
+        final NoteRowSorter sorter = new NoteRowSorter(newModel("beta", "Alpha", "gamma", "delta"));
+
+        sorter.toggleSortOrder(Column.TITLE.ordinal());
+        assertEquals(sorter.getSortKeys().get(0).getSortOrder(), SortOrder.ASCENDING);
+        assertEquals(viewTitles(sorter), new String[] { "Alpha", "beta", "delta", "gamma" });
+        assertEquals(sorter.convertRowIndexToView(0), 1);
+
+        sorter.toggleSortOrder(Column.TITLE.ordinal());
+        assertEquals(sorter.getSortKeys().get(0).getSortOrder(), SortOrder.DESCENDING);
+        assertEquals(viewTitles(sorter), new String[] { "gamma", "delta", "beta", "Alpha" });
+    }
+
+    @Test
+    public void unsortableColumnTest() {
+        final NoteRowSorter sorter = new NoteRowSorter(newModel("b", "a"));
+        sorter.toggleSortOrder(Column.TAGS.ordinal());
+        assertTrue(sorter.getSortKeys().isEmpty());
+        assertEquals(viewTitles(sorter), new String[] { "b", "a" });
+    }
+
+    @Test
+    public void filterTest() {
+        final NoteRowSorter sorter = new NoteRowSorter(newModel("d", "c", "b", "a"));
+        final BitSet matches = new BitSet();
+        matches.set(0);
+        matches.set(2);
+        matches.set(3);
+
+        sorter.setFilter(new NoteRowSorter.FixedMatchFilter(matches));
+        assertEquals(viewTitles(sorter), new String[] { "d", "b", "a" });
+        assertEquals(sorter.convertRowIndexToView(1), -1);
+
+        sorter.toggleSortOrder(Column.TITLE.ordinal());
+        assertEquals(viewTitles(sorter), new String[] { "a", "b", "d" });
+        assertEquals(sorter.convertRowIndexToView(0), 2);
+
+        sorter.setFilter(null);
+        assertEquals(viewTitles(sorter), new String[] { "a", "b", "c", "d" });
+    }
+
+    @Test
+    public void insertTest() {
+        final NoteTableModel model = newModel("b", "c");
+        final NoteRowSorter sorter = new NoteRowSorter(model);
+        sorter.toggleSortOrder(Column.TITLE.ordinal());
+
+        model.addNewNote("a");
+        sorter.rowsInserted(2, 2);
+        assertEquals(viewTitles(sorter), new String[] { "a", "b", "c" });
+
+        // A batch of rows is merged in.
+        model.addNewNote("e");
+        model.addNewNote("bb");
+        model.addNewNote("d");
+        sorter.rowsInserted(3, 5);
+        assertEquals(viewTitles(sorter), new String[] { "a", "b", "bb", "c", "d", "e" });
+    }
+
+    @Test
+    public void deleteTest() {
+        final NoteTableModel model = newModel("b", "d", "a", "c");
+        final NoteRowSorter sorter = new NoteRowSorter(model);
+        sorter.toggleSortOrder(Column.TITLE.ordinal());
+
+        model.deleteNote(model.getNoteAtRow(1));
+        sorter.rowsDeleted(1, 1);
+        assertEquals(viewTitles(sorter), new String[] { "a", "b", "c" });
+        assertEquals(sorter.convertRowIndexToView(2), 2);
+        assertEquals(sorter.convertRowIndexToModel(0), 1);
+    }
+
+    @Test
+    public void updateTest() {
+        final NoteTableModel model = newModel("b", "c", "a");
+        final NoteRowSorter sorter = new NoteRowSorter(model);
+        sorter.toggleSortOrder(Column.TITLE.ordinal());
+
+        final Note note = model.getNoteAtRow(2);
+        note.getText();
+        note.setTitle("z");
+        sorter.rowsUpdated(2, 2, Column.TITLE.ordinal());
+        assertEquals(viewTitles(sorter), new String[] { "b", "c", "z" });
+
+        // Updates to other columns don't move rows.
+        model.getNoteAtRow(0).setTitle("y");
+        sorter.rowsUpdated(0, 0, Column.TAGS.ordinal());
+        assertEquals(viewTitles(sorter), new String[] { "y", "c", "z" });
+    }
+}
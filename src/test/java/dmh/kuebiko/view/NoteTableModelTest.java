@@ -11,10 +11,14 @@ import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+
 import org.testng.annotations.Test;
 
 import dmh.kuebiko.model.Note;
 import dmh.kuebiko.test.TestHelper;
+import dmh.kuebiko.view.NoteTableModel.Column;
 
 /**
  * Unit test class for NoteTableModel.
@@ -48,4 +52,29 @@ public class NoteTableModelTest {
         assertTrue(coordVal.equals(enumVal),
                 "Both getValueAt(...) methods should return the same result.");
     }
+
+    @Test
+    public void displayTextTest() {
+        NoteTableModel model = TestHelper.newNoteTableModel(
+                TestHelper.newDummyNote("foo", ""), TestHelper.newDummyNote("bar", ""));
+        final int title = Column.TITLE.ordinal();
+        final int tags = Column.TAGS.ordinal();
+
+        assertEquals(model.getDisplayText(1, title), "bar");
+        assertEquals(model.getDisplayText(0, tags), "");
+        assertEquals(model.getDisplayText(0, Column.DATE_MODIFIED.ordinal()),
+                new SimpleDateFormat(NoteTableModel.DATE_FORMAT).format(
+                        model.getNoteAtRow(0).getModifiedDate()));
+
+        // Edits, additions and deletions refresh the affected rows.
+        model.setValueAt(Arrays.asList("a", "b"), 0, tags);
+        assertEquals(model.getDisplayText(0, tags), "a, b");
+
+        model.addNewNote("baz");
+        assertEquals(model.getDisplayText(2, title), "baz");
+
+        model.deleteNote(model.getNoteAtRow(0));
+        assertEquals(model.getDisplayText(0, title), "bar");
+        assertEquals(model.getDisplayText(1, title), "baz");
+    }
 }